@@ -5,9 +5,11 @@ pluginManagement {
     val springBootVersion: String by settings
     plugins {
         id("org.springframework.boot") version springBootVersion
+        id("me.champeau.jmh") version "0.7.3"
     }
 }
 
 include("status-machina-core")
 include("status-machina-spring")
+include("status-machina-benchmarks")
 //include("status-machina-atomix")
@@ -0,0 +1,52 @@
+/*
+ * JMH benchmarks for the status machina transition engine. This module is not published.
+ *
+ * Run all suites with:  ./gradlew :status-machina-benchmarks:jmh
+ * Run a subset with:    ./gradlew :status-machina-benchmarks:jmh -Pjmh.includes=SendEvent
+ * Add profilers with:   ./gradlew :status-machina-benchmarks:jmh -Pjmh.includes=Allocation -Pjmh.profilers=gc
+ */
+
+plugins {
+    java
+    `idea`
+    `eclipse`
+    id("org.springframework.boot")
+    id("me.champeau.jmh")
+}
+
+// the Spring Boot BOM manages the slf4j version, exactly as it does for status-machina-core
+apply(plugin = "io.spring.dependency-management")
+
+repositories {
+    mavenCentral()
+}
+
+val javaVersion: String by project
+
+java {
+    toolchain {
+        languageVersion.set(JavaLanguageVersion.of(javaVersion.toInt()))
+    }
+}
+
+dependencies {
+    jmh(project(":status-machina-core"))
+    // keeps the engine's debug logging disabled and silent while measuring
+    jmhRuntimeOnly("org.slf4j:slf4j-nop")
+}
+
+tasks.getByName("bootJar") {
+    enabled = false
+}
+
+jmh {
+    jmhVersion.set("1.37")
+    warmupIterations.set(3)
+    iterations.set(5)
+    fork.set(1)
+    resultFormat.set("JSON")
+    if (project.hasProperty("jmh.includes"))
+        includes.set(listOf(project.property("jmh.includes") as String))
+    if (project.hasProperty("jmh.profilers"))
+        profilers.set((project.property("jmh.profilers") as String).split(","))
+}
@@ -0,0 +1,77 @@
+/*
+ *  Copyright 2019 <---> Present Status Machina Contributors (https://github.com/entzik/status-machina/graphs/contributors)
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  This software is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR
+ *  CONDITIONS OF ANY KIND, either express or implied. See the License for the
+ *  specific language governing permissions and limitations under the License.
+ *
+ */
+
+package io.statusmachina.benchmarks;
+
+import io.statusmachina.core.api.Machine;
+import io.statusmachina.core.api.MachineDefinition;
+import io.statusmachina.core.api.MachineDefinitionBuilder;
+import io.statusmachina.core.stdimpl.EnumBasedMachineDefinitionBuilderProvider;
+import io.statusmachina.core.stdimpl.MachineDefImpl;
+import io.statusmachina.core.stdimpl.MachineInstanceBuilderImpl;
+
+import java.util.Arrays;
+import java.util.Map;
+
+/**
+ * helpers shared by the benchmark suites to build definitions and machine instances
+ */
+final class BenchmarkDefinitions {
+    /**
+     * the definition produced by {@link EnumBasedMachineDefinitionBuilderProvider}
+     */
+    static final String ENUM = "enum";
+    /**
+     * the definition produced by {@link MachineDefImpl#newBuilder()}, which does not rely on enum ordinals
+     */
+    static final String GENERIC = "generic";
+
+    private BenchmarkDefinitions() {
+    }
+
+    static MachineDefinitionBuilder<BenchStates, BenchEvents> builder(String implementation) {
+        switch (implementation) {
+            case ENUM:
+                return new EnumBasedMachineDefinitionBuilderProvider<BenchStates, BenchEvents>()
+                        .getMachineDefinitionBuilder(BenchStates.class, BenchEvents.class);
+            case GENERIC:
+                return MachineDefImpl.<BenchStates, BenchEvents>newBuilder()
+                        .stateToString(Enum::name)
+                        .stringToState(BenchStates::valueOf)
+                        .eventToString(Enum::name)
+                        .stringToEvent(BenchEvents::valueOf);
+            default:
+                throw new IllegalArgumentException("unknown definition implementation " + implementation);
+        }
+    }
+
+    static BenchStates[] states(int count) {
+        return Arrays.copyOf(BenchStates.values(), count);
+    }
+
+    static BenchEvents[] events(int count) {
+        return Arrays.copyOf(BenchEvents.values(), count);
+    }
+
+    /**
+     * builds a machine instance that uses the no-op persistence callback provided by {@link MachineInstanceBuilderImpl}
+     */
+    static Machine<BenchStates, BenchEvents> newMachine(MachineDefinition<BenchStates, BenchEvents> def, Map<String, String> context) throws Exception {
+        return new MachineInstanceBuilderImpl<BenchStates, BenchEvents>()
+                .ofType(def)
+                .withContext(context)
+                .build();
+    }
+}
@@ -0,0 +1,70 @@
+/*
+ *  Copyright 2019 <---> Present Status Machina Contributors (https://github.com/entzik/status-machina/graphs/contributors)
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  This software is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR
+ *  CONDITIONS OF ANY KIND, either express or implied. See the License for the
+ *  specific language governing permissions and limitations under the License.
+ *
+ */
+
+package io.statusmachina.benchmarks;
+
+import com.google.common.collect.ImmutableMap;
+import io.statusmachina.core.api.Machine;
+import io.statusmachina.core.api.MachineDefinition;
+import io.statusmachina.core.api.TransitionActionBase;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import static io.statusmachina.core.api.Transition.event;
+
+/**
+ * measures event transitions whose action adds an entry to the machine context, for growing context sizes
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class ContextMutationBenchmark {
+    @Param({"4", "32", "256"})
+    public int contextSize;
+
+    private Machine<BenchStates, BenchEvents> machine;
+
+    @Setup
+    public void setup() throws Exception {
+        final MachineDefinition<BenchStates, BenchEvents> def = BenchmarkDefinitions.builder(BenchmarkDefinitions.ENUM)
+                .name("context-mutation")
+                .states(BenchmarkDefinitions.states(2))
+                .initialState(BenchStates.S0)
+                .terminalStates(BenchStates.S1)
+                .events(BenchmarkDefinitions.events(1))
+                .transitions(event(BenchStates.S0, BenchStates.S1, BenchEvents.E0, new TransitionActionBase<Object>() {
+                    @Override
+                    public ImmutableMap<String, String> apply(ImmutableMap<String, String> context, Object parameter) {
+                        return ImmutableMap.<String, String>builderWithExpectedSize(context.size() + 1)
+                                .putAll(context)
+                                .put("touched", "yes")
+                                .build();
+                    }
+                }))
+                .build();
+        final Map<String, String> context = new HashMap<>();
+        for (int i = 0; i < contextSize; i++)
+            context.put("key-" + i, "value-" + i);
+        machine = BenchmarkDefinitions.newMachine(def, context);
+    }
+
+    @Benchmark
+    public Machine<BenchStates, BenchEvents> mutateContext() throws Exception {
+        return machine.sendEvent(BenchEvents.E0);
+    }
+}
@@ -0,0 +1,64 @@
+/*
+ *  Copyright 2019 <---> Present Status Machina Contributors (https://github.com/entzik/status-machina/graphs/contributors)
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  This software is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR
+ *  CONDITIONS OF ANY KIND, either express or implied. See the License for the
+ *  specific language governing permissions and limitations under the License.
+ *
+ */
+
+package io.statusmachina.benchmarks;
+
+import com.google.common.collect.ImmutableMap;
+import io.statusmachina.core.api.Machine;
+import io.statusmachina.core.api.MachineDefinition;
+import io.statusmachina.core.api.Transition;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.Optional;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Supplier;
+
+import static io.statusmachina.core.api.Transition.*;
+
+/**
+ * measures the delivery of an event that is only counted, because its transition waits for many of them, with a
+ * cardinality resolved once and with a dynamic one. the cardinality supplier looks up a system property, the way
+ * applications look up their configuration.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class EventCardinalityBenchmark {
+    private static final String CARDINALITY_PROPERTY = "statusmachina.benchmarks.cardinality";
+
+    @Param({"fixed", "dynamic"})
+    public String cardinality;
+
+    private Machine<BenchStates, BenchEvents> machine;
+
+    @Setup
+    public void setup() throws Exception {
+        final Supplier<Long> cardinalitySupplier = () -> Long.getLong(CARDINALITY_PROPERTY, 1_000_000L);
+        final MachineDefinition<BenchStates, BenchEvents> def = BenchmarkDefinitions.builder(BenchmarkDefinitions.ENUM)
+                .name("event-cardinality")
+                .states(BenchmarkDefinitions.states(2))
+                .initialState(BenchStates.S0)
+                .terminalStates(BenchStates.S1)
+                .events(BenchmarkDefinitions.events(1))
+                .transitions(new Transition<>(BenchStates.S0, BenchStates.S1, Optional.of(BenchEvents.E0), NO_GUARD, NO_ACTION, NO_POST_ACTION, cardinalitySupplier, "dynamic".equals(cardinality)))
+                .build();
+        machine = BenchmarkDefinitions.newMachine(def, ImmutableMap.of("k1", "v1", "k2", "v2"));
+    }
+
+    @Benchmark
+    public Machine<BenchStates, BenchEvents> countedEvent() throws Exception {
+        return machine.sendEvent(BenchEvents.E0);
+    }
+}
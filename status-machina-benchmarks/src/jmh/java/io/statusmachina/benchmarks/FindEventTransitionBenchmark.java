@@ -0,0 +1,82 @@
+/*
+ *  Copyright 2019 <---> Present Status Machina Contributors (https://github.com/entzik/status-machina/graphs/contributors)
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  This software is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR
+ *  CONDITIONS OF ANY KIND, either express or implied. See the License for the
+ *  specific language governing permissions and limitations under the License.
+ *
+ */
+
+package io.statusmachina.benchmarks;
+
+import io.statusmachina.core.api.MachineDefinition;
+import io.statusmachina.core.api.Transition;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Optional;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import static io.statusmachina.core.api.Transition.event;
+
+/**
+ * measures {@link MachineDefinition#findEventTransition(Object, Object)} on definitions where every state reacts to
+ * every event, for growing numbers of states and events. lookups cycle through a pre-computed random sequence of
+ * (state, event) pairs so that branch prediction does not learn a single key.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class FindEventTransitionBenchmark {
+    private static final int LOOKUPS = 1024;
+
+    @Param({"4", "16", "64"})
+    public int size;
+
+    @Param({BenchmarkDefinitions.ENUM, BenchmarkDefinitions.GENERIC})
+    public String implementation;
+
+    private MachineDefinition<BenchStates, BenchEvents> def;
+    private final BenchStates[] lookupStates = new BenchStates[LOOKUPS];
+    private final BenchEvents[] lookupEvents = new BenchEvents[LOOKUPS];
+    private int cursor;
+
+    @Setup
+    public void setup() {
+        final BenchStates[] states = BenchmarkDefinitions.states(size);
+        final BenchEvents[] events = BenchmarkDefinitions.events(size);
+        final List<Transition<BenchStates, BenchEvents>> transitions = new ArrayList<>(size * size);
+        for (int s = 0; s < size; s++)
+            for (int e = 0; e < size; e++)
+                transitions.add(event(states[s], states[(s + e + 1) % size], events[e]));
+        @SuppressWarnings("unchecked") final Transition<BenchStates, BenchEvents>[] allTransitions = transitions.toArray(new Transition[0]);
+        def = BenchmarkDefinitions.builder(implementation)
+                .name("find-event-transition")
+                .states(states)
+                .initialState(BenchStates.S0)
+                .terminalStates()
+                .events(events)
+                .transitions(allTransitions)
+                .build();
+
+        final Random random = new Random(42);
+        for (int i = 0; i < LOOKUPS; i++) {
+            lookupStates[i] = states[random.nextInt(size)];
+            lookupEvents[i] = events[random.nextInt(size)];
+        }
+    }
+
+    @Benchmark
+    public Optional<Transition<BenchStates, BenchEvents>> findEventTransition() {
+        final int i = cursor++ & (LOOKUPS - 1);
+        return def.findEventTransition(lookupStates[i], lookupEvents[i]);
+    }
+}
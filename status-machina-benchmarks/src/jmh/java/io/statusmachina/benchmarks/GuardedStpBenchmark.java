@@ -0,0 +1,74 @@
+/*
+ *  Copyright 2019 <---> Present Status Machina Contributors (https://github.com/entzik/status-machina/graphs/contributors)
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  This software is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR
+ *  CONDITIONS OF ANY KIND, either express or implied. See the License for the
+ *  specific language governing permissions and limitations under the License.
+ *
+ */
+
+package io.statusmachina.benchmarks;
+
+import com.google.common.collect.ImmutableMap;
+import io.statusmachina.core.api.Machine;
+import io.statusmachina.core.api.MachineDefinition;
+import io.statusmachina.core.api.Transition;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.Optional;
+import java.util.concurrent.TimeUnit;
+
+import static io.statusmachina.core.api.Transition.stp;
+
+/**
+ * measures STP resolution out of a state with many guarded candidates, where only the last configured guard lets
+ * the transition through, both as a raw definition lookup and as part of {@link Machine#start()}
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class GuardedStpBenchmark {
+    @Param({"1", "8", "32"})
+    public int guards;
+
+    @Param({BenchmarkDefinitions.ENUM, BenchmarkDefinitions.GENERIC})
+    public String implementation;
+
+    private MachineDefinition<BenchStates, BenchEvents> def;
+    private ImmutableMap<String, String> context;
+
+    @Setup
+    public void setup() {
+        @SuppressWarnings("unchecked") final Transition<BenchStates, BenchEvents>[] candidates = new Transition[guards];
+        for (int i = 0; i < guards; i++) {
+            final String route = "route-" + i;
+            candidates[i] = stp(BenchStates.S0, BenchStates.S1, context -> route.equals(context.get("route")));
+        }
+        def = BenchmarkDefinitions.builder(implementation)
+                .name("guarded-stp")
+                .states(BenchmarkDefinitions.states(2))
+                .initialState(BenchStates.S0)
+                .idleStates(BenchStates.S1)
+                .terminalStates()
+                .events(BenchmarkDefinitions.events(1))
+                .transitions(candidates)
+                .build();
+        context = ImmutableMap.of("route", "route-" + (guards - 1), "k1", "v1");
+    }
+
+    @Benchmark
+    public Optional<Transition<BenchStates, BenchEvents>> resolve() {
+        return def.findStpTransition(BenchStates.S0, context);
+    }
+
+    @Benchmark
+    public Machine<BenchStates, BenchEvents> start() throws Exception {
+        return BenchmarkDefinitions.newMachine(def, context).start();
+    }
+}
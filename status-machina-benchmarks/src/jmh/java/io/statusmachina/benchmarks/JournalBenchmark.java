@@ -0,0 +1,92 @@
+/*
+ *  Copyright 2019 <---> Present Status Machina Contributors (https://github.com/entzik/status-machina/graphs/contributors)
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  This software is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR
+ *  CONDITIONS OF ANY KIND, either express or implied. See the License for the
+ *  specific language governing permissions and limitations under the License.
+ *
+ */
+
+package io.statusmachina.benchmarks;
+
+import com.google.common.collect.ImmutableMap;
+import io.statusmachina.core.api.Machine;
+import io.statusmachina.core.api.MachineDefinition;
+import io.statusmachina.core.stdimpl.JournalStateMachineService;
+import org.openjdk.jmh.annotations.*;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Comparator;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+
+import static io.statusmachina.core.api.Transition.event;
+
+/**
+ * measures transitions persisted by the {@link JournalStateMachineService}, with and without group commit, from
+ * several threads each updating its own machine back and forth between two states. the journal is written to a
+ * temporary directory, so the result depends on the local disk.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Threads(8)
+public class JournalBenchmark {
+    @State(Scope.Benchmark)
+    public static class Journal {
+        @Param({"true", "false"})
+        public boolean groupCommit;
+
+        private Path directory;
+        private MachineDefinition<BenchStates, BenchEvents> def;
+        private JournalStateMachineService<BenchStates, BenchEvents> service;
+
+        @Setup
+        public void setup() throws IOException {
+            directory = Files.createTempDirectory("status-machina-journal");
+            def = BenchmarkDefinitions.builder(BenchmarkDefinitions.ENUM)
+                    .name("journal")
+                    .states(BenchmarkDefinitions.states(2))
+                    .initialState(BenchStates.S0)
+                    .terminalStates()
+                    .events(BenchmarkDefinitions.events(2))
+                    .transitions(
+                            event(BenchStates.S0, BenchStates.S1, BenchEvents.E0),
+                            event(BenchStates.S1, BenchStates.S0, BenchEvents.E1)
+                    )
+                    .build();
+            service = new JournalStateMachineService<>(directory, JournalStateMachineService.DEFAULT_SEGMENT_SIZE, groupCommit);
+        }
+
+        @TearDown
+        public void tearDown() throws IOException {
+            service.close();
+            try (Stream<Path> files = Files.walk(directory)) {
+                files.sorted(Comparator.reverseOrder()).forEach(path -> path.toFile().delete());
+            }
+        }
+    }
+
+    @State(Scope.Thread)
+    public static class OwnMachine {
+        private Machine<BenchStates, BenchEvents> machine;
+
+        @Setup
+        public void setup(Journal journal) throws Exception {
+            machine = journal.service.newMachine(journal.def, ImmutableMap.of("k1", "v1", "k2", "v2"));
+        }
+    }
+
+    @Benchmark
+    public Machine<BenchStates, BenchEvents> sendEvent(OwnMachine own) throws Exception {
+        own.machine = own.machine.sendEvent(own.machine.getCurrentState() == BenchStates.S0 ? BenchEvents.E0 : BenchEvents.E1);
+        return own.machine;
+    }
+}
@@ -0,0 +1,75 @@
+/*
+ *  Copyright 2019 <---> Present Status Machina Contributors (https://github.com/entzik/status-machina/graphs/contributors)
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  This software is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR
+ *  CONDITIONS OF ANY KIND, either express or implied. See the License for the
+ *  specific language governing permissions and limitations under the License.
+ *
+ */
+
+package io.statusmachina.benchmarks;
+
+import com.google.common.collect.ImmutableMap;
+import io.statusmachina.core.api.Machine;
+import io.statusmachina.core.api.MachineDefinition;
+import io.statusmachina.core.api.Transition;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.Optional;
+import java.util.concurrent.TimeUnit;
+
+import static io.statusmachina.core.api.Transition.*;
+
+/**
+ * <p>tracks the memory allocated by event delivery when no action is configured and the default transition handler is
+ * in use. it is meant to be run with the GC profiler and read through the <code>gc.alloc.rate.norm</code> metric:</p>
+ *
+ * <pre>./gradlew :status-machina-benchmarks:jmh -Pjmh.includes=Allocation -Pjmh.profilers=gc</pre>
+ *
+ * <p>the only objects a transition is expected to allocate are the resulting machine instance and its persistence
+ * envelope.</p>
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class SendEventAllocationBenchmark {
+    private Machine<BenchStates, BenchEvents> machine;
+
+    @Setup
+    public void setup() throws Exception {
+        final MachineDefinition<BenchStates, BenchEvents> def = BenchmarkDefinitions.builder(BenchmarkDefinitions.ENUM)
+                .name("send-event-allocation")
+                .states(BenchmarkDefinitions.states(3))
+                .initialState(BenchStates.S0)
+                .terminalStates(BenchStates.S1, BenchStates.S2)
+                .events(BenchmarkDefinitions.events(2))
+                .transitions(
+                        event(BenchStates.S0, BenchStates.S1, BenchEvents.E0),
+                        new Transition<>(BenchStates.S0, BenchStates.S2, Optional.of(BenchEvents.E1), NO_GUARD, NO_ACTION, NO_POST_ACTION, () -> 2L)
+                )
+                .build();
+        machine = BenchmarkDefinitions.newMachine(def, ImmutableMap.of("k1", "v1", "k2", "v2"));
+    }
+
+    /**
+     * an event that triggers a transition
+     */
+    @Benchmark
+    public Machine<BenchStates, BenchEvents> transition() throws Exception {
+        return machine.sendEvent(BenchEvents.E0);
+    }
+
+    /**
+     * an event that is only counted, because the transition expects it twice
+     */
+    @Benchmark
+    public Machine<BenchStates, BenchEvents> countedEvent() throws Exception {
+        return machine.sendEvent(BenchEvents.E1);
+    }
+}
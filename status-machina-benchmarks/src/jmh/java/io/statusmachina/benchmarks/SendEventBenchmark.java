@@ -0,0 +1,71 @@
+/*
+ *  Copyright 2019 <---> Present Status Machina Contributors (https://github.com/entzik/status-machina/graphs/contributors)
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  This software is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR
+ *  CONDITIONS OF ANY KIND, either express or implied. See the License for the
+ *  specific language governing permissions and limitations under the License.
+ *
+ */
+
+package io.statusmachina.benchmarks;
+
+import com.google.common.collect.ImmutableMap;
+import io.statusmachina.core.api.Machine;
+import io.statusmachina.core.api.MachineDefinition;
+import io.statusmachina.core.api.TransitionActionBase;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.concurrent.TimeUnit;
+
+import static io.statusmachina.core.api.Transition.event;
+
+/**
+ * measures {@link Machine#sendEvent(Object)} on a single event transition, with and without a transition action.
+ * machines are immutable, so every invocation starts from the same instance.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class SendEventBenchmark {
+    @Param({BenchmarkDefinitions.ENUM, BenchmarkDefinitions.GENERIC})
+    public String implementation;
+
+    private Machine<BenchStates, BenchEvents> machine;
+
+    @Setup
+    public void setup() throws Exception {
+        final MachineDefinition<BenchStates, BenchEvents> def = BenchmarkDefinitions.builder(implementation)
+                .name("send-event")
+                .states(BenchmarkDefinitions.states(3))
+                .initialState(BenchStates.S0)
+                .terminalStates(BenchStates.S1, BenchStates.S2)
+                .events(BenchmarkDefinitions.events(2))
+                .transitions(
+                        event(BenchStates.S0, BenchStates.S1, BenchEvents.E0),
+                        event(BenchStates.S0, BenchStates.S2, BenchEvents.E1, new TransitionActionBase<Object>() {
+                            @Override
+                            public ImmutableMap<String, String> apply(ImmutableMap<String, String> context, Object parameter) {
+                                return context;
+                            }
+                        })
+                )
+                .build();
+        machine = BenchmarkDefinitions.newMachine(def, ImmutableMap.of("k1", "v1", "k2", "v2"));
+    }
+
+    @Benchmark
+    public Machine<BenchStates, BenchEvents> noAction() throws Exception {
+        return machine.sendEvent(BenchEvents.E0);
+    }
+
+    @Benchmark
+    public Machine<BenchStates, BenchEvents> passThroughAction() throws Exception {
+        return machine.sendEvent(BenchEvents.E1);
+    }
+}
@@ -0,0 +1,64 @@
+/*
+ *  Copyright 2019 <---> Present Status Machina Contributors (https://github.com/entzik/status-machina/graphs/contributors)
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  This software is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR
+ *  CONDITIONS OF ANY KIND, either express or implied. See the License for the
+ *  specific language governing permissions and limitations under the License.
+ *
+ */
+
+package io.statusmachina.benchmarks;
+
+import com.google.common.collect.ImmutableMap;
+import io.statusmachina.core.api.Machine;
+import io.statusmachina.core.api.MachineDefinition;
+import io.statusmachina.core.api.Transition;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.concurrent.TimeUnit;
+
+import static io.statusmachina.core.api.Transition.stp;
+
+/**
+ * measures building a machine and calling {@link Machine#start()} on it, which runs a chain of unguarded STP
+ * transitions out of the initial state until an idle state is reached
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class StartBenchmark {
+    @Param({"1", "8", "32"})
+    public int chainLength;
+
+    private MachineDefinition<BenchStates, BenchEvents> def;
+    private ImmutableMap<String, String> context;
+
+    @Setup
+    public void setup() {
+        final BenchStates[] states = BenchmarkDefinitions.states(chainLength + 1);
+        @SuppressWarnings("unchecked") final Transition<BenchStates, BenchEvents>[] chain = new Transition[chainLength];
+        for (int i = 0; i < chainLength; i++)
+            chain[i] = stp(states[i], states[i + 1]);
+        def = BenchmarkDefinitions.builder(BenchmarkDefinitions.ENUM)
+                .name("start")
+                .states(states)
+                .initialState(BenchStates.S0)
+                .idleStates(states[chainLength])
+                .terminalStates()
+                .events(BenchmarkDefinitions.events(1))
+                .transitions(chain)
+                .build();
+        context = ImmutableMap.of("k1", "v1", "k2", "v2");
+    }
+
+    @Benchmark
+    public Machine<BenchStates, BenchEvents> start() throws Exception {
+        return BenchmarkDefinitions.newMachine(def, context).start();
+    }
+}
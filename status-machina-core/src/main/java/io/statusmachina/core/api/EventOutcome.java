@@ -0,0 +1,82 @@
+/*
+ *
+ * Copyright 2019 <---> Present Status Machina Contributors (https://github.com/entzik/status-machina/graphs/contributors)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * This software is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR
+ * CONDITIONS OF ANY KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations under the License.
+ *
+ */
+package io.statusmachina.core.api;
+
+import java.util.Optional;
+
+/**
+ * the outcome of delivering an event to one of the machines of a bulk delivery, see
+ * {@link io.statusmachina.core.spi.StateMachineService#sendEvents(MachineDefinition, java.util.Collection, Object)}
+ *
+ * @param <S> the type of machine states
+ * @param <E> the type of events
+ */
+public class EventOutcome<S, E> {
+    private final String machineId;
+    private final Machine<S, E> machine;
+    private final Throwable error;
+
+    private EventOutcome(String machineId, Machine<S, E> machine, Throwable error) {
+        this.machineId = machineId;
+        this.machine = machine;
+        this.error = error;
+    }
+
+    /**
+     * @param machine the machine after the transition
+     * @return the outcome of an event that was delivered
+     */
+    public static <S, E> EventOutcome<S, E> delivered(Machine<S, E> machine) {
+        return new EventOutcome<>(machine.getId(), machine, null);
+    }
+
+    /**
+     * @param machineId the id of the machine
+     * @param error     why the event could not be delivered, or the error the transition failed with
+     * @return the outcome of an event that failed
+     */
+    public static <S, E> EventOutcome<S, E> failed(String machineId, Throwable error) {
+        return new EventOutcome<>(machineId, null, error);
+    }
+
+    /**
+     * the id of the machine the event was sent to
+     */
+    public String getMachineId() {
+        return machineId;
+    }
+
+    /**
+     * @return true if the event was delivered and its transition persisted
+     */
+    public boolean isDelivered() {
+        return error == null;
+    }
+
+    /**
+     * the machine after the transition, empty if the event failed
+     */
+    public Optional<Machine<S, E>> getMachine() {
+        return Optional.ofNullable(machine);
+    }
+
+    /**
+     * the error the event failed with, empty if it was delivered
+     */
+    public Optional<Throwable> getError() {
+        return Optional.ofNullable(error);
+    }
+}
@@ -22,6 +22,10 @@ import io.statusmachina.core.stdimpl.TransitionRecord;
 import java.util.List;
 import java.util.Map;
 import java.util.Optional;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.stream.Stream;
 
 /**
  * defines a state machine
@@ -41,15 +45,36 @@ public interface Machine<S, E> {
     S getCurrentState();
 
     /**
-     * @return the machine's context
+     * @return the machine's context, shared rather than copied with the instances derived from the machine until a
+     * transition changes it
      */
     ImmutableMap<String, String> getContext();
 
     /**
-     * @return the history of transitions executed on this state machine since it was created, to present
+     * @return the history of transitions executed on this state machine since it was created, to present, as recorded
+     * by the persistence callback. it is read when first requested, and the same immutable list is returned from then on:
+     * unlike earlier versions, which returned a modifiable copy, callers that need to modify it must copy it first.
      */
     List<TransitionRecord<S, E>> getHistory();
 
+    /**
+     * @param offset the number of transitions to skip, oldest first
+     * @param limit  the maximum number of transitions to return
+     * @return a page of the history of transitions, oldest first. unlike {@link #getHistory()}, only the requested page is
+     * read from the persistence callback.
+     */
+    default List<TransitionRecord<S, E>> getHistory(int offset, int limit) {
+        final List<TransitionRecord<S, E>> history = getHistory();
+        return history.subList(Math.min(offset, history.size()), (int) Math.min((long) offset + limit, history.size()));
+    }
+
+    /**
+     * @return the history of transitions, oldest first, read page by page as the stream is consumed
+     */
+    default Stream<TransitionRecord<S, E>> streamHistory() {
+        return getHistory().stream();
+    }
+
     /**
      * @return if the machine is in an error state, it returns the description. otherwise an empty optional
      */
@@ -65,6 +90,14 @@ public interface Machine<S, E> {
      */
     long getTransitionEventCounter();
 
+    /**
+     * @return the version of the machine as maintained by the persistence layer, or 0 if the persistence layer does
+     * not track versions
+     */
+    default long getVersion() {
+        return 0;
+    }
+
     public Optional<E> getCurrentEvent();
 
     /**
@@ -124,6 +157,29 @@ public interface Machine<S, E> {
      */
     <P> Machine<S,E> sendEvent(E event, P param) throws TransitionException;
 
+    /**
+     * delivers an event to the state machine without blocking the caller. the transition runs on the executor provided
+     * by {@link MachineDefinition#getAsyncExecutor()}.
+     *
+     * @param event the event to be delivered
+     * @return the machine after the transition, or the {@link TransitionException} the transition failed with
+     */
+    default CompletableFuture<Machine<S, E>> sendEventAsync(E event) {
+        return runAsync(() -> sendEvent(event), getDefinition().getAsyncExecutor());
+    }
+
+    /**
+     * delivers an event and its parameter to the state machine without blocking the caller. the transition runs on
+     * the executor provided by {@link MachineDefinition#getAsyncExecutor()}.
+     *
+     * @param event the event to be delivered
+     * @param param a parameter that gives context to the event
+     * @return the machine after the transition, or the {@link TransitionException} the transition failed with
+     */
+    default <P> CompletableFuture<Machine<S, E>> sendEventAsync(E event, P param) {
+        return runAsync(() -> sendEvent(event, param), getDefinition().getAsyncExecutor());
+    }
+
     /**
      * resets the machine to a particular state and context if it currently is in an error state. If this method is
      * called while the machine is not in an error state, {@link IllegalStateException} should be thrown.
@@ -134,4 +190,16 @@ public interface Machine<S, E> {
      * @param context the context to be applied
      */
     Machine<S,E> recoverFromError(S state, Map<String, String> context);
+
+    private static <S, E> CompletableFuture<Machine<S, E>> runAsync(Callable<Machine<S, E>> transition, Executor executor) {
+        final CompletableFuture<Machine<S, E>> result = new CompletableFuture<>();
+        executor.execute(() -> {
+            try {
+                result.complete(transition.call());
+            } catch (Throwable t) {
+                result.completeExceptionally(t);
+            }
+        });
+        return result;
+    }
 }
@@ -20,6 +20,8 @@ import com.google.common.collect.ImmutableMap;
 
 import java.util.Optional;
 import java.util.Set;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ForkJoinPool;
 import java.util.function.Consumer;
 import java.util.function.Function;
 
@@ -74,6 +76,22 @@ public interface MachineDefinition<S, E> {
      */
     Set<S> getTerminalStates();
 
+    /**
+     * @param state the state to be checked
+     * @return true if the specified state is one of the terminal states. see {@link #getTerminalStates()}
+     */
+    default boolean isTerminalState(S state) {
+        return getTerminalStates().contains(state);
+    }
+
+    /**
+     * @param state the state to be checked
+     * @return true if the specified state is one of the idle states. see {@link #getIdleStates()}
+     */
+    default boolean isIdleState(S state) {
+        return getIdleStates().contains(state);
+    }
+
     /**
      * @return the set of event the machine can react to
      */
@@ -136,4 +154,30 @@ public interface MachineDefinition<S, E> {
      * @return a handler that convers an event's string representation into the event itself
      */
     Function<String, E> getStringToEvent();
+
+    /**
+     * @return the executor on which {@link Machine#sendEventAsync(Object)} runs transitions. by default, the common
+     * fork join pool. the definitions built by the standard builders default to a virtual thread per transition when
+     * the runtime supports them.
+     */
+    default Executor getAsyncExecutor() {
+        return ForkJoinPool.commonPool();
+    }
+
+    /**
+     * @return the number of transitions a machine keeps in memory, if its persistence callback keeps the history in
+     * memory. older transitions are handed to {@link #getHistoryArchive()}. by default, none.
+     */
+    default int getHistoryRetention() {
+        return 0;
+    }
+
+    /**
+     * @return the archive that receives the transitions evicted from the history kept in memory. by default they are
+     * discarded.
+     */
+    default TransitionArchive<S, E> getHistoryArchive() {
+        return (machine, record) -> {
+        };
+    }
 }
@@ -15,6 +15,7 @@
 
 package io.statusmachina.core.api;
 
+import java.util.concurrent.Executor;
 import java.util.function.Consumer;
 import java.util.function.Function;
 
@@ -121,6 +122,30 @@ public interface MachineDefinitionBuilder<S, E> {
      */
     MachineDefinitionBuilder<S, E> transitionHandler(Consumer<TransitionData<S, E>> transitionHandler);
 
+    /**
+     * configures the executor on which asynchronous transitions run, see {@link Machine#sendEventAsync(Object)}
+     *
+     * @param asyncExecutor the executor
+     * @return an instance of the machine definition builder configured with the executor for asynchronous transitions
+     */
+    MachineDefinitionBuilder<S, E> asyncExecutor(Executor asyncExecutor);
+
+    /**
+     * configures how many transitions a machine keeps in memory, see {@link MachineDefinition#getHistoryRetention()}
+     *
+     * @param lastTransitions the number of transitions kept, 0 to keep none
+     * @return an instance of the machine definition builder configured with the history retention
+     */
+    MachineDefinitionBuilder<S, E> historyRetention(int lastTransitions);
+
+    /**
+     * configures the archive that receives the transitions evicted from the history kept in memory
+     *
+     * @param historyArchive the archive
+     * @return an instance of the machine definition builder configured with the history archive
+     */
+    MachineDefinitionBuilder<S, E> historyArchive(TransitionArchive<S, E> historyArchive);
+
     /**
      * configures the transitions that define how the state machines moves from one state to another either in reaction
      * to events being received or through STP (straight through processing) when conditions are met
@@ -16,6 +16,7 @@
 
 package io.statusmachina.core.api;
 
+import java.util.Collections;
 import java.util.Map;
 
 /**
@@ -92,4 +93,11 @@ public class MachineSnapshot {
     public long getLastModifiedEpoch() {
         return lastModifiedEpoch;
     }
+
+    /**
+     * @return a copy of this snapshot with an empty context
+     */
+    public MachineSnapshot withoutContext() {
+        return new MachineSnapshot(type, id, crtState, Collections.emptyMap(), errorType, error, lastModifiedEpoch);
+    }
 }
@@ -0,0 +1,94 @@
+/*
+ *
+ * Copyright 2019 <---> Present Status Machina Contributors (https://github.com/entzik/status-machina/graphs/contributors)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * This software is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR
+ * CONDITIONS OF ANY KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations under the License.
+ *
+ */
+
+package io.statusmachina.core.api;
+
+import java.util.Comparator;
+import java.util.List;
+import java.util.Optional;
+import java.util.stream.Collectors;
+
+/**
+ * a page of machine snapshots, ordered by machine id, as requested by a {@link SnapshotPageRequest}
+ */
+public class MachineSnapshotPage {
+    private final List<MachineSnapshot> snapshots;
+    private final String nextCursor;
+
+    /**
+     * @param snapshots  the snapshots in the page
+     * @param nextCursor the cursor of the next page, null if this is the last page
+     */
+    public MachineSnapshotPage(List<MachineSnapshot> snapshots, String nextCursor) {
+        this.snapshots = snapshots;
+        this.nextCursor = nextCursor;
+    }
+
+    /**
+     * builds a page from a list of snapshots holding all results of a query, for services that do not page natively
+     *
+     * @param all     all snapshots matching the query
+     * @param request the requested page
+     * @return the requested page
+     */
+    public static MachineSnapshotPage slice(List<MachineSnapshot> all, SnapshotPageRequest request) {
+        final String after = request.getAfter().orElse(null);
+        final List<MachineSnapshot> sorted = all.stream()
+                .filter(snapshot -> after == null || snapshot.getId().compareTo(after) > 0)
+                .sorted(Comparator.comparing(MachineSnapshot::getId))
+                .limit(request.getPageSize() + 1L)
+                .map(snapshot -> request.isWithContext() ? snapshot : snapshot.withoutContext())
+                .collect(Collectors.toList());
+        return of(sorted, request.getPageSize());
+    }
+
+    /**
+     * builds a page from the results of a query that fetched one snapshot more than the page size, so that the
+     * presence of a next page is known without running another query
+     *
+     * @param fetched  at most pageSize + 1 snapshots, ordered by id
+     * @param pageSize the page size
+     * @return the page
+     */
+    public static MachineSnapshotPage of(List<MachineSnapshot> fetched, int pageSize) {
+        if (fetched.size() <= pageSize)
+            return new MachineSnapshotPage(fetched, null);
+        final List<MachineSnapshot> page = fetched.subList(0, pageSize);
+        return new MachineSnapshotPage(page, page.get(pageSize - 1).getId());
+    }
+
+    /**
+     * the snapshots in this page
+     */
+    public List<MachineSnapshot> getSnapshots() {
+        return snapshots;
+    }
+
+    /**
+     * the cursor to pass to {@link SnapshotPageRequest#after(String)} to get the next page, empty if this is the last
+     * page
+     */
+    public Optional<String> getNextCursor() {
+        return Optional.ofNullable(nextCursor);
+    }
+
+    /**
+     * @return true if there is a page after this one
+     */
+    public boolean hasNext() {
+        return nextCursor != null;
+    }
+}
@@ -0,0 +1,83 @@
+/*
+ *
+ * Copyright 2019 <---> Present Status Machina Contributors (https://github.com/entzik/status-machina/graphs/contributors)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * This software is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR
+ * CONDITIONS OF ANY KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations under the License.
+ *
+ */
+
+package io.statusmachina.core.api;
+
+import java.util.Optional;
+
+/**
+ * describes a page of machine snapshots to be returned by a query. pages are ordered by machine id, and a page is
+ * requested by passing the cursor of the previous one, so results stay consistent while machines are added or removed.
+ */
+public class SnapshotPageRequest {
+    private final int pageSize;
+    private final String after;
+    private final boolean withContext;
+
+    private SnapshotPageRequest(int pageSize, String after, boolean withContext) {
+        if (pageSize <= 0)
+            throw new IllegalArgumentException("page size must be positive, got " + pageSize);
+        this.pageSize = pageSize;
+        this.after = after;
+        this.withContext = withContext;
+    }
+
+    /**
+     * request the first page of the specified size, with machine contexts
+     *
+     * @param pageSize the maximum number of snapshots in the page
+     * @return the page request
+     */
+    public static SnapshotPageRequest ofSize(int pageSize) {
+        return new SnapshotPageRequest(pageSize, null, true);
+    }
+
+    /**
+     * @param cursor the cursor of the previous page, as returned by {@link MachineSnapshotPage#getNextCursor()}
+     * @return a request for the page that follows the one the cursor was returned with
+     */
+    public SnapshotPageRequest after(String cursor) {
+        return new SnapshotPageRequest(pageSize, cursor, withContext);
+    }
+
+    /**
+     * @return a request for snapshots without context, which is cheaper to run and to hold in memory
+     */
+    public SnapshotPageRequest withoutContext() {
+        return new SnapshotPageRequest(pageSize, after, false);
+    }
+
+    /**
+     * the maximum number of snapshots in the page
+     */
+    public int getPageSize() {
+        return pageSize;
+    }
+
+    /**
+     * the cursor of the previous page, empty for the first page
+     */
+    public Optional<String> getAfter() {
+        return Optional.ofNullable(after);
+    }
+
+    /**
+     * whether the snapshots include the machine context
+     */
+    public boolean isWithContext() {
+        return withContext;
+    }
+}
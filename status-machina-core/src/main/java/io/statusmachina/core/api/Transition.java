@@ -45,6 +45,11 @@ public class Transition<S, E> {
     private final Optional<TransitionAction<?>> action;
     private final Optional<TransitionPostAction<?>> postAction;
     private final Supplier<Long> eventCardinalitySupplier;
+    private final boolean dynamicCardinality;
+    /**
+     * the cardinality returned by the supplier when the transition was created, unless the cardinality is dynamic
+     */
+    private final long eventCardinality;
 
     /**
      * Configure a transition so that if the machine is in a specified current state ("from") and receives the specified
@@ -103,6 +108,8 @@ public class Transition<S, E> {
     /**
      * Configure a transition so that if the machine is in a specified current state ("from"), it will move to the
      * specified target state ("to") after receiving the number of events ("event") as returned by the "eventCardinalitySupplier".
+     * The supplier is invoked once, when the transition is created, use
+     * {@link #eventWithDynamicCardinality(Object, Object, Object, TransitionAction, Supplier)} to invoke it on each event.
      * The specified post action will be executed after the transition has completed.
      *
      * @param from  the current state
@@ -119,6 +126,8 @@ public class Transition<S, E> {
     /**
      * Configure a transition so that if the machine is in a specified current state ("from"), it will move to the
      * specified target state ("to") after receiving the number of events ("event") as returned by the "eventCardinalitySupplier".
+     * The supplier is invoked once, when the transition is created, use
+     * {@link #eventWithDynamicCardinality(Object, Object, Object, TransitionAction, Supplier)} to invoke it on each event.
      * The specified post action will be executed after the transition has completed.
      *
      * @param from  the current state
@@ -132,6 +141,38 @@ public class Transition<S, E> {
         return new Transition<>(from, to, event, action, postAction, eventCardinalitySupplier);
     }
 
+    /**
+     * Same as {@link #event(Object, Object, Object, TransitionAction, Supplier)}, except that the "eventCardinalitySupplier"
+     * is invoked each time the event is received, rather than once when the transition is created. Use it when the
+     * number of events the transition waits for changes while the application runs.
+     *
+     * @param from  the current state
+     * @param to    the target state
+     * @param event the event that triggers the transition
+     * @param <S>   the state type
+     * @param <E>   the event type
+     * @return a {@link Transition} instance
+     */
+    public static <S, E> Transition<S, E> eventWithDynamicCardinality(S from, S to, E event, TransitionAction<?> action, Supplier<Long> eventCardinalitySupplier) {
+        return new Transition<>(from, to, Optional.of(event), NO_GUARD, Optional.of(action), NO_POST_ACTION, eventCardinalitySupplier, true);
+    }
+
+    /**
+     * Same as {@link #event(Object, Object, Object, TransitionAction, TransitionPostAction, Supplier)}, except that the
+     * "eventCardinalitySupplier" is invoked each time the event is received, rather than once when the transition is
+     * created.
+     *
+     * @param from  the current state
+     * @param to    the target state
+     * @param event the event that triggers the transition
+     * @param <S>   the state type
+     * @param <E>   the event type
+     * @return a {@link Transition} instance
+     */
+    public static <S, E> Transition<S, E> eventWithDynamicCardinality(S from, S to, E event, TransitionAction<?> action, TransitionPostAction<?> postAction, Supplier<Long> eventCardinalitySupplier) {
+        return new Transition<>(from, to, Optional.of(event), NO_GUARD, Optional.of(action), Optional.of(postAction), eventCardinalitySupplier, true);
+    }
+
     /**
      * Configure a transition so that if the machine is in a specified current state ("from") it will automatically
      * move to the specified target state ("to") and execute the specified action in the process.
@@ -279,7 +320,18 @@ public class Transition<S, E> {
         this(from, to, Optional.empty(), Optional.of(transitionGuard), NO_ACTION, NO_POST_ACTION, EVENT_CARDINALITY_OF_ONE_SUPPLIER);
     }
 
+    /**
+     * creates a transition whose event cardinality is resolved once, by invoking the supplier right away
+     */
     public Transition(S from, S to, Optional<E> event, Optional<TransitionGuard> guard, Optional<TransitionAction<?>> action, Optional<TransitionPostAction<?>> postAction, Supplier<Long> eventCardinalitySupplier) {
+        this(from, to, event, guard, action, postAction, eventCardinalitySupplier, false);
+    }
+
+    /**
+     * @param dynamicCardinality true to invoke the event cardinality supplier each time the event is received, false to
+     *                           invoke it once, right away
+     */
+    public Transition(S from, S to, Optional<E> event, Optional<TransitionGuard> guard, Optional<TransitionAction<?>> action, Optional<TransitionPostAction<?>> postAction, Supplier<Long> eventCardinalitySupplier, boolean dynamicCardinality) {
         this.from = from;
         this.to = to;
         this.event = event;
@@ -287,6 +339,8 @@ public class Transition<S, E> {
         this.action = action;
         this.postAction = postAction;
         this.eventCardinalitySupplier = eventCardinalitySupplier;
+        this.dynamicCardinality = dynamicCardinality;
+        this.eventCardinality = dynamicCardinality ? 0 : eventCardinalitySupplier.get();
     }
 
     /**
@@ -344,7 +398,18 @@ public class Transition<S, E> {
         return guard;
     }
 
+    /**
+     * @return the number of times the event must be received for the transition to activate
+     */
     public long getEventCardinality() {
-        return eventCardinalitySupplier.get();
+        return dynamicCardinality ? eventCardinalitySupplier.get() : eventCardinality;
+    }
+
+    /**
+     * @return true if the event cardinality is looked up each time the event is received, false if it was resolved
+     * when the transition was created
+     */
+    public boolean isDynamicCardinality() {
+        return dynamicCardinality;
     }
 }
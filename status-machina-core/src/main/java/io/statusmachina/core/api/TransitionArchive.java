@@ -0,0 +1,37 @@
+/*
+ *  Copyright 2019 <---> Present Status Machina Contributors (https://github.com/entzik/status-machina/graphs/contributors)
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  This software is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR
+ *  CONDITIONS OF ANY KIND, either express or implied. See the License for the
+ *  specific language governing permissions and limitations under the License.
+ *
+ */
+
+package io.statusmachina.core.api;
+
+import io.statusmachina.core.stdimpl.TransitionRecord;
+
+/**
+ * Receives the transitions evicted from the history a machine keeps in memory, see
+ * {@link MachineDefinition#getHistoryRetention()}, for instance to move them to cheaper storage.
+ *
+ * @param <S> the type of the machine's state
+ * @param <E> the type of events the machine receives
+ */
+@FunctionalInterface
+public interface TransitionArchive<S, E> {
+    /**
+     * archives a transition. it is called outside of any lock, once the transition is no longer in the history kept
+     * in memory.
+     *
+     * @param machine the machine instance whose transition evicted the record
+     * @param record  the evicted transition
+     */
+    void archive(Machine<S, E> machine, TransitionRecord<S, E> record);
+}
@@ -16,7 +16,9 @@
 package io.statusmachina.core.spi;
 
 import io.statusmachina.core.api.Machine;
+import io.statusmachina.core.stdimpl.TransitionRecord;
 
+import java.util.List;
 import java.util.concurrent.Callable;
 
 /**
@@ -52,6 +54,70 @@ public interface MachinePersistenceCallback<S, E> {
      */
     Machine<S, E> update(Machine<S, E> machine, long epochMilliForUpdate);
 
+    /**
+     * Updates an existing state machine, knowing the instance it was derived from. Implementations may compare the two
+     * in order to only write what has changed. By default the previous instance is ignored.
+     *
+     * @param previous the machine instance the updated one was derived from
+     * @param machine the machine instance who's state stored in external storage needs to be updated
+     *
+     * @return an updated instance of the machine
+     */
+    default Machine<S, E> update(Machine<S, E> previous, Machine<S, E> machine, long epochMilliForUpdate) {
+        return update(machine, epochMilliForUpdate);
+    }
+
+    /**
+     * Records that a machine received one more of the events a multi-event transition waits for. Only the event
+     * counter, the current event and the modification time differ between the two instances, implementations may
+     * write just these. By default the machine is updated like any other.
+     *
+     * @param previous the machine instance that received the event
+     * @param machine the machine instance with the incremented event counter
+     *
+     * @return an updated instance of the machine
+     */
+    default Machine<S, E> updateEventCounter(Machine<S, E> previous, Machine<S, E> machine, long epochMilliForUpdate) {
+        return update(previous, machine, epochMilliForUpdate);
+    }
+
+    /**
+     * Records a transition applied to a machine, in the transaction of the update that follows. Implementations that
+     * keep the history of machines store the record along with the update. By default transitions are not recorded.
+     *
+     * @param machine the machine instance the transition produced
+     * @param record the transition
+     */
+    default void recordTransition(Machine<S, E> machine, TransitionRecord<S, E> record) {
+    }
+
+    /**
+     * Reads the transitions recorded for a machine, oldest first. It is called the first time the history of a
+     * machine instance is requested. By default there is no history.
+     *
+     * @param machine the machine instance
+     *
+     * @return the recorded transitions
+     */
+    default List<TransitionRecord<S, E>> readHistory(Machine<S, E> machine) {
+        return List.of();
+    }
+
+    /**
+     * Reads a page of the transitions recorded for a machine, oldest first. Implementations backed by a store that
+     * can page should override it, by default the page is cut out of {@link #readHistory(Machine)}.
+     *
+     * @param machine the machine instance
+     * @param offset the number of transitions to skip
+     * @param limit the maximum number of transitions to return
+     *
+     * @return the recorded transitions of the page
+     */
+    default List<TransitionRecord<S, E>> readHistory(Machine<S, E> machine, int offset, int limit) {
+        final List<TransitionRecord<S, E>> history = readHistory(machine);
+        return history.subList(Math.min(offset, history.size()), (int) Math.min((long) offset + limit, history.size()));
+    }
+
     /**
      * Executes a {@link Callable} in a transactional context
      *
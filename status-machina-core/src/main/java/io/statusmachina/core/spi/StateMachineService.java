@@ -16,12 +16,20 @@
 
 package io.statusmachina.core.spi;
 
+import io.statusmachina.core.api.EventOutcome;
 import io.statusmachina.core.api.Machine;
 import io.statusmachina.core.api.MachineDefinition;
 import io.statusmachina.core.api.MachineSnapshot;
+import io.statusmachina.core.api.MachineSnapshotPage;
+import io.statusmachina.core.api.SnapshotPageRequest;
 
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.stream.Stream;
 
 /**
  * An interface that provides state machine lifecycle services. it allows to create and find state machines.
@@ -62,6 +70,29 @@ public interface StateMachineService<S, E> {
      */
     Machine<S, E> newMachine(MachineDefinition<S, E> type, String id, Map<String, String> context) throws Exception;
 
+    /**
+     * Creates many state machines of the specified type, one for each of the specified initial contexts. IDs are
+     * automatically assigned to the machines.
+     * <p>
+     * The default implementation creates the machines one after the other, implementations should override it to
+     * write them in batches
+     *
+     * @param type     the machine definition
+     * @param contexts the initial context of each machine
+     * @param start    whether the machines are started, which executes the STP transitions configured out of the
+     *                 initial state, once they have all been created
+     * @return the machines, in the order of the contexts
+     * @throws Exception is thrown if anything goes wrong
+     */
+    default List<Machine<S, E>> newMachines(MachineDefinition<S, E> type, Collection<Map<String, String>> contexts, boolean start) throws Exception {
+        final List<Machine<S, E>> machines = new ArrayList<>(contexts.size());
+        for (Map<String, String> context : contexts)
+            machines.add(newMachine(type, context));
+        if (start)
+            machines.replaceAll(Machine::start);
+        return machines;
+    }
+
     /**
      * Locates, restores and returns the state machine of the specified type and with the specified ID
      * <p>
@@ -76,6 +107,48 @@ public interface StateMachineService<S, E> {
      */
     Machine<S, E> read(MachineDefinition<S, E> def, String id) throws Exception;
 
+    /**
+     * Delivers the same event to many machines of the specified type. Machines whose event fails do not prevent the
+     * event from being delivered to the others, the outcome of each machine is reported instead.
+     * <p>
+     * The default implementation reads each machine and sends it the event one after the other, implementations
+     * should override it to read and write the machines in batches
+     *
+     * @param def   the machine definition
+     * @param ids   the ids of the machines
+     * @param event the event to deliver
+     * @return the outcome of each machine, by machine id, in the order of the specified ids
+     */
+    default Map<String, EventOutcome<S, E>> sendEvents(MachineDefinition<S, E> def, Collection<String> ids, E event) {
+        final Map<String, EventOutcome<S, E>> outcomes = new LinkedHashMap<>();
+        for (String id : ids) {
+            try {
+                outcomes.put(id, EventOutcome.delivered(read(def, id).sendEvent(event)));
+            } catch (Exception e) {
+                outcomes.put(id, EventOutcome.failed(id, e));
+            }
+        }
+        return outcomes;
+    }
+
+    /**
+     * Delivers the same event and parameter to many machines of the specified type
+     *
+     * @param param a parameter that gives context to the event
+     * @see #sendEvents(MachineDefinition, Collection, Object)
+     */
+    default <P> Map<String, EventOutcome<S, E>> sendEvents(MachineDefinition<S, E> def, Collection<String> ids, E event, P param) {
+        final Map<String, EventOutcome<S, E>> outcomes = new LinkedHashMap<>();
+        for (String id : ids) {
+            try {
+                outcomes.put(id, EventOutcome.delivered(read(def, id).sendEvent(event, param)));
+            } catch (Exception e) {
+                outcomes.put(id, EventOutcome.failed(id, e));
+            }
+        }
+        return outcomes;
+    }
+
     /**
      * Finds all state machines that have not executed any transitions during in the specified timeout
      *
@@ -96,4 +169,116 @@ public interface StateMachineService<S, E> {
      * @return a list of machine descriptions
      */
     List<MachineSnapshot> findTerminated();
+
+    /**
+     * Finds a page of the state machines that have not executed any transitions during in the specified timeout
+     * <p>
+     * The default implementation pages the result of {@link #findStale(long)}, implementations should override it to
+     * page in the underlying store
+     *
+     * @param seconds - the timeout
+     * @param request - the requested page
+     *
+     * @return a page of machine descriptions
+     */
+    default MachineSnapshotPage findStale(long seconds, SnapshotPageRequest request) {
+        return MachineSnapshotPage.slice(findStale(seconds), request);
+    }
+
+    /**
+     * finds a page of the state machines stuck in an error state
+     * @param request the requested page
+     * @return a page of machine descriptions
+     */
+    default MachineSnapshotPage findFailed(SnapshotPageRequest request) {
+        return MachineSnapshotPage.slice(findFailed(), request);
+    }
+
+    /**
+     * finds a page of the state machines in terminal states
+     * @param request the requested page
+     * @return a page of machine descriptions
+     */
+    default MachineSnapshotPage findTerminated(SnapshotPageRequest request) {
+        return MachineSnapshotPage.slice(findTerminated(), request);
+    }
+
+    /**
+     * Streams all state machines that have not executed any transitions during in the specified timeout, without
+     * holding them all in memory. The stream must be closed once consumed.
+     *
+     * @param seconds     - the timeout
+     * @param withContext - whether the machine descriptions include the machine context
+     *
+     * @return a stream of machine descriptions, ordered by machine id
+     */
+    default Stream<MachineSnapshot> streamStale(long seconds, boolean withContext) {
+        return stream(findStale(seconds), withContext);
+    }
+
+    /**
+     * streams all state machines stuck in an error state. the stream must be closed once consumed.
+     * @param withContext whether the machine descriptions include the machine context
+     * @return a stream of machine descriptions, ordered by machine id
+     */
+    default Stream<MachineSnapshot> streamFailed(boolean withContext) {
+        return stream(findFailed(), withContext);
+    }
+
+    /**
+     * streams all state machines in terminal states. the stream must be closed once consumed.
+     * @param withContext whether the machine descriptions include the machine context
+     * @return a stream of machine descriptions, ordered by machine id
+     */
+    default Stream<MachineSnapshot> streamTerminated(boolean withContext) {
+        return stream(findTerminated(), withContext);
+    }
+
+    /**
+     * Streams the state machines that are stale and were last modified within the specified time window, ordered by
+     * last modification time and id, without holding them all in memory. This allows to scan for stalled machines
+     * incrementally, by moving the window forward. The stream must be closed once consumed.
+     * <p>
+     * The default implementation filters the result of {@link #findStale(long)}, implementations should override it
+     * to query the underlying store
+     *
+     * @param fromEpochMilli   - the start of the window, inclusive, in milliseconds since the epoch
+     * @param beforeEpochMilli - the end of the window, exclusive, in milliseconds since the epoch
+     * @param withContext      - whether the machine descriptions include the machine context
+     *
+     * @return a stream of machine descriptions
+     */
+    default Stream<MachineSnapshot> streamStaleModifiedBetween(long fromEpochMilli, long beforeEpochMilli, boolean withContext) {
+        final Stream<MachineSnapshot> stream = findStale(0).stream()
+                .filter(snapshot -> snapshot.getLastModifiedEpoch() >= fromEpochMilli && snapshot.getLastModifiedEpoch() < beforeEpochMilli)
+                .sorted(Comparator.comparingLong(MachineSnapshot::getLastModifiedEpoch).thenComparing(MachineSnapshot::getId));
+        return withContext ? stream : stream.map(MachineSnapshot::withoutContext);
+    }
+
+    /**
+     * Streams the state machines of one partition that are stale and were last modified within the specified time
+     * window, ordered by last modification time and id. Machines are spread over partitions by a hash of their id,
+     * which allows several nodes to share the scan for stalled machines. The hash is implementation specific, but
+     * every machine belongs to exactly one partition. The stream must be closed once consumed.
+     * <p>
+     * The default implementation filters the result of {@link #streamStaleModifiedBetween(long, long, boolean)},
+     * implementations should override it to query the underlying store
+     *
+     * @param fromEpochMilli   - the start of the window, inclusive, in milliseconds since the epoch
+     * @param beforeEpochMilli - the end of the window, exclusive, in milliseconds since the epoch
+     * @param partition        - the partition to scan, from 0 to partitionCount - 1
+     * @param partitionCount   - the number of partitions machines are spread over
+     * @param withContext      - whether the machine descriptions include the machine context
+     *
+     * @return a stream of machine descriptions
+     */
+    default Stream<MachineSnapshot> streamStaleModifiedBetween(long fromEpochMilli, long beforeEpochMilli, int partition, int partitionCount, boolean withContext) {
+        return streamStaleModifiedBetween(fromEpochMilli, beforeEpochMilli, withContext)
+                .filter(snapshot -> Math.floorMod(snapshot.getId().hashCode(), partitionCount) == partition);
+    }
+
+    private static Stream<MachineSnapshot> stream(List<MachineSnapshot> snapshots, boolean withContext) {
+        final Stream<MachineSnapshot> stream = snapshots.stream().sorted(Comparator.comparing(MachineSnapshot::getId));
+        return withContext ? stream : stream.map(MachineSnapshot::withoutContext);
+    }
 }
@@ -0,0 +1,60 @@
+/*
+ *  Copyright 2019 <---> Present Status Machina Contributors (https://github.com/entzik/status-machina/graphs/contributors)
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  This software is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR
+ *  CONDITIONS OF ANY KIND, either express or implied. See the License for the
+ *  specific language governing permissions and limitations under the License.
+ *
+ */
+
+package io.statusmachina.core.stdimpl;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Provides the executor asynchronous transitions run on when the machine definition does not configure one.
+ */
+public final class AsyncExecutors {
+    private static final Logger LOGGER = LoggerFactory.getLogger(AsyncExecutors.class);
+
+    private AsyncExecutors() {
+    }
+
+    /**
+     * @return an executor that starts a virtual thread per transition when the runtime supports them (Java 21 and
+     * later), or otherwise a pool of daemon threads that grows with the number of transitions in flight
+     */
+    public static ExecutorService defaultExecutor() {
+        return Holder.EXECUTOR;
+    }
+
+    private static final class Holder {
+        private static final ExecutorService EXECUTOR = create();
+
+        private static ExecutorService create() {
+            try {
+                // looked up reflectively, the library is built for Java 17
+                return (ExecutorService) Executors.class.getMethod("newVirtualThreadPerTaskExecutor").invoke(null);
+            } catch (ReflectiveOperationException e) {
+                LOGGER.debug("virtual threads are not available, asynchronous transitions run on a thread pool");
+                final AtomicInteger threadNumber = new AtomicInteger();
+                return Executors.newCachedThreadPool(runnable -> {
+                    final Thread thread = new Thread(runnable, "status-machina-async-" + threadNumber.incrementAndGet());
+                    thread.setDaemon(true);
+                    return thread;
+                });
+            }
+        }
+    }
+}
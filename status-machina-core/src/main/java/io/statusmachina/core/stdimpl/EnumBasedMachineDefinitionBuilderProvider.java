@@ -21,7 +21,7 @@ import io.statusmachina.core.api.MachineDefinitionBuilderProvider;
 public class EnumBasedMachineDefinitionBuilderProvider<S extends Enum<S>,E extends Enum<E>> implements MachineDefinitionBuilderProvider<S,E> {
     @Override
     public MachineDefinitionBuilder<S, E> getMachineDefinitionBuilder(Class<S> stateType, Class<E> eventType) {
-        return new MachineDefImpl.BuilderImpl<S,E>()
+        return new EnumMachineDefImpl.BuilderImpl<S,E>()
                 .stringToEvent(eventString -> Enum.valueOf(eventType, eventString))
                 .eventToString(Enum::name)
                 .stringToState(stateString -> Enum.valueOf(stateType, stateString))
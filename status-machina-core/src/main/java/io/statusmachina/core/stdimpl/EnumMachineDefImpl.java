@@ -0,0 +1,199 @@
+/*
+ *  Copyright 2019 <---> Present Status Machina Contributors (https://github.com/entzik/status-machina/graphs/contributors)
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  This software is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR
+ *  CONDITIONS OF ANY KIND, either express or implied. See the License for the
+ *  specific language governing permissions and limitations under the License.
+ *
+ */
+
+package io.statusmachina.core.stdimpl;
+
+import com.google.common.collect.ImmutableMap;
+import io.statusmachina.core.api.ErrorData;
+import io.statusmachina.core.api.MachineDefinition;
+import io.statusmachina.core.api.Transition;
+import io.statusmachina.core.api.TransitionArchive;
+import io.statusmachina.core.api.TransitionData;
+import io.statusmachina.core.api.TransitionGuard;
+
+import java.util.ArrayList;
+import java.util.EnumSet;
+import java.util.List;
+import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.Executor;
+import java.util.function.Consumer;
+import java.util.function.Function;
+
+/**
+ * A machine definition specialized for enum states and events. Transitions are dispatched through tables indexed by
+ * the ordinals of the states and events, and terminal and idle states are kept in {@link EnumSet}s, so the lookups
+ * performed on each event do not need to hash or compare states and events.
+ *
+ * @param <S> the state type
+ * @param <E> the event type
+ */
+public class EnumMachineDefImpl<S extends Enum<S>, E extends Enum<E>> extends MachineDefImpl<S, E> {
+    /**
+     * event transitions, indexed by [state ordinal][event ordinal]
+     */
+    private final Transition<S, E>[][] eventTransitions;
+    /**
+     * STP transitions indexed by state ordinal, in the order in which they were configured
+     */
+    private final Transition<S, E>[][] stpTransitions;
+    private final EnumSet<S> terminalStates;
+    private final EnumSet<S> idleStates;
+
+    /**
+     * builds an enum specialized definition out of an existing definition
+     *
+     * @param def the definition providing states, events, transitions and handlers
+     */
+    public EnumMachineDefImpl(MachineDefinition<S, E> def) {
+        this(
+                def.getName(),
+                def.getAllStates(),
+                def.getInitialState(),
+                def.getIdleStates(),
+                def.getTerminalStates(),
+                def.getEvents(),
+                def.getTransitions(),
+                def.getErrorHandler(),
+                def.getTransitionHandler(),
+                def.getStateToString(),
+                def.getStringToState(),
+                def.getEventToString(),
+                def.getStringToEvent(),
+                def.getAsyncExecutor(),
+                def.getHistoryRetention(),
+                def.getHistoryArchive()
+        );
+    }
+
+    EnumMachineDefImpl(
+            String name,
+            Set<S> allStates,
+            S initialState,
+            Set<S> idleStates,
+            Set<S> terminalStates,
+            Set<E> events,
+            Set<Transition<S, E>> transitions,
+            Consumer<ErrorData<S, E>> errorHandler,
+            Consumer<TransitionData<S, E>> transitionHandler,
+            Function<S, String> stateToString,
+            Function<String, S> stringToState,
+            Function<E, String> eventToString,
+            Function<String, E> stringToEvent,
+            Executor asyncExecutor,
+            int historyRetention,
+            TransitionArchive<S, E> historyArchive
+    ) {
+        // the ordinal tables below replace the indexes of the parent definition
+        super(name, allStates, initialState, idleStates, terminalStates, events, transitions, errorHandler, transitionHandler, stateToString, stringToState, eventToString, stringToEvent, asyncExecutor, historyRetention, historyArchive, false);
+
+        // ordinals are relative to the enum that declares the states and events actually configured
+        final Class<S> stateType = initialState.getDeclaringClass();
+        final int stateCount = stateType.getEnumConstants().length;
+        final int eventCount = events.stream().findAny().map(e -> e.getDeclaringClass().getEnumConstants().length).orElse(0);
+
+        this.terminalStates = toEnumSet(stateType, terminalStates);
+        this.idleStates = toEnumSet(stateType, idleStates);
+
+        this.eventTransitions = newTable(stateCount, eventCount);
+        final List<List<Transition<S, E>>> stpCandidates = new ArrayList<>(stateCount);
+        for (int i = 0; i < stateCount; i++)
+            stpCandidates.add(new ArrayList<>());
+        for (Transition<S, E> transition : getTransitions()) {
+            final int from = transition.getFrom().ordinal();
+            if (transition.isSTP())
+                stpCandidates.get(from).add(transition);
+            else {
+                final int event = transition.getEvent().get().ordinal();
+                if (eventTransitions[from][event] == null)
+                    eventTransitions[from][event] = transition;
+            }
+        }
+        this.stpTransitions = newTable(stateCount, 0);
+        for (int i = 0; i < stateCount; i++)
+            stpTransitions[i] = stpCandidates.get(i).toArray(stpTransitions[i]);
+    }
+
+    @Override
+    public Optional<Transition<S, E>> findStpTransition(S state, ImmutableMap<String, String> context) {
+        final Transition<S, E>[] candidates = stpTransitions[state.ordinal()];
+        for (Transition<S, E> candidate : candidates) {
+            final Optional<TransitionGuard> guard = candidate.getGuard();
+            if (guard.isEmpty() || guard.get().test(context))
+                return Optional.of(candidate);
+        }
+        return Optional.empty();
+    }
+
+    @Override
+    public Optional<Transition<S, E>> findEventTransition(S currentState, E event) {
+        return Optional.ofNullable(eventTransitions[currentState.ordinal()][event.ordinal()]);
+    }
+
+    @Override
+    public boolean isTerminalState(S state) {
+        return terminalStates.contains(state);
+    }
+
+    @Override
+    public boolean isIdleState(S state) {
+        return idleStates.contains(state);
+    }
+
+    private static <S extends Enum<S>> EnumSet<S> toEnumSet(Class<S> stateType, Set<S> states) {
+        final EnumSet<S> set = EnumSet.noneOf(stateType);
+        set.addAll(states);
+        return set;
+    }
+
+    // generic arrays cannot be created, the table only ever holds transitions of the definition's own types
+    @SuppressWarnings("unchecked")
+    private static <S, E> Transition<S, E>[][] newTable(int rows, int columns) {
+        return (Transition<S, E>[][]) new Transition<?, ?>[rows][columns];
+    }
+
+    /**
+     * a definition builder that produces {@link EnumMachineDefImpl} instances
+     *
+     * @param <S> the state type
+     * @param <E> the event type
+     */
+    public static class BuilderImpl<S extends Enum<S>, E extends Enum<E>> extends MachineDefImpl.BuilderImpl<S, E> {
+        BuilderImpl() {
+        }
+
+        @Override
+        MachineDefinition<S, E> newDefinition(
+                String name,
+                Set<S> allStates,
+                S initialState,
+                Set<S> idleStates,
+                Set<S> terminalStates,
+                Set<E> events,
+                Set<Transition<S, E>> transitions,
+                Consumer<ErrorData<S, E>> errorHandler,
+                Consumer<TransitionData<S, E>> transitionHandler,
+                Function<S, String> stateToString,
+                Function<String, S> stringToState,
+                Function<E, String> eventToString,
+                Function<String, E> stringToEvent,
+                Executor asyncExecutor,
+                int historyRetention,
+                TransitionArchive<S, E> historyArchive
+        ) {
+            return new EnumMachineDefImpl<>(name, allStates, initialState, idleStates, terminalStates, events, transitions, errorHandler, transitionHandler, stateToString, stringToState, eventToString, stringToEvent, asyncExecutor, historyRetention, historyArchive);
+        }
+    }
+}
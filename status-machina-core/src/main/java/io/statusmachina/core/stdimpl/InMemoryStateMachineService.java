@@ -0,0 +1,273 @@
+/*
+ *  Copyright 2019 <---> Present Status Machina Contributors (https://github.com/entzik/status-machina/graphs/contributors)
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  This software is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR
+ *  CONDITIONS OF ANY KIND, either express or implied. See the License for the
+ *  specific language governing permissions and limitations under the License.
+ *
+ */
+
+package io.statusmachina.core.stdimpl;
+
+import io.statusmachina.core.api.ErrorType;
+import io.statusmachina.core.api.Machine;
+import io.statusmachina.core.api.MachineDefinition;
+import io.statusmachina.core.api.MachineSnapshot;
+import io.statusmachina.core.spi.MachinePersistenceCallback;
+import io.statusmachina.core.spi.StateMachineService;
+
+import java.time.Duration;
+import java.time.Instant;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.ConcurrentModificationException;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Objects;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentSkipListSet;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+/**
+ * <p>A state machine service that keeps machines in memory, for machines that do not need to survive the process, and
+ * for tests. It is its own persistence callback: the machines it creates are stored, and updated, in it.</p>
+ *
+ * <p>Machines are held in a concurrent map, which locks each machine separately while it is updated. An update is only
+ * applied to the version of the machine it was derived from, a {@link ConcurrentModificationException} is thrown
+ * otherwise. Failed, terminated and stale machines are found through indexes maintained along with the updates, which
+ * queries see in a weakly consistent way.</p>
+ *
+ * <p>There are no transactions: updates are applied as they are made and are not rolled back if a transition fails.
+ * Machines are kept until they are removed.</p>
+ *
+ * <p>Each machine keeps the last transitions its definition retains, see
+ * {@link MachineDefinition#getHistoryRetention()}, in a buffer allocated when the machine is created, and hands older
+ * ones to the definition's {@link MachineDefinition#getHistoryArchive()}. The memory held by a machine does not grow
+ * with its age.</p>
+ *
+ * @param <S> the type of machine states
+ * @param <E> the type of events
+ */
+public class InMemoryStateMachineService<S, E> implements StateMachineService<S, E>, MachinePersistenceCallback<S, E> {
+    private final ConcurrentHashMap<String, StoredMachine<S, E>> machines = new ConcurrentHashMap<>();
+    private final Set<String> failed = ConcurrentHashMap.newKeySet();
+    private final Set<String> terminated = ConcurrentHashMap.newKeySet();
+    /**
+     * the machines that are neither failed, terminated nor idle, by last modification time and id
+     */
+    private final ConcurrentSkipListSet<ActiveKey> active = new ConcurrentSkipListSet<>(
+            Comparator.comparingLong((ActiveKey key) -> key.lastModifiedEpoch).thenComparing(key -> key.id));
+    /**
+     * the transition recorded by a thread, added to the history by the update of the machine it produced that follows
+     */
+    private final ThreadLocal<StagedTransition<S, E>> staged = new ThreadLocal<>();
+
+    @Override
+    public Machine<S, E> newMachine(MachineDefinition<S, E> type, Map<String, String> context) throws Exception {
+        return new MachineInstanceImpl<>(type, this, context);
+    }
+
+    @Override
+    public Machine<S, E> newMachine(MachineDefinition<S, E> type, String id, Map<String, String> context) throws Exception {
+        return new MachineInstanceImpl<>(type, id, this, context);
+    }
+
+    @Override
+    public Machine<S, E> read(MachineDefinition<S, E> def, String id) {
+        final StoredMachine<S, E> stored = machines.get(id);
+        if (stored == null)
+            throw new NoSuchElementException("there is no state machine with ID " + id);
+        if (!def.getName().equals(stored.machine.getDefinition().getName()))
+            throw new IllegalArgumentException("state machine with ID " + id + " is of type " + stored.machine.getDefinition().getName() + ", not " + def.getName());
+        return stored.machine;
+    }
+
+    /**
+     * removes a machine from the store
+     *
+     * @param id the machine id
+     * @return true if the machine was removed, false if there was no such machine
+     */
+    public boolean remove(String id) {
+        final boolean[] removed = {false};
+        machines.computeIfPresent(id, (key, stored) -> {
+            unindex(stored);
+            removed[0] = true;
+            return null;
+        });
+        return removed[0];
+    }
+
+    /**
+     * @return the number of machines in the store
+     */
+    public int size() {
+        return machines.size();
+    }
+
+    @Override
+    public Machine<S, E> saveNew(Machine<S, E> machine) {
+        machines.compute(machine.getId(), (id, existing) -> {
+            if (existing != null)
+                throw new IllegalStateException("a state machine with ID " + id + " already exists");
+            final int retention = machine.getDefinition().getHistoryRetention();
+            return index(new StoredMachine<>(machine, Instant.now().toEpochMilli(), retention == 0 ? null : new TransitionRingBuffer<>(retention)));
+        });
+        return machine;
+    }
+
+    /**
+     * applies an update, and adds the transition recorded for it, if any, to the history of the machine in the same
+     * step, so that only the transitions of successful updates are kept. the transition evicted from the history, if
+     * any, is archived once the machine is unlocked.
+     */
+    @Override
+    public Machine<S, E> update(Machine<S, E> machine, long epochMilliForUpdate) {
+        final StagedTransition<S, E> transition = staged.get();
+        staged.remove();
+        final TransitionRecord<S, E> record = transition != null && transition.machine == machine ? transition.record : null;
+        final Machine<S, E> versioned = machine instanceof MachineInstanceImpl ? ((MachineInstanceImpl<S, E>) machine).withVersion(machine.getVersion() + 1) : machine;
+        final AtomicReference<TransitionRecord<S, E>> evicted = new AtomicReference<>();
+        machines.compute(machine.getId(), (id, existing) -> {
+            if (existing == null)
+                throw new NoSuchElementException("there is no state machine with ID " + id);
+            if (existing.machine.getVersion() != machine.getVersion())
+                throw new ConcurrentModificationException("state machine of type " + machine.getDefinition().getName() + " with ID " + id + " could not be found at version " + machine.getVersion() + ", it was modified concurrently");
+            if (record != null)
+                evicted.set(existing.history == null ? record : existing.history.add(record));
+            unindex(existing);
+            return index(new StoredMachine<>(versioned, epochMilliForUpdate, existing.history));
+        });
+        if (evicted.get() != null)
+            machine.getDefinition().getHistoryArchive().archive(machine, evicted.get());
+        return versioned;
+    }
+
+    /**
+     * stages a transition, which the update of the machine that follows adds to its history
+     */
+    @Override
+    public void recordTransition(Machine<S, E> machine, TransitionRecord<S, E> record) {
+        staged.set(new StagedTransition<>(machine, record));
+    }
+
+    @Override
+    public List<TransitionRecord<S, E>> readHistory(Machine<S, E> machine) {
+        final StoredMachine<S, E> stored = machines.get(machine.getId());
+        return stored == null || stored.history == null ? List.of() : stored.history.toList();
+    }
+
+    @Override
+    public <R> R runInTransaction(Callable<R> callable) throws Exception {
+        return callable.call();
+    }
+
+    @Override
+    public List<MachineSnapshot> findStale(long seconds) {
+        final long staleReference = Instant.now().toEpochMilli() - Duration.ofSeconds(seconds).toMillis();
+        return snapshots(active.headSet(new ActiveKey(staleReference, "")).stream().map(key -> key.id), true).collect(Collectors.toList());
+    }
+
+    @Override
+    public List<MachineSnapshot> findFailed() {
+        return snapshots(failed.stream(), true).collect(Collectors.toList());
+    }
+
+    @Override
+    public List<MachineSnapshot> findTerminated() {
+        return snapshots(terminated.stream(), true).collect(Collectors.toList());
+    }
+
+    @Override
+    public Stream<MachineSnapshot> streamStaleModifiedBetween(long fromEpochMilli, long beforeEpochMilli, boolean withContext) {
+        if (fromEpochMilli >= beforeEpochMilli)
+            return Stream.empty();
+        final Collection<ActiveKey> window = active.subSet(new ActiveKey(fromEpochMilli, ""), true, new ActiveKey(beforeEpochMilli, ""), false);
+        return snapshots(window.stream().map(key -> key.id), withContext);
+    }
+
+    private Stream<MachineSnapshot> snapshots(Stream<String> ids, boolean withContext) {
+        return ids.map(machines::get)
+                .filter(Objects::nonNull)
+                .map(stored -> stored.snapshot(withContext));
+    }
+
+    /**
+     * adds a machine to the indexes. only called within the compute methods of the machine map, for the machine's id
+     */
+    private StoredMachine<S, E> index(StoredMachine<S, E> stored) {
+        final Machine<S, E> machine = stored.machine;
+        if (machine.getErrorType() != ErrorType.NONE)
+            failed.add(machine.getId());
+        else if (machine.isTerminalState())
+            terminated.add(machine.getId());
+        else if (!machine.isIdleState())
+            active.add(new ActiveKey(stored.lastModifiedEpoch, machine.getId()));
+        return stored;
+    }
+
+    private void unindex(StoredMachine<S, E> stored) {
+        failed.remove(stored.machine.getId());
+        terminated.remove(stored.machine.getId());
+        active.remove(new ActiveKey(stored.lastModifiedEpoch, stored.machine.getId()));
+    }
+
+    private static class StoredMachine<S, E> {
+        private final Machine<S, E> machine;
+        private final long lastModifiedEpoch;
+        /**
+         * shared by the successive versions of the machine, null if its definition retains no history
+         */
+        private final TransitionRingBuffer<S, E> history;
+
+        private StoredMachine(Machine<S, E> machine, long lastModifiedEpoch, TransitionRingBuffer<S, E> history) {
+            this.machine = machine;
+            this.lastModifiedEpoch = lastModifiedEpoch;
+            this.history = history;
+        }
+
+        private MachineSnapshot snapshot(boolean withContext) {
+            final MachineDefinition<S, E> def = machine.getDefinition();
+            return new MachineSnapshot(
+                    def.getName(),
+                    machine.getId(),
+                    def.getStateToString().apply(machine.getCurrentState()),
+                    withContext ? machine.getContext() : Map.of(),
+                    machine.getErrorType(),
+                    machine.getError().orElse(null),
+                    lastModifiedEpoch
+            );
+        }
+    }
+
+    private static class StagedTransition<S, E> {
+        private final Machine<S, E> machine;
+        private final TransitionRecord<S, E> record;
+
+        private StagedTransition(Machine<S, E> machine, TransitionRecord<S, E> record) {
+            this.machine = machine;
+            this.record = record;
+        }
+    }
+
+    private static class ActiveKey {
+        private final long lastModifiedEpoch;
+        private final String id;
+
+        private ActiveKey(long lastModifiedEpoch, String id) {
+            this.lastModifiedEpoch = lastModifiedEpoch;
+            this.id = id;
+        }
+    }
+}
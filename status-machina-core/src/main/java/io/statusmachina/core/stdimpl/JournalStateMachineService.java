@@ -0,0 +1,465 @@
+/*
+ *  Copyright 2019 <---> Present Status Machina Contributors (https://github.com/entzik/status-machina/graphs/contributors)
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  This software is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR
+ *  CONDITIONS OF ANY KIND, either express or implied. See the License for the
+ *  specific language governing permissions and limitations under the License.
+ *
+ */
+
+package io.statusmachina.core.stdimpl;
+
+import io.statusmachina.core.api.ErrorType;
+import io.statusmachina.core.api.Machine;
+import io.statusmachina.core.api.MachineDefinition;
+import io.statusmachina.core.api.MachineSnapshot;
+import io.statusmachina.core.spi.MachinePersistenceCallback;
+import io.statusmachina.core.spi.StateMachineService;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.ConcurrentModificationException;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Optional;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Predicate;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+/**
+ * <p>A state machine service that stores machines in an append only journal on local disk, for machines that must
+ * survive the process but do not need a database. It is its own persistence callback: each machine it creates is
+ * appended to the journal when it is saved, and again each time it is updated.</p>
+ *
+ * <p>The journal is made of segment files mapped in memory. Records are forced to disk by a background thread, and
+ * with group commit the records appended while it forces the previous ones are forced together, so that a save or an
+ * update returns once its record is on disk without paying for a disk flush each. Without group commit, records are
+ * forced every few milliseconds and an update returns before its record is on disk.</p>
+ *
+ * <p>The location of the latest record of each machine is kept in an in-memory index, along with what finding stale,
+ * failed and terminated machines needs, and machines are read from the journal. The index is rebuilt by replaying the
+ * journal when the service is created. An update is only applied to the version of the machine it was derived from, a
+ * {@link ConcurrentModificationException} is thrown otherwise.</p>
+ *
+ * <p>Each time a segment is full, the oldest segments are compacted in the background while less than half of their
+ * records are the latest of their machine: those records are appended again, and the segment is deleted. A long lived
+ * segment that stays mostly live holds back the compaction of the segments that follow it.</p>
+ *
+ * <p>There are no transactions: records are appended as updates are made and are not rolled back if a transition
+ * fails. The service must be closed to stop its background threads, and only one service may use a directory at a
+ * time.</p>
+ *
+ * @param <S> the type of machine states
+ * @param <E> the type of events
+ */
+public class JournalStateMachineService<S, E> implements StateMachineService<S, E>, MachinePersistenceCallback<S, E>, Closeable {
+    private static final Logger LOGGER = LoggerFactory.getLogger(JournalStateMachineService.class);
+
+    public static final int DEFAULT_SEGMENT_SIZE = 64 * 1024 * 1024;
+    /**
+     * the share of live records under which the oldest segment is compacted
+     */
+    static final double COMPACTION_THRESHOLD = 0.5;
+
+    private static final byte MACHINE_RECORD = 1;
+    private static final byte REMOVAL_RECORD = 2;
+
+    private static final byte ACTIVE = 0;
+    private static final byte IDLE = 1;
+    private static final byte FAILED = 2;
+    private static final byte TERMINATED = 3;
+
+    private final ConcurrentHashMap<String, IndexEntry> index = new ConcurrentHashMap<>();
+    private final ExecutorService compactor = Executors.newSingleThreadExecutor(runnable -> {
+        final Thread thread = new Thread(runnable, "status-machina-journal-compactor");
+        thread.setDaemon(true);
+        return thread;
+    });
+    private final MachineJournal journal;
+
+    /**
+     * opens the journal stored in a directory, with segments of {@link #DEFAULT_SEGMENT_SIZE} bytes and group commit
+     *
+     * @param directory the directory of the journal, created if it does not exist
+     */
+    public JournalStateMachineService(Path directory) throws IOException {
+        this(directory, DEFAULT_SEGMENT_SIZE, true);
+    }
+
+    /**
+     * @param directory   the directory of the journal, created if it does not exist
+     * @param segmentSize the size of journal segments, in bytes. a machine record must fit in a segment.
+     * @param groupCommit true if saves and updates should return only once their record is on disk
+     */
+    public JournalStateMachineService(Path directory, int segmentSize, boolean groupCommit) throws IOException {
+        this.journal = new MachineJournal(directory, segmentSize, groupCommit, this::replay, segment -> compactor.execute(this::compact));
+        index.values().forEach(entry -> journal.live(entry.location, 1));
+        LOGGER.info("replayed the state machine journal in {}, {} machines in {} segments", directory, index.size(), journal.segmentCount());
+    }
+
+    @Override
+    public Machine<S, E> newMachine(MachineDefinition<S, E> type, Map<String, String> context) throws Exception {
+        return new MachineInstanceImpl<>(type, this, context);
+    }
+
+    @Override
+    public Machine<S, E> newMachine(MachineDefinition<S, E> type, String id, Map<String, String> context) throws Exception {
+        return new MachineInstanceImpl<>(type, id, this, context);
+    }
+
+    @Override
+    public Machine<S, E> read(MachineDefinition<S, E> def, String id) {
+        final StoredRecord stored = readRecord(id).orElseThrow(() -> new NoSuchElementException("there is no state machine with ID " + id));
+        if (!def.getName().equals(stored.type))
+            throw new IllegalArgumentException("state machine with ID " + id + " is of type " + stored.type + ", not " + def.getName());
+        return new MachineInstanceImpl<>(
+                id,
+                def,
+                def.getStringToState().apply(stored.state),
+                stored.context,
+                List.of(),
+                stored.errorType,
+                Optional.ofNullable(stored.error),
+                this,
+                stored.eventCounter,
+                Optional.ofNullable(stored.currentEvent).map(def.getStringToEvent()),
+                stored.version
+        );
+    }
+
+    /**
+     * removes a machine, by appending a record of its removal to the journal
+     *
+     * @param id the machine id
+     * @return true if the machine was removed, false if there was no such machine
+     */
+    public boolean remove(String id) {
+        final long[] location = {-1};
+        index.computeIfPresent(id, (key, entry) -> {
+            location[0] = journal.append(removal(id));
+            journal.live(entry.location, -1);
+            return null;
+        });
+        if (location[0] < 0)
+            return false;
+        journal.awaitDurable(location[0]);
+        return true;
+    }
+
+    /**
+     * @return the number of machines in the journal
+     */
+    public int size() {
+        return index.size();
+    }
+
+    @Override
+    public Machine<S, E> saveNew(Machine<S, E> machine) {
+        final long now = Instant.now().toEpochMilli();
+        final byte[] record = encode(machine, machine.getVersion(), now);
+        final IndexEntry entry = index.compute(machine.getId(), (id, existing) -> {
+            if (existing != null)
+                throw new IllegalStateException("a state machine with ID " + id + " already exists");
+            return append(record, machine.getVersion(), now, status(machine));
+        });
+        journal.awaitDurable(entry.location);
+        return machine;
+    }
+
+    @Override
+    public Machine<S, E> update(Machine<S, E> machine, long epochMilliForUpdate) {
+        final long version = machine.getVersion() + 1;
+        final Machine<S, E> versioned = machine instanceof MachineInstanceImpl ? ((MachineInstanceImpl<S, E>) machine).withVersion(version) : machine;
+        final byte[] record = encode(machine, version, epochMilliForUpdate);
+        final IndexEntry entry = index.compute(machine.getId(), (id, existing) -> {
+            if (existing == null)
+                throw new NoSuchElementException("there is no state machine with ID " + id);
+            if (existing.version != machine.getVersion())
+                throw new ConcurrentModificationException("state machine of type " + machine.getDefinition().getName() + " with ID " + id + " could not be found at version " + machine.getVersion() + ", it was modified concurrently");
+            journal.live(existing.location, -1);
+            return append(record, version, epochMilliForUpdate, status(machine));
+        });
+        journal.awaitDurable(entry.location);
+        return versioned;
+    }
+
+    @Override
+    public <R> R runInTransaction(Callable<R> callable) throws Exception {
+        return callable.call();
+    }
+
+    @Override
+    public List<MachineSnapshot> findStale(long seconds) {
+        final long staleReference = Instant.now().toEpochMilli() - Duration.ofSeconds(seconds).toMillis();
+        return snapshots(entry -> entry.status == ACTIVE && entry.lastModifiedEpoch < staleReference, true).collect(Collectors.toList());
+    }
+
+    @Override
+    public List<MachineSnapshot> findFailed() {
+        return snapshots(entry -> entry.status == FAILED, true).collect(Collectors.toList());
+    }
+
+    @Override
+    public List<MachineSnapshot> findTerminated() {
+        return snapshots(entry -> entry.status == TERMINATED, true).collect(Collectors.toList());
+    }
+
+    @Override
+    public Stream<MachineSnapshot> streamStaleModifiedBetween(long fromEpochMilli, long beforeEpochMilli, boolean withContext) {
+        return snapshots(entry -> entry.status == ACTIVE && entry.lastModifiedEpoch >= fromEpochMilli && entry.lastModifiedEpoch < beforeEpochMilli, withContext);
+    }
+
+    /**
+     * compacts the oldest segments of the journal while less than half of their records are the latest of their
+     * machine. it runs in the background each time a segment is full.
+     */
+    public void compact() {
+        while (true) {
+            final List<MachineJournal.Segment> compacted = new ArrayList<>();
+            for (MachineJournal.Segment segment : journal.segments()) {
+                if (journal.isHead(segment) || segment.live.get() >= segment.records.get() * COMPACTION_THRESHOLD)
+                    break;
+                moveLiveRecords(segment);
+                compacted.add(segment);
+            }
+            if (compacted.isEmpty())
+                return;
+            // the moved records must be on disk before the segments they were read from are deleted
+            journal.sync();
+            for (MachineJournal.Segment segment : compacted) {
+                try {
+                    journal.delete(segment);
+                } catch (IOException e) {
+                    throw new UncheckedIOException("could not delete journal segment " + segment.number, e);
+                }
+            }
+            LOGGER.debug("compacted {} journal segments, up to segment {}", compacted.size(), compacted.get(compacted.size() - 1).number);
+        }
+    }
+
+    /**
+     * stops compacting, forces the journal to disk and stops its flusher
+     */
+    @Override
+    public void close() {
+        compactor.shutdown();
+        try {
+            compactor.awaitTermination(1, TimeUnit.MINUTES);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        journal.close();
+    }
+
+    /**
+     * appends a machine record and indexes it. only called within the compute methods of the index, for the machine's id
+     */
+    private IndexEntry append(byte[] record, long version, long lastModifiedEpoch, byte status) {
+        final long location = journal.append(record);
+        journal.live(location, 1);
+        return new IndexEntry(location, version, lastModifiedEpoch, status);
+    }
+
+    /**
+     * appends again the records of a segment that are the latest of their machine
+     */
+    private void moveLiveRecords(MachineJournal.Segment segment) {
+        journal.scan(segment, (location, body) -> {
+            if (body.get(0) != MACHINE_RECORD)
+                return;
+            final String machineId = readId(body.duplicate());
+            final IndexEntry latest = index.get(machineId);
+            if (latest == null || latest.location != location)
+                return;
+            final byte[] record = new byte[body.remaining()];
+            body.get(record);
+            // moved within the lock of the machine, so that it does not overtake a concurrent update
+            index.computeIfPresent(machineId, (id, entry) -> {
+                if (entry.location != location)
+                    return entry;
+                journal.live(location, -1);
+                return append(record, entry.version, entry.lastModifiedEpoch, entry.status);
+            });
+        });
+    }
+
+    private void replay(long location, ByteBuffer body) {
+        final byte kind = body.get(0);
+        final String id = readId(body);
+        if (kind == MACHINE_RECORD)
+            index.put(id, new IndexEntry(location, body.getLong(2), body.getLong(10), body.get(1)));
+        else
+            index.remove(id);
+    }
+
+    private Optional<StoredRecord> readRecord(String id) {
+        while (true) {
+            final IndexEntry entry = index.get(id);
+            if (entry == null)
+                return Optional.empty();
+            final ByteBuffer body = journal.read(entry.location);
+            // null when the record was moved by a compaction, the index points to its new location
+            if (body != null)
+                return Optional.of(new StoredRecord(body));
+        }
+    }
+
+    private Stream<MachineSnapshot> snapshots(Predicate<IndexEntry> filter, boolean withContext) {
+        return index.entrySet().stream()
+                .filter(indexed -> filter.test(indexed.getValue()))
+                .map(indexed -> readRecord(indexed.getKey()))
+                .flatMap(Optional::stream)
+                .map(stored -> stored.snapshot(withContext));
+    }
+
+    private static byte status(Machine<?, ?> machine) {
+        if (machine.getErrorType() != ErrorType.NONE)
+            return FAILED;
+        else if (machine.isTerminalState())
+            return TERMINATED;
+        else if (machine.isIdleState())
+            return IDLE;
+        else
+            return ACTIVE;
+    }
+
+    /**
+     * a machine record: its kind, status, version, last modification time and id, which replaying the journal reads,
+     * then the rest of the machine
+     */
+    private static <S, E> byte[] encode(Machine<S, E> machine, long version, long lastModifiedEpoch) {
+        final MachineDefinition<S, E> def = machine.getDefinition();
+        final ByteArrayOutputStream bytes = new ByteArrayOutputStream(256);
+        try (DataOutputStream out = new DataOutputStream(bytes)) {
+            out.writeByte(MACHINE_RECORD);
+            out.writeByte(status(machine));
+            out.writeLong(version);
+            out.writeLong(lastModifiedEpoch);
+            writeString(out, machine.getId());
+            writeString(out, def.getName());
+            writeString(out, def.getStateToString().apply(machine.getCurrentState()));
+            out.writeByte(machine.getErrorType().ordinal());
+            writeString(out, machine.getError().orElse(null));
+            out.writeLong(machine.getTransitionEventCounter());
+            writeString(out, machine.getCurrentEvent().map(event -> def.getEventToString().apply(event)).orElse(null));
+            out.writeInt(machine.getContext().size());
+            for (Map.Entry<String, String> entry : machine.getContext().entrySet()) {
+                writeString(out, entry.getKey());
+                writeString(out, entry.getValue());
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        return bytes.toByteArray();
+    }
+
+    private static byte[] removal(String id) {
+        final byte[] encodedId = id.getBytes(StandardCharsets.UTF_8);
+        return ByteBuffer.allocate(18 + 4 + encodedId.length)
+                .put(REMOVAL_RECORD)
+                .put((byte) 0)
+                .putLong(0)
+                .putLong(Instant.now().toEpochMilli())
+                .putInt(encodedId.length)
+                .put(encodedId)
+                .array();
+    }
+
+    private static String readId(ByteBuffer body) {
+        return readString(body.position(18));
+    }
+
+    private static void writeString(DataOutputStream out, String value) throws IOException {
+        if (value == null) {
+            out.writeInt(-1);
+        } else {
+            final byte[] encoded = value.getBytes(StandardCharsets.UTF_8);
+            out.writeInt(encoded.length);
+            out.write(encoded);
+        }
+    }
+
+    private static String readString(ByteBuffer body) {
+        final int length = body.getInt();
+        if (length < 0)
+            return null;
+        final byte[] encoded = new byte[length];
+        body.get(encoded);
+        return new String(encoded, StandardCharsets.UTF_8);
+    }
+
+    private static class IndexEntry {
+        private final long location;
+        private final long version;
+        private final long lastModifiedEpoch;
+        private final byte status;
+
+        private IndexEntry(long location, long version, long lastModifiedEpoch, byte status) {
+            this.location = location;
+            this.version = version;
+            this.lastModifiedEpoch = lastModifiedEpoch;
+            this.status = status;
+        }
+    }
+
+    /**
+     * a machine record read back from the journal
+     */
+    private static class StoredRecord {
+        private final long version;
+        private final long lastModifiedEpoch;
+        private final String id;
+        private final String type;
+        private final String state;
+        private final ErrorType errorType;
+        private final String error;
+        private final long eventCounter;
+        private final String currentEvent;
+        private final Map<String, String> context;
+
+        private StoredRecord(ByteBuffer body) {
+            version = body.getLong(2);
+            lastModifiedEpoch = body.getLong(10);
+            id = readId(body);
+            type = readString(body);
+            state = readString(body);
+            errorType = ErrorType.values()[body.get()];
+            error = readString(body);
+            eventCounter = body.getLong();
+            currentEvent = readString(body);
+            final int entries = body.getInt();
+            final Map<String, String> entriesRead = new HashMap<>(entries * 2);
+            for (int i = 0; i < entries; i++)
+                entriesRead.put(readString(body), readString(body));
+            context = entriesRead;
+        }
+
+        private MachineSnapshot snapshot(boolean withContext) {
+            return new MachineSnapshot(type, id, state, withContext ? context : Map.of(), errorType, error, lastModifiedEpoch);
+        }
+    }
+}
@@ -16,20 +16,26 @@
 package io.statusmachina.core.stdimpl;
 
 
+import com.google.common.collect.HashBasedTable;
+import com.google.common.collect.ImmutableListMultimap;
 import com.google.common.collect.ImmutableMap;
 import com.google.common.collect.ImmutableSet;
+import com.google.common.collect.ImmutableTable;
+import com.google.common.collect.Table;
 import io.statusmachina.core.api.ErrorData;
 import io.statusmachina.core.api.MachineDefinition;
 import io.statusmachina.core.api.MachineDefinitionBuilder;
 import io.statusmachina.core.api.Transition;
+import io.statusmachina.core.api.TransitionArchive;
 import io.statusmachina.core.api.TransitionData;
+import io.statusmachina.core.api.TransitionGuard;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.util.*;
+import java.util.concurrent.Executor;
 import java.util.function.Consumer;
 import java.util.function.Function;
-import java.util.function.Predicate;
 
 /**
  * Defines a state machine by its states, events and transitions
@@ -46,6 +52,14 @@ public class MachineDefImpl<S, E> implements MachineDefinition<S, E> {
     final private ImmutableSet<E> events;
 
     final private ImmutableSet<Transition<S, E>> transitions;
+    /**
+     * event transitions indexed by source state and event, so that looking one up does not require scanning all transitions
+     */
+    final private ImmutableTable<S, E, Transition<S, E>> eventTransitions;
+    /**
+     * STP transitions grouped by source state, in the order in which they were configured
+     */
+    final private ImmutableListMultimap<S, Transition<S, E>> stpTransitions;
     final private String name;
     final private Function<S, String> stateToString;
     final private Function<String, S> stringToState;
@@ -53,6 +67,12 @@ public class MachineDefImpl<S, E> implements MachineDefinition<S, E> {
     final private Function<String, E> stringToEvent;
     private Consumer<ErrorData<S, E>> errorHandler;
     private Consumer<TransitionData<S, E>> transitionHandler;
+    /**
+     * null for the default executor
+     */
+    final private Executor asyncExecutor;
+    final private int historyRetention;
+    final private TransitionArchive<S, E> historyArchive;
 
     public static <S, E> MachineDefinitionBuilder<S, E> newBuilder() {
         return new BuilderImpl<>();
@@ -90,7 +110,81 @@ public class MachineDefImpl<S, E> implements MachineDefinition<S, E> {
             Function<E, String> eventToString,
             Function<String, E> stringToEvent
     ) {
+        this(name, allStates, initialState, idleStates, terminalStates, events, transitions, errorHandler, transitionHandler, stateToString, stringToState, eventToString, stringToEvent, null);
+    }
+
+    public MachineDefImpl(
+            String name,
+            Set<S> allStates,
+            S initialState,
+            Set<S> idleStates,
+            Set<S> terminalStates,
+            Set<E> events,
+            Set<Transition<S, E>> transitions,
+            Consumer<ErrorData<S, E>> errorHandler,
+            Consumer<TransitionData<S, E>> transitionHandler,
+            Function<S, String> stateToString,
+            Function<String, S> stringToState,
+            Function<E, String> eventToString,
+            Function<String, E> stringToEvent,
+            Executor asyncExecutor
+    ) {
+        this(name, allStates, initialState, idleStates, terminalStates, events, transitions, errorHandler, transitionHandler, stateToString, stringToState, eventToString, stringToEvent, asyncExecutor, 0, null);
+    }
+
+    public MachineDefImpl(
+            String name,
+            Set<S> allStates,
+            S initialState,
+            Set<S> idleStates,
+            Set<S> terminalStates,
+            Set<E> events,
+            Set<Transition<S, E>> transitions,
+            Consumer<ErrorData<S, E>> errorHandler,
+            Consumer<TransitionData<S, E>> transitionHandler,
+            Function<S, String> stateToString,
+            Function<String, S> stringToState,
+            Function<E, String> eventToString,
+            Function<String, E> stringToEvent,
+            Executor asyncExecutor,
+            int historyRetention,
+            TransitionArchive<S, E> historyArchive
+    ) {
+        this(name, allStates, initialState, idleStates, terminalStates, events, transitions, errorHandler, transitionHandler, stateToString, stringToState, eventToString, stringToEvent, asyncExecutor, historyRetention, historyArchive, true);
+    }
+
+    /**
+     * @param indexTransitions whether to index transitions for {@link #findEventTransition(Object, Object)} and
+     *                         {@link #findStpTransition(Object, ImmutableMap)}. subclasses that override both lookups
+     *                         with their own indexes pass false.
+     */
+    protected MachineDefImpl(
+            String name,
+            Set<S> allStates,
+            S initialState,
+            Set<S> idleStates,
+            Set<S> terminalStates,
+            Set<E> events,
+            Set<Transition<S, E>> transitions,
+            Consumer<ErrorData<S, E>> errorHandler,
+            Consumer<TransitionData<S, E>> transitionHandler,
+            Function<S, String> stateToString,
+            Function<String, S> stringToState,
+            Function<E, String> eventToString,
+            Function<String, E> stringToEvent,
+            Executor asyncExecutor,
+            int historyRetention,
+            TransitionArchive<S, E> historyArchive,
+            boolean indexTransitions
+    ) {
+        if (historyRetention < 0)
+            throw new IllegalArgumentException("the history retention cannot be negative: " + historyRetention);
         this.name = name;
+        this.asyncExecutor = asyncExecutor;
+        this.historyRetention = historyRetention;
+        // evicted transitions are discarded when there is no archive
+        this.historyArchive = historyArchive == null ? (machine, record) -> {
+        } : historyArchive;
         this.errorHandler = errorHandler;
         this.transitionHandler = transitionHandler;
         this.stateToString = stateToString;
@@ -103,6 +197,24 @@ public class MachineDefImpl<S, E> implements MachineDefinition<S, E> {
         this.terminalStates = ImmutableSet.<S>builder().addAll(terminalStates).build();
         this.events = ImmutableSet.<E>builder().addAll(events).build();
         this.transitions = ImmutableSet.<Transition<S, E>>builder().addAll(transitions).build();
+        this.eventTransitions = indexTransitions ? indexEventTransitions(this.transitions) : null;
+        this.stpTransitions = indexTransitions ? indexStpTransitions(this.transitions) : null;
+    }
+
+    private static <S, E> ImmutableTable<S, E, Transition<S, E>> indexEventTransitions(Set<Transition<S, E>> transitions) {
+        final Table<S, E, Transition<S, E>> index = HashBasedTable.create();
+        for (Transition<S, E> transition : transitions)
+            if (!transition.isSTP() && !index.contains(transition.getFrom(), transition.getEvent().get()))
+                index.put(transition.getFrom(), transition.getEvent().get(), transition);
+        return ImmutableTable.copyOf(index);
+    }
+
+    private static <S, E> ImmutableListMultimap<S, Transition<S, E>> indexStpTransitions(Set<Transition<S, E>> transitions) {
+        final ImmutableListMultimap.Builder<S, Transition<S, E>> index = ImmutableListMultimap.builder();
+        for (Transition<S, E> transition : transitions)
+            if (transition.isSTP())
+                index.put(transition.getFrom(), transition);
+        return index.build();
     }
 
     /**
@@ -189,17 +301,22 @@ public class MachineDefImpl<S, E> implements MachineDefinition<S, E> {
     }
 
     /**
-     * find the stp transition configured out of the specified state, if any
+     * find the first stp transition configured out of the specified state whose guard, if any, accepts the context.
+     * candidates are evaluated in the order in which they were configured.
      *
      * @param state the state out of which we ae looking for an STP transition
      * @return the stp transition
      */
     @Override
     public Optional<Transition<S, E>> findStpTransition(S state, ImmutableMap<String, String> context) {
-        return transitions.stream()
-                .filter(t -> t.getFrom().equals(state) && t.isSTP())
-                .filter(t -> t.getGuard().map(guard -> guard.test(context)).orElse(true))
-                .findFirst();
+        final List<Transition<S, E>> candidates = stpTransitions.get(state);
+        for (int i = 0; i < candidates.size(); i++) {
+            final Transition<S, E> candidate = candidates.get(i);
+            final Optional<TransitionGuard> guard = candidate.getGuard();
+            if (guard.isEmpty() || guard.get().test(context))
+                return Optional.of(candidate);
+        }
+        return Optional.empty();
     }
 
     /**
@@ -211,9 +328,7 @@ public class MachineDefImpl<S, E> implements MachineDefinition<S, E> {
      */
     @Override
     public Optional<Transition<S, E>> findEventTransition(S currentState, E event) {
-        final Predicate<Transition<S, E>> fromCurrentState = t -> t.getFrom().equals(currentState);
-        final Predicate<Transition<S, E>> forThisEvent = t -> !t.isSTP() && t.getEvent().get().equals(event);
-        return transitions.stream().filter(fromCurrentState.and(forThisEvent)).findFirst();
+        return Optional.ofNullable(eventTransitions.get(currentState, event));
     }
 
     /**
@@ -229,6 +344,25 @@ public class MachineDefImpl<S, E> implements MachineDefinition<S, E> {
         return transitionHandler;
     }
 
+    /**
+     * @return the configured executor, or the one of {@link AsyncExecutors#defaultExecutor()}, which is only created
+     * the first time it is needed
+     */
+    @Override
+    public Executor getAsyncExecutor() {
+        return asyncExecutor != null ? asyncExecutor : AsyncExecutors.defaultExecutor();
+    }
+
+    @Override
+    public int getHistoryRetention() {
+        return historyRetention;
+    }
+
+    @Override
+    public TransitionArchive<S, E> getHistoryArchive() {
+        return historyArchive;
+    }
+
     /**
      * @return the name of this machine type
      */
@@ -237,6 +371,50 @@ public class MachineDefImpl<S, E> implements MachineDefinition<S, E> {
         return name;
     }
 
+    /**
+     * the transition handler used when none is configured. it logs transitions at debug level, and reports whether its
+     * logger is enabled so that machines can skip building transition data nobody will look at.
+     *
+     * @param <S> the state type
+     * @param <E> the event type
+     */
+    static final class DefaultTransitionDataLogger<S, E> implements Consumer<TransitionData<S, E>> {
+        private final BuilderImpl<S, E> builder;
+        private volatile Logger logger;
+
+        DefaultTransitionDataLogger(BuilderImpl<S, E> builder) {
+            this.builder = builder;
+        }
+
+        boolean isEnabled() {
+            return logger().isDebugEnabled();
+        }
+
+        @Override
+        public void accept(TransitionData<S, E> transitionData) {
+            logger().debug("state machine with id {} of type {} has successfully transitioned from state {} to {} in response to event: {}"
+                    , transitionData.getStateMachineId()
+                    , transitionData.getStateMachineType()
+                    , builder.stateToString.apply(transitionData.getFrom())
+                    , builder.stateToString.apply(transitionData.getTo())
+                    , transitionData.getEvent().map(ev -> builder.eventToString.apply(ev)).orElse("STP")
+            );
+        }
+
+        /**
+         * the logger is named after the machine, which is only known once the definition is built, so it is resolved
+         * on first use
+         */
+        private Logger logger() {
+            Logger resolved = logger;
+            if (resolved == null) {
+                resolved = LoggerFactory.getLogger("StatusMachina-" + builder.name + "-DefaultTransactionDataLogger");
+                logger = resolved;
+            }
+            return resolved;
+        }
+    }
+
     public static class BuilderImpl<S, E> implements MachineDefinitionBuilder<S, E> {
         public final Consumer<ErrorData<S, E>> ERROR_DATA_CONSUMER = errorData -> {
             final Logger LOGGER = LoggerFactory.getLogger("StatusMachina-" + BuilderImpl.this.name + "-DefaultErrorHandler");
@@ -250,16 +428,7 @@ public class MachineDefImpl<S, E> implements MachineDefinition<S, E> {
                     , errorData.getCause());
 
         };
-        public final Consumer<TransitionData<S, E>> TRANSITION_DATA_CONSUMER = transitionData -> {
-            final Logger LOGGER = LoggerFactory.getLogger("StatusMachina-" + BuilderImpl.this.name + "-DefaultTransactionDataLogger");
-            LOGGER.debug("state machine with id {} of type {} has successfully transitioned from state {} to {} in response to event: {}"
-                    , transitionData.getStateMachineId()
-                    , transitionData.getStateMachineType()
-                    , BuilderImpl.this.stateToString.apply(transitionData.getFrom())
-                    , BuilderImpl.this.stateToString.apply(transitionData.getTo())
-                    , transitionData.getEvent().map(ev -> BuilderImpl.this.eventToString.apply(ev)).orElse("STP")
-            );
-        };
+        public final Consumer<TransitionData<S, E>> TRANSITION_DATA_CONSUMER = new DefaultTransitionDataLogger<>(this);
         private Set<S> allStates;
         private S initialState;
         private Set<S> idleStates;
@@ -274,6 +443,9 @@ public class MachineDefImpl<S, E> implements MachineDefinition<S, E> {
         private Consumer<ErrorData<S, E>> errorHandler;
         private Consumer<TransitionData<S, E>> transitionHandler;
 
+        private Executor asyncExecutor;
+        private int historyRetention;
+        private TransitionArchive<S, E> historyArchive;
 
         private Function<S, String> stateToString;
         private Function<String, S> stringToState;
@@ -367,9 +539,29 @@ public class MachineDefImpl<S, E> implements MachineDefinition<S, E> {
             return this;
         }
 
+        @Override
+        public MachineDefinitionBuilder<S, E> asyncExecutor(Executor asyncExecutor) {
+            this.asyncExecutor = asyncExecutor;
+            return this;
+        }
+
+        @Override
+        public MachineDefinitionBuilder<S, E> historyRetention(int lastTransitions) {
+            if (lastTransitions < 0)
+                throw new IllegalArgumentException("the history retention cannot be negative: " + lastTransitions);
+            this.historyRetention = lastTransitions;
+            return this;
+        }
+
+        @Override
+        public MachineDefinitionBuilder<S, E> historyArchive(TransitionArchive<S, E> historyArchive) {
+            this.historyArchive = historyArchive;
+            return this;
+        }
+
         @Override
         public MachineDefinitionBuilder<S, E> transitions(Transition<S, E>... allTransitions) {
-            Set<Transition<S, E>> transitions = new HashSet<>(Arrays.asList(allTransitions));
+            Set<Transition<S, E>> transitions = new LinkedHashSet<>(Arrays.asList(allTransitions));
             if (events == null || allStates == null)
                 throw new IllegalArgumentException("All states and events must be defined before defining transitions. All states except the inital state must be reachable from another state. Each state except terminal states must transition to other states");
 
@@ -382,23 +574,51 @@ public class MachineDefImpl<S, E> implements MachineDefinition<S, E> {
 
         @Override
         public MachineDefinition<S, E> build() {
-            return new MachineDefImpl<>(
+            return newDefinition(
                     name,
                     Set.copyOf(allStates),
                     initialState,
                     idleStates == null ? Set.of() : Set.copyOf(idleStates),
                     terminalStates == null ? Set.of() : Set.copyOf(terminalStates),
                     events == null ? Set.of() : Set.copyOf(events),
-                    transitions == null ? Set.of() : Set.copyOf(transitions),
+                    transitions == null ? Set.of() : ImmutableSet.copyOf(transitions),
                     errorHandler == null ? ERROR_DATA_CONSUMER : errorHandler,
                     transitionHandler == null ? TRANSITION_DATA_CONSUMER : transitionHandler,
                     stateToString,
                     stringToState,
                     eventToString,
-                    stringToEvent
+                    stringToEvent,
+                    asyncExecutor,
+                    historyRetention,
+                    historyArchive
             );
         }
 
+        /**
+         * creates the definition out of the configured values, defaults applied. specialized builders override it to
+         * create specialized definitions.
+         */
+        MachineDefinition<S, E> newDefinition(
+                String name,
+                Set<S> allStates,
+                S initialState,
+                Set<S> idleStates,
+                Set<S> terminalStates,
+                Set<E> events,
+                Set<Transition<S, E>> transitions,
+                Consumer<ErrorData<S, E>> errorHandler,
+                Consumer<TransitionData<S, E>> transitionHandler,
+                Function<S, String> stateToString,
+                Function<String, S> stringToState,
+                Function<E, String> eventToString,
+                Function<String, E> stringToEvent,
+                Executor asyncExecutor,
+                int historyRetention,
+                TransitionArchive<S, E> historyArchive
+        ) {
+            return new MachineDefImpl<>(name, allStates, initialState, idleStates, terminalStates, events, transitions, errorHandler, transitionHandler, stateToString, stringToState, eventToString, stringToEvent, asyncExecutor, historyRetention, historyArchive);
+        }
+
         private boolean validateTransitions(Set<Transition<S, E>> transitions) {
             for (Transition<S, E> transition : transitions)
                 if (notASourcetState(transition.getFrom()) || notADestinationState(transition.getTo()) || notAnEvent(transition.getEvent()))
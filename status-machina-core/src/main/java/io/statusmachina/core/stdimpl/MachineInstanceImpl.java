@@ -15,8 +15,10 @@
 
 package io.statusmachina.core.stdimpl;
 
+import com.google.common.collect.AbstractIterator;
 import com.google.common.collect.ImmutableList;
 import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.Streams;
 import io.statusmachina.core.api.*;
 import io.statusmachina.core.spi.MachinePersistenceCallback;
 import org.slf4j.Logger;
@@ -24,15 +26,25 @@ import org.slf4j.LoggerFactory;
 
 import java.time.Instant;
 import java.util.*;
+import java.util.function.Consumer;
+import java.util.stream.Stream;
 
 public class MachineInstanceImpl<S, E> implements Machine<S, E> {
-    private final Logger LOGGER = LoggerFactory.getLogger(MachineInstanceImpl.class);
+    private static final Logger LOGGER = LoggerFactory.getLogger(MachineInstanceImpl.class);
+    /**
+     * the number of transitions {@link #streamHistory()} reads at once
+     */
+    static final int HISTORY_PAGE_SIZE = 100;
 
     private final String id;
 
     private final MachineDefinition<S, E> def;
     private final ImmutableMap<String, String> context;
-    private final ImmutableList<TransitionRecord<S, E>> history;
+    /**
+     * the transitions handed to the instance, or read from the persistence callback the first time they are requested.
+     * null until then.
+     */
+    private volatile List<TransitionRecord<S, E>> history;
     private final ErrorType errorType;
     private final Optional<String> error;
 
@@ -40,6 +52,7 @@ public class MachineInstanceImpl<S, E> implements Machine<S, E> {
     private final MachinePersistenceCallback<S, E> persistenceCallback;
     private final long eventCounter;
     private final Optional<E> crtEvent;
+    private final long version;
 
     public MachineInstanceImpl(
             MachineDefinition<S, E> def,
@@ -70,9 +83,9 @@ public class MachineInstanceImpl<S, E> implements Machine<S, E> {
         this.id = id;
         this.eventCounter = eventCounter;
         this.crtEvent = crtEvent;
-        this.history = ImmutableList.<TransitionRecord<S, E>>builder().build();
+        this.version = 0;
         this.currentState = def.getInitialState();
-        this.context = ImmutableMap.<String, String>builder().putAll(context).build();
+        this.context = ImmutableMap.copyOf(context);
         this.error = Optional.empty();
         this.errorType = ErrorType.NONE;
         this.persistenceCallback = persistenceCallback;
@@ -109,18 +122,36 @@ public class MachineInstanceImpl<S, E> implements Machine<S, E> {
             MachinePersistenceCallback<S, E> persistenceCallback,
             long eventCounter,
             Optional<E> crtEvent
+    ) throws TransitionException {
+        this(id, def, currentState, context, history, errorType, error, persistenceCallback, eventCounter, crtEvent, 0);
+    }
+
+    public MachineInstanceImpl(
+            String id,
+            MachineDefinition<S, E> def,
+            S currentState,
+            Map<String, String> context,
+            List<TransitionRecord<S, E>> history,
+            ErrorType errorType,
+            Optional<String> error,
+            MachinePersistenceCallback<S, E> persistenceCallback,
+            long eventCounter,
+            Optional<E> crtEvent,
+            long version
     ) throws TransitionException {
         this.def = def;
 
         this.id = id;
-        this.history = ImmutableList.<TransitionRecord<S, E>>builder().addAll(history).build();
+        this.history = history.isEmpty() ? null : ImmutableList.copyOf(history);
         this.error = error;
         this.currentState = currentState;
-        this.context = ImmutableMap.<String, String>builder().putAll(context).build();
+        // copyOf returns the argument itself when it is already immutable, so the context is shared between successive instances
+        this.context = ImmutableMap.copyOf(context);
         this.errorType = errorType;
         this.persistenceCallback = persistenceCallback;
         this.eventCounter = eventCounter;
         this.crtEvent = crtEvent;
+        this.version = version;
         if (LOGGER.isDebugEnabled())
             LOGGER.debug("creating a new state machine instance of type {}, with ID {} in state {}", def.getName(), id, def.getStateToString().apply(currentState));
     }
@@ -137,12 +168,49 @@ public class MachineInstanceImpl<S, E> implements Machine<S, E> {
 
     @Override
     public ImmutableMap<String, String> getContext() {
-        return ImmutableMap.<String, String>builder().putAll(context).build();
+        return context;
     }
 
     @Override
     public List<TransitionRecord<S, E>> getHistory() {
-        return new ArrayList<>(history);
+        List<TransitionRecord<S, E>> loaded = history;
+        if (loaded == null) {
+            loaded = ImmutableList.copyOf(persistenceCallback.readHistory(this));
+            history = loaded;
+        }
+        return loaded;
+    }
+
+    @Override
+    public List<TransitionRecord<S, E>> getHistory(int offset, int limit) {
+        final List<TransitionRecord<S, E>> loaded = history;
+        if (loaded != null)
+            return loaded.subList(Math.min(offset, loaded.size()), (int) Math.min((long) offset + limit, loaded.size()));
+        return ImmutableList.copyOf(persistenceCallback.readHistory(this, offset, limit));
+    }
+
+    @Override
+    public Stream<TransitionRecord<S, E>> streamHistory() {
+        final List<TransitionRecord<S, E>> loaded = history;
+        if (loaded != null)
+            return loaded.stream();
+        final Iterator<List<TransitionRecord<S, E>>> pages = new AbstractIterator<>() {
+            private int offset = 0;
+            private boolean lastPage = false;
+
+            @Override
+            protected List<TransitionRecord<S, E>> computeNext() {
+                if (lastPage)
+                    return endOfData();
+                final List<TransitionRecord<S, E>> page = persistenceCallback.readHistory(MachineInstanceImpl.this, offset, HISTORY_PAGE_SIZE);
+                lastPage = page.size() < HISTORY_PAGE_SIZE;
+                if (page.isEmpty())
+                    return endOfData();
+                offset += page.size();
+                return page;
+            }
+        };
+        return Streams.stream(pages).flatMap(List::stream);
     }
 
     @Override
@@ -173,6 +241,19 @@ public class MachineInstanceImpl<S, E> implements Machine<S, E> {
         return crtEvent;
     }
 
+    @Override
+    public long getVersion() {
+        return version;
+    }
+
+    /**
+     * @param version the version assigned by the persistence layer
+     * @return a copy of this machine that carries the specified version
+     */
+    public MachineInstanceImpl<S, E> withVersion(long version) {
+        return new MachineInstanceImpl<>(id, def, currentState, context, history == null ? List.of() : history, errorType, error, persistenceCallback, eventCounter, crtEvent, version);
+    }
+
     public Machine<S, E> start() {
         if (LOGGER.isDebugEnabled())
             LOGGER.debug("starting state machine instance of type {}, with ID {}", def.getName(), id);
@@ -197,18 +278,18 @@ public class MachineInstanceImpl<S, E> implements Machine<S, E> {
     public Machine<S, E> sendEvent(E event) throws TransitionException {
         if (LOGGER.isDebugEnabled())
             LOGGER.debug("state machine instance of type {}, with ID {} receives event {}", def.getName(), id, def.getEventToString().apply(event));
-        if (def.getTerminalStates().contains(currentState)) {
+        if (def.isTerminalState(currentState)) {
             LOGGER.debug("state machine instance of type {}, with ID {} receives event {} while in terminal state {}. Aborting.", def.getName(), id, def.getEventToString().apply(event), currentState);
             throw new IllegalStateException(new IllegalStateException("state machine of type " + def.getName() + " with ID " + id + " event " + event.toString() + " has received an event while in ternminal state " + currentState + ". Aborting."));
         } else if (isErrorState()) {
             LOGGER.error("a state machine cannot accept event when in error state:  type {}, id {}, error '{}'", def.getName(), id, error.get());
             throw new IllegalStateException("a state machine cannot accept event when in error state:  type " + def.getName() + ", id " + id + "  error " + error.get());
         } else {
-            Transition<S, E> transition = def.findEventTransition(currentState, event).orElseThrow(() -> new IllegalStateException("for machines of type " + def.getName() + " event " + event.toString() + " does not trigger any transition out of state " + currentState.toString()));
-            if (this.eventCounter > 1 && this.crtEvent.map(e -> e.equals(event)).orElse(false)) {
+            final Transition<S, E> transition = findEventTransition(event);
+            if (this.eventCounter > 1 && this.crtEvent.isPresent() && this.crtEvent.get().equals(event)) {
                 throw new IllegalStateException("an event of type " + event.getClass().getName() + " with id " + this.getId() + " has been delivered to a machine in state " + currentState + " while the machine was expecting an event of type " + this.crtEvent.getClass().getName());
             }
-            if (this.eventCounter + 1 == transition.getEventCardinality() && this.crtEvent.map(e -> e.equals(event)).orElse(true)) {
+            if (this.eventCounter + 1 == transition.getEventCardinality() && (this.crtEvent.isEmpty() || this.crtEvent.get().equals(event))) {
                 if (LOGGER.isDebugEnabled())
                     LOGGER.debug("a transition was found for machine instance of type {}, with ID {} from state {} to state {} on event {}",
                             def.getName(),
@@ -220,8 +301,8 @@ public class MachineInstanceImpl<S, E> implements Machine<S, E> {
 
                 return applyTransition(transition, null);
             } else {
-                MachineInstanceImpl<S, E> newMachine = new MachineInstanceImpl<>(id, def, currentState, context, history, errorType, error, persistenceCallback, this.eventCounter + 1, this.crtEvent);
-                Machine<S, E> updated = persistenceCallback.update(newMachine, Instant.now().toEpochMilli());
+                MachineInstanceImpl<S, E> newMachine = new MachineInstanceImpl<>(id, def, currentState, context, history == null ? List.of() : history, errorType, error, persistenceCallback, this.eventCounter + 1, this.crtEvent, version);
+                Machine<S, E> updated = persistenceCallback.updateEventCounter(this, newMachine, System.currentTimeMillis());
                 return updated;
             }
         }
@@ -231,7 +312,7 @@ public class MachineInstanceImpl<S, E> implements Machine<S, E> {
     public <P> Machine<S, E> sendEvent(E event, P param) throws TransitionException {
         if (LOGGER.isDebugEnabled())
             LOGGER.debug("state machine instance of type {}, with ID {} receives event {} with parameter {}", def.getName(), id, def.getEventToString().apply(event), param.toString());
-        if (def.getTerminalStates().contains(currentState)) {
+        if (def.isTerminalState(currentState)) {
             LOGGER.debug("state machine instance of type {}, with ID {} receives event {} while in terminal state {}. Aborting.", def.getName(), id, def.getEventToString().apply(event), currentState);
             throw new IllegalStateException(new IllegalStateException("state machine of type " + def.getName() + " with ID " + id + " event " + event.toString() + " has received an event while in ternminal state " + currentState + ". Aborting."));
         } else if (isErrorState()) {
@@ -239,7 +320,7 @@ public class MachineInstanceImpl<S, E> implements Machine<S, E> {
             throw new IllegalStateException("a state machine cannot accept event when in error state:  type " + def.getName() + ", id " + id + "  error " + error.get());
         }
         {
-            final Transition<S, E> transition = def.findEventTransition(currentState, event).orElseThrow(() -> new IllegalStateException("for machines of type " + def.getName() + " event " + event.toString() + " does not trigger any transition out of state " + currentState.toString()));
+            final Transition<S, E> transition = findEventTransition(event);
             if (LOGGER.isDebugEnabled())
                 LOGGER.debug("a transition was found for machine instance of type {}, with ID {} from state {} to state {} on event {}",
                         def.getName(),
@@ -260,7 +341,14 @@ public class MachineInstanceImpl<S, E> implements Machine<S, E> {
         Optional<String> newError = Optional.empty();
         ImmutableMap<String, String> newContext = ImmutableMap.<String, String>builder().putAll(context).build();
 
-        return new MachineInstanceImpl<S, E>(id, def, state, newContext, history, ErrorType.NONE, newError, persistenceCallback);
+        return new MachineInstanceImpl<S, E>(id, def, state, newContext, List.of(), ErrorType.NONE, newError, persistenceCallback, 0, Optional.empty(), version);
+    }
+
+    private Transition<S, E> findEventTransition(E event) {
+        final Optional<Transition<S, E>> transition = def.findEventTransition(currentState, event);
+        if (transition.isEmpty())
+            throw new IllegalStateException("for machines of type " + def.getName() + " event " + event.toString() + " does not trigger any transition out of state " + currentState.toString());
+        return transition.get();
     }
 
     private Machine<S, E> tryStp() throws TransitionException {
@@ -269,11 +357,13 @@ public class MachineInstanceImpl<S, E> implements Machine<S, E> {
         if (this.isErrorState())
             return this;
         else {
-            return def.findStpTransition(currentState, context).map(t -> {
-                if (LOGGER.isDebugEnabled())
-                    LOGGER.debug("stp transitions for state machine instance of type {}, with ID {}, out of state {}, to state {}", def.getName(), id, def.getStateToString().apply(currentState), def.getStateToString().apply(t.getTo()));
-                return applyTransition(t, null);
-            }).orElse(this);
+            final Optional<Transition<S, E>> stp = def.findStpTransition(currentState, context);
+            if (stp.isEmpty())
+                return this;
+            final Transition<S, E> t = stp.get();
+            if (LOGGER.isDebugEnabled())
+                LOGGER.debug("stp transitions for state machine instance of type {}, with ID {}, out of state {}, to state {}", def.getName(), id, def.getStateToString().apply(currentState), def.getStateToString().apply(t.getTo()));
+            return applyTransition(t, null);
         }
     }
 
@@ -289,16 +379,19 @@ public class MachineInstanceImpl<S, E> implements Machine<S, E> {
             machineAndStash = persistenceCallback.runInTransaction(() -> {
                 final Optional<TransitionAction<?>> action = transition.getAction();
                 try {
-                    ImmutableMap<String, String> newContext = action.map(
-                            mapConsumer -> {
-                                if (LOGGER.isDebugEnabled())
-                                    LOGGER.debug("executing transition  action for state machine instance of type {}, with ID {}, out of state {} to state {}", def.getName(), id, def.getStateToString().apply(currentState), def.getStateToString().apply(newState));
-                                return ((TransitionAction<P>) mapConsumer).apply(context, param);
-                            }
-                    ).orElse(context);
-                    Optional<String> newError = Optional.empty();
-                    final MachineInstanceImpl<S, E> newMachine = new MachineInstanceImpl<>(id, def, newState, newContext, history, ErrorType.NONE, newError, persistenceCallback);
-                    final ImmutableMap<String, Object> stashStore = action.map(TransitionAction::getStashStore).orElseGet(() -> ImmutableMap.<String, Object>builder().build());
+                    final ImmutableMap<String, String> newContext;
+                    final ImmutableMap<String, Object> stashStore;
+                    if (action.isPresent()) {
+                        if (LOGGER.isDebugEnabled())
+                            LOGGER.debug("executing transition  action for state machine instance of type {}, with ID {}, out of state {} to state {}", def.getName(), id, def.getStateToString().apply(currentState), def.getStateToString().apply(newState));
+                        final TransitionAction<P> transitionAction = (TransitionAction<P>) action.get();
+                        newContext = transitionAction.apply(context, param);
+                        stashStore = transitionAction.getStashStore();
+                    } else {
+                        newContext = context;
+                        stashStore = ImmutableMap.of();
+                    }
+                    final MachineInstanceImpl<S, E> newMachine = new MachineInstanceImpl<>(id, def, newState, newContext, List.of(), ErrorType.NONE, Optional.empty(), persistenceCallback, 0, Optional.empty(), version);
                     if (LOGGER.isDebugEnabled())
                         LOGGER.debug("transition for state machine instance of type {}, with ID {}, out of state {} to state {} completed, preparing to save", def.getName(), id, def.getStateToString().apply(currentState), def.getStateToString().apply(newState));
                     final Machine<S, E> updatedMachine = update(newMachine, transition, param, null);
@@ -326,18 +419,19 @@ public class MachineInstanceImpl<S, E> implements Machine<S, E> {
             return machine;
             //throw new TransitionException(machineAndStash.getMachine(), transition, ErrorType.TRANSITION, machineAndStash.getErrorCause());
         } else {
-            transition.getPostAction().ifPresent(pa -> {
+            final Optional<TransitionPostAction<?>> pa = transition.getPostAction();
+            if (pa.isPresent()) {
                 if (LOGGER.isDebugEnabled())
                     LOGGER.debug("executing post transition action for state machine instance of type {}, with ID {}", def.getName(), id);
-                final TransitionPostAction<P> postAction = (TransitionPostAction<P>) pa;
+                final TransitionPostAction<P> postAction = (TransitionPostAction<P>) pa.get();
                 try {
-                    postAction.setStash(ImmutableMap.<String, Object>builder().putAll(machineAndStash.getStashStore()).build());
-                    postAction.accept(machineAndStash.getMachine().getContext(), param);
+                    postAction.setStash(machineAndStash.getStashStore());
+                    postAction.accept(machine.getContext(), param);
                 } catch (Throwable t) {
                     applyErrorState(transition, param, t, ErrorType.POST_TRANSITION);
                     throw new TransitionException(machine, transition, ErrorType.POST_TRANSITION, t);
                 }
-            });
+            }
             return ((MachineInstanceImpl) machine).tryStp();
         }
     }
@@ -345,30 +439,40 @@ public class MachineInstanceImpl<S, E> implements Machine<S, E> {
     private <P> Machine<S, E> applyErrorState(Transition<S, E> transition, P param, Throwable t, ErrorType newErrorType) {
         final String message = t.getMessage();
         Optional<String> newError = Optional.of(message == null ? t.getClass().getSimpleName() : message);
-        final MachineInstanceImpl<S, E> newMachine = new MachineInstanceImpl<>(id, def, currentState, context, history, newErrorType, newError, persistenceCallback);
+        final MachineInstanceImpl<S, E> newMachine = new MachineInstanceImpl<>(id, def, currentState, context, List.of(), newErrorType, newError, persistenceCallback, 0, Optional.empty(), version);
         return update(newMachine, transition, param, t);
     }
 
     private <P> Machine<S, E> update(Machine<S, E> newMachine, Transition<S, E> transition, P param, Throwable t) {
-        long now = Instant.now().toEpochMilli();
+        long now = System.currentTimeMillis();
         if (newMachine.getErrorType() == ErrorType.TRANSITION) {
             def.getErrorHandler().accept(new DefaultErrorData<>(now, transition, param, t, false));
         } else if (newMachine.getErrorType() == ErrorType.POST_TRANSITION) {
             def.getErrorHandler().accept(new DefaultErrorData<>(now, transition, param, t, true));
-        } else if (newMachine.getErrorType() == ErrorType.NONE && def.findStpTransition(newMachine.getCurrentState(), context).isEmpty()) {
+        } else if (newMachine.getErrorType() == ErrorType.NONE && isTransitionHandlerActive() && def.findStpTransition(newMachine.getCurrentState(), context).isEmpty()) {
             def.getTransitionHandler().accept(new DefaultTransitionData<>(now, transition, param));
         }
-        return persistenceCallback.update(newMachine, now);
+        persistenceCallback.recordTransition(newMachine, new TransitionRecord<>(newMachine.getCurrentState(), transition.getEvent(), newMachine.getError(), Instant.ofEpochMilli(now)));
+        return persistenceCallback.update(this, newMachine, now);
+    }
+
+    /**
+     * @return false if the transition handler is the default transition logger and its logger is not enabled, in which
+     * case there is no point in building transition data for it
+     */
+    private boolean isTransitionHandlerActive() {
+        final Consumer<TransitionData<S, E>> handler = def.getTransitionHandler();
+        return !(handler instanceof MachineDefImpl.DefaultTransitionDataLogger) || ((MachineDefImpl.DefaultTransitionDataLogger<S, E>) handler).isEnabled();
     }
 
     @Override
     public boolean isTerminalState() {
-        return def.getTerminalStates().contains(currentState);
+        return def.isTerminalState(currentState);
     }
 
     @Override
     public boolean isIdleState() {
-        return def.getIdleStates().contains(currentState);
+        return def.isIdleState(currentState);
     }
 
     private class DefaultErrorData<S, E, P> implements ErrorData<S, E> {
@@ -0,0 +1,450 @@
+/*
+ *  Copyright 2019 <---> Present Status Machina Contributors (https://github.com/entzik/status-machina/graphs/contributors)
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  This software is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR
+ *  CONDITIONS OF ANY KIND, either express or implied. See the License for the
+ *  specific language governing permissions and limitations under the License.
+ *
+ */
+
+package io.statusmachina.core.stdimpl;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.IntConsumer;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+import java.util.zip.CRC32C;
+
+/**
+ * <p>An append only journal of records, stored in segment files of a fixed size that are mapped in memory. Records are
+ * appended to the last segment, the head, and a new segment is started when a record does not fit in it any more.</p>
+ *
+ * <p>Each record is preceded by its length and a checksum, so that a record that was only partly written when the
+ * process stopped is recognized, and ignored, when the journal is replayed. Records are located by a long made of the
+ * segment number in its upper half and the position within the segment in its lower half, so locations grow with the
+ * journal.</p>
+ *
+ * <p>Appended records are forced to disk by a flusher thread. With group commit, appenders wait until their record is
+ * on disk, and all the records appended while the flusher forces the previous ones are forced together. Without it,
+ * appenders do not wait, and the flusher forces the appended records at a fixed interval.</p>
+ */
+final class MachineJournal implements Closeable {
+    private static final Logger LOGGER = LoggerFactory.getLogger(MachineJournal.class);
+
+    static final String SEGMENT_PREFIX = "journal-";
+    static final String SEGMENT_SUFFIX = ".log";
+    /**
+     * the length of the record, then its checksum
+     */
+    static final int HEADER_SIZE = 8;
+    static final long FLUSH_INTERVAL_MILLIS = 10;
+
+    private final Path directory;
+    private final int segmentSize;
+    private final boolean groupCommit;
+    private final IntConsumer onRoll;
+    private final ConcurrentSkipListMap<Integer, Segment> segments = new ConcurrentSkipListMap<>();
+
+    private final Object appendLock = new Object();
+    /**
+     * changed with the append lock held
+     */
+    private volatile Segment head;
+    /**
+     * the location right after the last appended record, changed with the append lock held
+     */
+    private volatile long written;
+
+    /**
+     * the flusher waits on it while there is nothing to force
+     */
+    private final Object flushSignal = new Object();
+    private volatile boolean flusherIdle;
+
+    private final Object durableLock = new Object();
+    /**
+     * the location up to which records are on disk
+     */
+    private volatile long durable;
+    private volatile boolean closed;
+    private final Thread flusher;
+
+    /**
+     * opens the journal stored in a directory, creating it if needed, and replays its records
+     *
+     * @param directory   the directory segments are stored in
+     * @param segmentSize the size of new segments, in bytes
+     * @param groupCommit true if appenders should wait for their records to be forced to disk
+     * @param replay      called with the location and content of each record of the journal, from the oldest
+     * @param onRoll      called with the number of the previous head each time a new segment is started
+     */
+    MachineJournal(Path directory, int segmentSize, boolean groupCommit, RecordVisitor replay, IntConsumer onRoll) throws IOException {
+        if (segmentSize <= HEADER_SIZE)
+            throw new IllegalArgumentException("journal segments must be larger than " + HEADER_SIZE + " bytes");
+        this.directory = Files.createDirectories(directory);
+        this.segmentSize = segmentSize;
+        this.groupCommit = groupCommit;
+        this.onRoll = onRoll;
+
+        final List<Integer> numbers;
+        try (Stream<Path> files = Files.list(directory)) {
+            numbers = files.map(path -> path.getFileName().toString())
+                    .filter(name -> name.startsWith(SEGMENT_PREFIX) && name.endsWith(SEGMENT_SUFFIX))
+                    .map(name -> Integer.parseInt(name.substring(SEGMENT_PREFIX.length(), name.length() - SEGMENT_SUFFIX.length())))
+                    .collect(Collectors.toList());
+        }
+        for (int number : numbers)
+            segments.put(number, map(number));
+        if (segments.isEmpty())
+            segments.put(0, map(0));
+
+        int end = 0;
+        for (Segment segment : segments.values())
+            end = scan(segment, replay, true);
+        head = segments.lastEntry().getValue();
+        clearTail(head, end);
+        written = location(head.number, end);
+        durable = written;
+
+        flusher = new Thread(this::flush, "status-machina-journal-flusher");
+        flusher.setDaemon(true);
+        flusher.start();
+    }
+
+    /**
+     * appends a record to the head of the journal. it must be called from within the lock that orders the records of
+     * the same machine, so that the journal holds them in the order they were made.
+     *
+     * @param body the record
+     * @return the location of the record
+     */
+    long append(byte[] body) {
+        final int length = HEADER_SIZE + body.length;
+        if (length > segmentSize)
+            throw new IllegalArgumentException("a journal record of " + length + " bytes does not fit in segments of " + segmentSize + " bytes");
+        final CRC32C crc = new CRC32C();
+        crc.update(body);
+        final long location;
+        synchronized (appendLock) {
+            if (closed)
+                throw new IllegalStateException("the journal in " + directory + " is closed");
+            int position = position(written);
+            if (position + length > head.size) {
+                roll();
+                position = 0;
+            }
+            head.buffer.put(position + HEADER_SIZE, body);
+            head.buffer.putInt(position + 4, (int) crc.getValue());
+            head.buffer.putInt(position, body.length);
+            head.records.incrementAndGet();
+            written = location(head.number, position + length);
+            location = location(head.number, position);
+        }
+        wakeFlusher();
+        return location;
+    }
+
+    /**
+     * waits until the record at the specified location is on disk. it returns right away without group commit.
+     */
+    void awaitDurable(long location) {
+        if (groupCommit)
+            awaitFlushed(location);
+    }
+
+    /**
+     * forces all the records appended so far to disk, whether group commit is used or not
+     */
+    void sync() {
+        final long target = written;
+        wakeFlusher();
+        if (target > durable)
+            awaitFlushed(target - 1);
+    }
+
+    /**
+     * @param location the location of a record
+     * @return the content of the record, or null if its segment was deleted meanwhile
+     */
+    ByteBuffer read(long location) {
+        final Segment segment = segments.get(segmentNumber(location));
+        if (segment == null)
+            return null;
+        final int position = position(location);
+        return segment.buffer.slice(position + HEADER_SIZE, segment.buffer.getInt(position));
+    }
+
+    /**
+     * @return the segments of the journal, from the oldest to the head
+     */
+    Collection<Segment> segments() {
+        return segments.values();
+    }
+
+    /**
+     * @return true if the specified segment is the one records are appended to
+     */
+    boolean isHead(Segment segment) {
+        return segment == head;
+    }
+
+    /**
+     * calls the visitor with the location and content of each record of a segment
+     */
+    void scan(Segment segment, RecordVisitor visitor) {
+        scan(segment, visitor, false);
+    }
+
+    /**
+     * deletes a segment that is not the head any more. records it holds can no longer be read.
+     */
+    void delete(Segment segment) throws IOException {
+        if (isHead(segment))
+            throw new IllegalArgumentException("the head of the journal can not be deleted");
+        segments.remove(segment.number);
+        Files.deleteIfExists(segmentPath(segment.number));
+    }
+
+    /**
+     * records that an index points to, or no longer points to, the record at the specified location
+     *
+     * @param location the location of a record
+     * @param delta    1 when a record becomes live, -1 when it is superseded
+     */
+    void live(long location, int delta) {
+        final Segment segment = segments.get(segmentNumber(location));
+        if (segment != null)
+            segment.live.addAndGet(delta);
+    }
+
+    /**
+     * @return the number of segments of the journal
+     */
+    int segmentCount() {
+        return segments.size();
+    }
+
+    /**
+     * stops the flusher, once all the appended records are on disk
+     */
+    @Override
+    public void close() {
+        synchronized (appendLock) {
+            closed = true;
+        }
+        wakeFlusher();
+        try {
+            flusher.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        synchronized (durableLock) {
+            durableLock.notifyAll();
+        }
+    }
+
+    private void awaitFlushed(long location) {
+        synchronized (durableLock) {
+            while (durable <= location) {
+                if (closed && !flusher.isAlive())
+                    throw new IllegalStateException("the journal in " + directory + " was closed before the record was on disk");
+                try {
+                    durableLock.wait();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw new IllegalStateException("interrupted while waiting for a journal record to be on disk", e);
+                }
+            }
+        }
+    }
+
+    /**
+     * the flusher loop: forces the records appended since the last pass, then wakes up the appenders waiting for them.
+     * it does not take the append lock, so that appenders are never held up by a flush.
+     */
+    private void flush() {
+        while (true) {
+            synchronized (flushSignal) {
+                flusherIdle = true;
+                while (written == durable && !closed) {
+                    try {
+                        flushSignal.wait();
+                    } catch (InterruptedException e) {
+                        return;
+                    }
+                }
+                flusherIdle = false;
+            }
+            if (written == durable)
+                return;
+            if (!groupCommit && !closed) {
+                try {
+                    Thread.sleep(FLUSH_INTERVAL_MILLIS);
+                } catch (InterruptedException e) {
+                    return;
+                }
+            }
+            final long target = written;
+            // the records of the previous segments were forced when the head moved past them
+            final Segment segment = segments.get(segmentNumber(target));
+            final int end = position(target);
+            if (segment != null && end > segment.flushed) {
+                segment.buffer.force(segment.flushed, end - segment.flushed);
+                segment.flushed = end;
+            }
+            markDurable(target);
+        }
+    }
+
+    /**
+     * wakes the flusher up if it waits for records to force. called after the records were appended: either the
+     * flusher sees them before it waits, or the appender sees it waiting.
+     */
+    private void wakeFlusher() {
+        if (flusherIdle) {
+            synchronized (flushSignal) {
+                flushSignal.notify();
+            }
+        }
+    }
+
+    private void markDurable(long target) {
+        synchronized (durableLock) {
+            if (target > durable)
+                durable = target;
+            durableLock.notifyAll();
+        }
+    }
+
+    /**
+     * starts a new head, once the current one is on disk. called with the append lock held.
+     */
+    private void roll() {
+        final Segment previous = head;
+        previous.buffer.force();
+        markDurable(written);
+        try {
+            head = map(previous.number + 1);
+        } catch (IOException e) {
+            throw new UncheckedIOException("could not start a new journal segment in " + directory, e);
+        }
+        segments.put(head.number, head);
+        written = location(head.number, 0);
+        LOGGER.debug("journal segment {} is full, appending to segment {}", previous.number, head.number);
+        onRoll.accept(previous.number);
+    }
+
+    private int scan(Segment segment, RecordVisitor visitor, boolean replaying) {
+        final ByteBuffer buffer = segment.buffer;
+        int position = 0;
+        while (position + HEADER_SIZE <= segment.size) {
+            final int length = buffer.getInt(position);
+            if (length <= 0 || length > segment.size - position - HEADER_SIZE)
+                break;
+            final ByteBuffer body = buffer.slice(position + HEADER_SIZE, length);
+            final CRC32C crc = new CRC32C();
+            crc.update(body.duplicate());
+            if ((int) crc.getValue() != buffer.getInt(position + 4)) {
+                LOGGER.warn("journal segment {} holds an incomplete record at {}, the records that follow are ignored", segment.number, position);
+                break;
+            }
+            if (replaying)
+                segment.records.incrementAndGet();
+            visitor.visit(location(segment.number, position), body);
+            position += HEADER_SIZE + length;
+        }
+        return position;
+    }
+
+    /**
+     * zeroes what follows the last complete record of the head, so that a record partly written before a crash is not
+     * mistaken for the end of a record appended later
+     */
+    private void clearTail(Segment segment, int end) {
+        if (end + HEADER_SIZE > segment.size || segment.buffer.getLong(end) == 0)
+            return;
+        final byte[] zeroes = new byte[Math.min(64 * 1024, segment.size - end)];
+        for (int position = end; position < segment.size; position += zeroes.length)
+            segment.buffer.put(position, zeroes, 0, Math.min(zeroes.length, segment.size - position));
+        segment.buffer.force();
+    }
+
+    private Segment map(int number) throws IOException {
+        final Path path = segmentPath(number);
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+            final long existing = channel.size();
+            final int size = existing > 0 ? (int) Math.min(existing, Integer.MAX_VALUE) : segmentSize;
+            // the mapping remains valid once the channel is closed
+            return new Segment(number, size, channel.map(FileChannel.MapMode.READ_WRITE, 0, size));
+        }
+    }
+
+    private Path segmentPath(int number) {
+        return directory.resolve(String.format("%s%010d%s", SEGMENT_PREFIX, number, SEGMENT_SUFFIX));
+    }
+
+    static long location(int segment, int position) {
+        return ((long) segment << 32) | position;
+    }
+
+    static int segmentNumber(long location) {
+        return (int) (location >>> 32);
+    }
+
+    static int position(long location) {
+        return (int) location;
+    }
+
+    /**
+     * receives the records of the journal
+     */
+    @FunctionalInterface
+    interface RecordVisitor {
+        void visit(long location, ByteBuffer body);
+    }
+
+    static final class Segment {
+        final int number;
+        final int size;
+        final MappedByteBuffer buffer;
+        /**
+         * the number of records in the segment
+         */
+        final AtomicInteger records = new AtomicInteger();
+        /**
+         * the number of records in the segment that are the latest of their machine
+         */
+        final AtomicInteger live = new AtomicInteger();
+        /**
+         * the position up to which the segment was forced, only accessed by the flusher
+         */
+        int flushed;
+
+        private Segment(int number, int size, MappedByteBuffer buffer) {
+            this.number = number;
+            this.size = size;
+            this.buffer = buffer;
+        }
+    }
+}
@@ -0,0 +1,193 @@
+/*
+ *  Copyright 2019 <---> Present Status Machina Contributors (https://github.com/entzik/status-machina/graphs/contributors)
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  This software is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR
+ *  CONDITIONS OF ANY KIND, either express or implied. See the License for the
+ *  specific language governing permissions and limitations under the License.
+ *
+ */
+
+package io.statusmachina.core.stdimpl;
+
+import io.statusmachina.core.api.Machine;
+import io.statusmachina.core.api.MachineDefinition;
+import io.statusmachina.core.spi.StateMachineService;
+
+import java.util.ArrayDeque;
+import java.util.Queue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * <p>Delivers events to state machines through a mailbox per machine, so that the events sent to one machine are
+ * applied one after the other, in the order they were submitted, while events sent to different machines are applied
+ * in parallel on the specified executor. Concurrent callers of the same machine therefore no longer race to update it
+ * and fail on optimistic locking.</p>
+ *
+ * <p>A mailbox exists only while it holds events. The first event it runs reads the machine through the
+ * {@link StateMachineService}, the following ones are applied to the machine the previous one returned. The machine is
+ * read again after an event fails.</p>
+ *
+ * <p>Events are only serialized within one dispatcher, events sent to the same machine from other processes are still
+ * subject to optimistic locking.</p>
+ *
+ * @param <S> the type of machine states
+ * @param <E> the type of events
+ */
+public class MachineMailboxDispatcher<S, E> {
+    /**
+     * the number of events a mailbox runs before it yields its thread to the other mailboxes
+     */
+    static final int THROUGHPUT = 64;
+
+    private final StateMachineService<S, E> stateMachineService;
+    private final Executor executor;
+    private final ConcurrentHashMap<String, Mailbox<S, E>> mailboxes = new ConcurrentHashMap<>();
+
+    /**
+     * @param stateMachineService the service machines are read from
+     * @param executor            the executor mailboxes run on. a mailbox holds a thread only while it runs events.
+     */
+    public MachineMailboxDispatcher(StateMachineService<S, E> stateMachineService, Executor executor) {
+        this.stateMachineService = stateMachineService;
+        this.executor = executor;
+    }
+
+    /**
+     * sends an event to a machine, once the events submitted to it before have been applied
+     *
+     * @param def   the machine definition
+     * @param id    the machine id
+     * @param event the event
+     * @return the machine after the transition, or the exception the transition failed with
+     */
+    public CompletableFuture<Machine<S, E>> sendEvent(MachineDefinition<S, E> def, String id, E event) {
+        return submit(def, id, machine -> machine.sendEvent(event));
+    }
+
+    /**
+     * sends an event and its parameter to a machine, once the events submitted to it before have been applied
+     *
+     * @see #sendEvent(MachineDefinition, String, Object)
+     */
+    public <P> CompletableFuture<Machine<S, E>> sendEvent(MachineDefinition<S, E> def, String id, E event, P param) {
+        return submit(def, id, machine -> machine.sendEvent(event, param));
+    }
+
+    /**
+     * runs an action against a machine, once the actions submitted to it before have run
+     *
+     * @param def    the machine definition
+     * @param id     the machine id
+     * @param action the action, given the latest machine, that returns the machine it produced
+     * @return the machine the action returned, or the exception it failed with
+     */
+    public CompletableFuture<Machine<S, E>> submit(MachineDefinition<S, E> def, String id, MachineAction<S, E> action) {
+        final Task<S, E> task = new Task<>(def, action);
+        final boolean[] scheduled = {false};
+        mailboxes.compute(id, (key, mailbox) -> {
+            if (mailbox == null) {
+                mailbox = new Mailbox<>();
+                scheduled[0] = true;
+            }
+            mailbox.tasks.add(task);
+            return mailbox;
+        });
+        if (scheduled[0])
+            schedule(id);
+        return task.result;
+    }
+
+    /**
+     * @return the number of machines that have events pending or running
+     */
+    public int getActiveMailboxes() {
+        return mailboxes.size();
+    }
+
+    private void schedule(String id) {
+        try {
+            executor.execute(() -> drain(id));
+        } catch (RejectedExecutionException e) {
+            final Mailbox<S, E> mailbox = mailboxes.remove(id);
+            if (mailbox != null)
+                for (Task<S, E> task : mailbox.tasks)
+                    task.result.completeExceptionally(e);
+        }
+    }
+
+    private void drain(String id) {
+        final Mailbox<S, E> mailbox = mailboxes.get(id);
+        for (int i = 0; i < THROUGHPUT; i++) {
+            final Task<S, E> task = next(id);
+            if (task == null)
+                return;
+            mailbox.run(stateMachineService, id, task);
+        }
+        // the mailbox still holds events, it goes back to the end of the executor queue
+        schedule(id);
+    }
+
+    /**
+     * takes the next event of a mailbox, and removes the mailbox once it is empty. the events submitted after that
+     * schedule a new mailbox.
+     */
+    private Task<S, E> next(String id) {
+        final AtomicReference<Task<S, E>> next = new AtomicReference<>();
+        mailboxes.computeIfPresent(id, (key, mailbox) -> {
+            next.set(mailbox.tasks.poll());
+            return next.get() == null ? null : mailbox;
+        });
+        return next.get();
+    }
+
+    /**
+     * an action run against the latest version of a machine
+     */
+    @FunctionalInterface
+    public interface MachineAction<S, E> {
+        Machine<S, E> apply(Machine<S, E> machine) throws Exception;
+    }
+
+    private static class Mailbox<S, E> {
+        /**
+         * only accessed within the mailbox map's compute methods
+         */
+        private final Queue<Task<S, E>> tasks = new ArrayDeque<>();
+        /**
+         * the machine the last event returned, only accessed by the thread running the mailbox
+         */
+        private Machine<S, E> machine;
+
+        private void run(StateMachineService<S, E> stateMachineService, String id, Task<S, E> task) {
+            try {
+                final Machine<S, E> current = machine != null && machine.getDefinition() == task.def ? machine : stateMachineService.read(task.def, id);
+                machine = task.action.apply(current);
+                task.result.complete(machine);
+            } catch (Throwable t) {
+                machine = null;
+                task.result.completeExceptionally(t);
+            }
+        }
+    }
+
+    private static class Task<S, E> {
+        private final MachineDefinition<S, E> def;
+        private final MachineAction<S, E> action;
+        private final CompletableFuture<Machine<S, E>> result = new CompletableFuture<>();
+
+        private Task(MachineDefinition<S, E> def, MachineAction<S, E> action) {
+            this.def = def;
+            this.action = action;
+        }
+    }
+}
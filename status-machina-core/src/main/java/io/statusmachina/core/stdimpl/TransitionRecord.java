@@ -19,7 +19,8 @@ import java.time.Instant;
 import java.util.Optional;
 
 /**
- * records details of a transition. <strong>NOT IN USE YET</strong>
+ * records details of a transition: the state it led to, the event that triggered it, if any, and the error it failed
+ * with, if any. a failed transition leaves the machine in the state it was in.
  *
  * @param <S> the state type
  * @param <E> the event type
@@ -58,6 +59,13 @@ public class TransitionRecord<S, E> {
         this.error = Optional.of(error);
     }
 
+    public TransitionRecord(S state, Optional<E> event, Optional<String> error, Instant when) {
+        this.state = state;
+        this.event = event;
+        this.when = when;
+        this.error = error;
+    }
+
     public S getState() {
         return state;
     }
@@ -0,0 +1,67 @@
+/*
+ *  Copyright 2019 <---> Present Status Machina Contributors (https://github.com/entzik/status-machina/graphs/contributors)
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  This software is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR
+ *  CONDITIONS OF ANY KIND, either express or implied. See the License for the
+ *  specific language governing permissions and limitations under the License.
+ *
+ */
+
+package io.statusmachina.core.stdimpl;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * the last transitions of a machine, in an array allocated once, so that the memory a machine holds does not grow with
+ * its age. adding a transition to a full buffer evicts the oldest one.
+ *
+ * @param <S> the state type
+ * @param <E> the event type
+ */
+final class TransitionRingBuffer<S, E> {
+    private final TransitionRecord<S, E>[] records;
+    /**
+     * the slot the next record goes to
+     */
+    private int next = 0;
+    private int size = 0;
+
+    TransitionRingBuffer(int capacity) {
+        if (capacity <= 0)
+            throw new IllegalArgumentException("the capacity must be positive, not " + capacity);
+        // generic arrays cannot be created, the buffer only ever stores records of its own types
+        @SuppressWarnings("unchecked")
+        final TransitionRecord<S, E>[] records = (TransitionRecord<S, E>[]) new TransitionRecord<?, ?>[capacity];
+        this.records = records;
+    }
+
+    /**
+     * @return the evicted record, or null if the buffer was not full
+     */
+    synchronized TransitionRecord<S, E> add(TransitionRecord<S, E> record) {
+        final TransitionRecord<S, E> evicted = records[next];
+        records[next] = record;
+        next = (next + 1) % records.length;
+        if (size < records.length)
+            size++;
+        return evicted;
+    }
+
+    /**
+     * @return the records held, oldest first
+     */
+    synchronized List<TransitionRecord<S, E>> toList() {
+        final List<TransitionRecord<S, E>> list = new ArrayList<>(size);
+        final int first = (next - size + records.length) % records.length;
+        for (int i = 0; i < size; i++)
+            list.add(records[(first + i) % records.length]);
+        return list;
+    }
+}
@@ -0,0 +1,217 @@
+/*
+ *  Copyright 2019 <---> Present Status Machina Contributors (https://github.com/entzik/status-machina/graphs/contributors)
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  This software is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR
+ *  CONDITIONS OF ANY KIND, either express or implied. See the License for the
+ *  specific language governing permissions and limitations under the License.
+ *
+ */
+
+package io.statusmachina.core;
+
+import com.google.common.collect.ImmutableMap;
+import io.statusmachina.core.api.ErrorType;
+import io.statusmachina.core.api.Machine;
+import io.statusmachina.core.api.MachineDefinition;
+import io.statusmachina.core.api.MachineSnapshot;
+import io.statusmachina.core.api.Transition;
+import io.statusmachina.core.api.TransitionActionBase;
+import io.statusmachina.core.api.TransitionException;
+import io.statusmachina.core.stdimpl.EnumBasedMachineDefinitionBuilderProvider;
+import io.statusmachina.core.stdimpl.InMemoryStateMachineService;
+import io.statusmachina.core.stdimpl.TransitionRecord;
+import org.junit.jupiter.api.Test;
+
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.ConcurrentModificationException;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Optional;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+import static io.statusmachina.core.api.Transition.event;
+import static io.statusmachina.core.api.Transition.stp;
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+public class InMemoryStateMachineServiceTest {
+    final Transition<States, Events> t1 = stp(States.S1, States.S2);
+    final Transition<States, Events> t2 = event(States.S2, States.S3, Events.E23, new TransitionActionBase<Object>() {
+        @Override
+        public ImmutableMap<String, String> apply(ImmutableMap<String, String> context, Object parameter) {
+            return ImmutableMap.<String, String>builder().putAll(context).put("k2", "v2").build();
+        }
+    });
+    final Transition<States, Events> t3 = event(States.S2, States.S4, Events.E24, new TransitionActionBase<Object>() {
+        @Override
+        public ImmutableMap<String, String> apply(ImmutableMap<String, String> context, Object parameter) {
+            throw new IllegalStateException("exception during action");
+        }
+    });
+
+    final MachineDefinition<States, Events> def = new EnumBasedMachineDefinitionBuilderProvider().getMachineDefinitionBuilder(States.class, Events.class)
+            .name("in-memory")
+            .states(States.values())
+            .initialState(States.S1)
+            .terminalStates(States.S3)
+            .events(Events.values())
+            .transitions(t1, t2, t3)
+            .errorHandler(statesEventsErrorData -> {})
+            .build();
+
+    final InMemoryStateMachineService<States, Events> service = new InMemoryStateMachineService<>();
+
+    @Test
+    void testMachinesAreStoredAndUpdated() throws Exception {
+        final Machine<States, Events> started = service.newMachine(def, Map.of("k1", "v1")).start();
+        assertThat(service.read(def, started.getId()).getCurrentState()).isEqualTo(States.S2).as("the STP transition was stored");
+
+        final Machine<States, Events> updated = service.read(def, started.getId()).sendEvent(Events.E23);
+        final Machine<States, Events> read = service.read(def, started.getId());
+        assertThat(read.getCurrentState()).isEqualTo(States.S3);
+        assertThat(read.getContext()).containsEntry("k1", "v1").containsEntry("k2", "v2");
+        assertThat(read.getVersion()).isEqualTo(updated.getVersion());
+
+        assertThatThrownBy(() -> service.read(def, "unknown")).isInstanceOf(NoSuchElementException.class);
+        assertThatThrownBy(() -> service.newMachine(def, started.getId(), Map.of())).isInstanceOf(IllegalStateException.class);
+
+        assertThat(service.remove(started.getId())).isTrue();
+        assertThat(service.remove(started.getId())).isFalse();
+        assertThat(service.size()).isEqualTo(0);
+    }
+
+    @Test
+    void testConcurrentUpdatesAreRejected() throws Exception {
+        final String id = service.newMachine(def, Map.of()).start().getId();
+        final Machine<States, Events> first = service.read(def, id);
+        final Machine<States, Events> second = service.read(def, id);
+
+        first.sendEvent(Events.E23);
+        assertThatThrownBy(() -> second.sendEvent(Events.E23))
+                .isInstanceOf(TransitionException.class)
+                .hasCauseInstanceOf(ConcurrentModificationException.class)
+                .as("the second machine was derived from a version that is no longer current");
+        assertThat(service.read(def, id).getCurrentState()).isEqualTo(States.S3).as("the rejected transition left the machine untouched");
+        assertThat(service.read(def, id).getErrorType()).isEqualTo(ErrorType.NONE);
+    }
+
+    @Test
+    void testMachinesAreFoundThroughIndexes() throws Exception {
+        final long before = Instant.now().toEpochMilli();
+        final String active = service.newMachine(def, Map.of()).start().getId();
+        final String terminated = service.newMachine(def, Map.of()).start().sendEvent(Events.E23).getId();
+        final String failed = service.newMachine(def, Map.of()).start().sendEvent(Events.E24).getId();
+        Thread.sleep(5);
+
+        assertThat(ids(service.findFailed())).containsExactly(failed);
+        assertThat(service.findFailed().get(0).getErrorType()).isEqualTo(ErrorType.TRANSITION);
+        assertThat(ids(service.findTerminated())).containsExactly(terminated);
+        assertThat(ids(service.findStale(0))).containsExactly(active).as("failed and terminated machines are not stale");
+        assertThat(ids(service.findStale(3600))).isEmpty();
+        try (Stream<MachineSnapshot> window = service.streamStaleModifiedBetween(before, Instant.now().toEpochMilli(), false)) {
+            assertThat(window.map(MachineSnapshot::getId).collect(Collectors.toList())).containsExactly(active);
+        }
+
+        service.read(def, active).sendEvent(Events.E23);
+        assertThat(ids(service.findStale(0))).isEmpty().as("indexes follow the updates");
+        assertThat(ids(service.findTerminated())).containsExactlyInAnyOrder(active, terminated);
+    }
+
+    @Test
+    void testHistoryIsBoundedAndEvictedTransitionsAreArchived() throws Exception {
+        final List<TransitionRecord<States, Events>> archived = new ArrayList<>();
+        final MachineDefinition<States, Events> loopDef = new EnumBasedMachineDefinitionBuilderProvider().getMachineDefinitionBuilder(States.class, Events.class)
+                .name("in-memory-loop")
+                .states(States.values())
+                .initialState(States.S1)
+                .terminalStates(States.S3)
+                .events(Events.values())
+                .transitions(stp(States.S1, States.S2), event(States.S2, States.S4, Events.E23), event(States.S4, States.S2, Events.E24))
+                .historyRetention(3)
+                .historyArchive((machine, record) -> archived.add(record))
+                .build();
+
+        Machine<States, Events> machine = service.newMachine(loopDef, Map.of()).start();
+        final Machine<States, Events> stale = machine;
+        for (int i = 0; i < 3; i++)
+            machine = machine.sendEvent(Events.E23).sendEvent(Events.E24);
+
+        final List<TransitionRecord<States, Events>> history = service.read(loopDef, machine.getId()).getHistory();
+        assertThat(history).hasSize(3).as("only the last transitions are kept");
+        assertThat(history.get(0).getEvent()).isEqualTo(Optional.of(Events.E24));
+        assertThat(history.get(2).getEvent()).isEqualTo(Optional.of(Events.E24));
+        assertThat(history.get(2).getState()).isEqualTo(States.S2);
+        assertThat(archived).hasSize(4).as("older transitions are archived");
+        assertThat(archived.get(0).getEvent().isPresent()).isFalse().as("the oldest transition is archived first");
+
+        assertThatThrownBy(() -> stale.sendEvent(Events.E23)).isInstanceOf(TransitionException.class);
+        assertThat(service.read(loopDef, machine.getId()).getHistory()).isEqualTo(history).as("a rejected transition is not recorded");
+        assertThat(archived).hasSize(4);
+
+        assertThat(service.read(def, service.newMachine(def, Map.of()).start().getId()).getHistory()).isEmpty().as("by default no history is kept");
+    }
+
+    @Test
+    void testHistoryHoldsTheTransitionsOfSuccessfulConcurrentUpdates() throws Exception {
+        final MachineDefinition<States, Events> loopDef = new EnumBasedMachineDefinitionBuilderProvider().getMachineDefinitionBuilder(States.class, Events.class)
+                .name("in-memory-concurrent")
+                .states(States.values())
+                .initialState(States.S1)
+                .terminalStates(States.S3)
+                .events(Events.values())
+                .transitions(stp(States.S1, States.S2), event(States.S2, States.S4, Events.E23), event(States.S4, States.S2, Events.E24))
+                .historyRetention(10_000)
+                .build();
+        final String id = service.newMachine(loopDef, Map.of()).start().getId();
+
+        final AtomicInteger successful = new AtomicInteger();
+        final ExecutorService executor = Executors.newFixedThreadPool(8);
+        try {
+            final List<Future<?>> workers = new ArrayList<>();
+            for (int i = 0; i < 8; i++)
+                workers.add(executor.submit(() -> {
+                    for (int j = 0; j < 200; j++) {
+                        final Machine<States, Events> machine = service.read(loopDef, id);
+                        try {
+                            machine.sendEvent(machine.getCurrentState() == States.S2 ? Events.E23 : Events.E24);
+                            successful.incrementAndGet();
+                        } catch (TransitionException e) {
+                            // another worker updated the machine first
+                        }
+                    }
+                    return null;
+                }));
+            for (Future<?> worker : workers)
+                worker.get();
+        } finally {
+            executor.shutdown();
+        }
+
+        assertThat(service.read(loopDef, id).getHistory()).as("one transition per successful update, besides the STP one").hasSize(successful.get() + 1);
+    }
+
+    private static List<String> ids(List<MachineSnapshot> snapshots) {
+        return snapshots.stream().map(MachineSnapshot::getId).collect(Collectors.toList());
+    }
+
+    enum States {
+        S1, S2, S3, S4
+    }
+
+    enum Events {
+        E23, E24
+    }
+}
@@ -0,0 +1,201 @@
+/*
+ *  Copyright 2019 <---> Present Status Machina Contributors (https://github.com/entzik/status-machina/graphs/contributors)
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  This software is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR
+ *  CONDITIONS OF ANY KIND, either express or implied. See the License for the
+ *  specific language governing permissions and limitations under the License.
+ *
+ */
+
+package io.statusmachina.core;
+
+import com.google.common.collect.ImmutableMap;
+import io.statusmachina.core.api.ErrorType;
+import io.statusmachina.core.api.Machine;
+import io.statusmachina.core.api.MachineDefinition;
+import io.statusmachina.core.api.MachineSnapshot;
+import io.statusmachina.core.api.Transition;
+import io.statusmachina.core.api.TransitionActionBase;
+import io.statusmachina.core.api.TransitionException;
+import io.statusmachina.core.stdimpl.EnumBasedMachineDefinitionBuilderProvider;
+import io.statusmachina.core.stdimpl.JournalStateMachineService;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.nio.ByteBuffer;
+import java.util.ConcurrentModificationException;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+import static io.statusmachina.core.api.Transition.event;
+import static io.statusmachina.core.api.Transition.stp;
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+public class JournalStateMachineServiceTest {
+    final Transition<States, Events> t1 = stp(States.S1, States.S2);
+    final Transition<States, Events> t2 = event(States.S2, States.S3, Events.E23, new TransitionActionBase<Object>() {
+        @Override
+        public ImmutableMap<String, String> apply(ImmutableMap<String, String> context, Object parameter) {
+            return ImmutableMap.<String, String>builder().putAll(context).put("k2", "v2").build();
+        }
+    });
+    final Transition<States, Events> t3 = event(States.S2, States.S4, Events.E24, new TransitionActionBase<Object>() {
+        @Override
+        public ImmutableMap<String, String> apply(ImmutableMap<String, String> context, Object parameter) {
+            throw new IllegalStateException("exception during action");
+        }
+    });
+    final Transition<States, Events> t4 = event(States.S2, States.S2, Events.E22);
+
+    final MachineDefinition<States, Events> def = new EnumBasedMachineDefinitionBuilderProvider().getMachineDefinitionBuilder(States.class, Events.class)
+            .name("journal")
+            .states(States.values())
+            .initialState(States.S1)
+            .terminalStates(States.S3)
+            .events(Events.values())
+            .transitions(t1, t2, t3, t4)
+            .errorHandler(statesEventsErrorData -> {})
+            .build();
+
+    @TempDir
+    Path directory;
+
+    @Test
+    void testMachinesSurviveRestart() throws Exception {
+        final String terminated;
+        final String failed;
+        final String removed;
+        final long version;
+        try (JournalStateMachineService<States, Events> service = new JournalStateMachineService<>(directory)) {
+            final Machine<States, Events> machine = service.newMachine(def, Map.of("k1", "v1")).start().sendEvent(Events.E23);
+            terminated = machine.getId();
+            version = machine.getVersion();
+            failed = service.newMachine(def, Map.of()).start().sendEvent(Events.E24).getId();
+            removed = service.newMachine(def, Map.of()).start().getId();
+            assertThat(service.remove(removed)).isTrue();
+            assertThat(service.remove(removed)).isFalse();
+            assertThatThrownBy(() -> service.newMachine(def, terminated, Map.of())).isInstanceOf(IllegalStateException.class);
+        }
+
+        try (JournalStateMachineService<States, Events> service = new JournalStateMachineService<>(directory)) {
+            final Machine<States, Events> read = service.read(def, terminated);
+            assertThat(read.getCurrentState()).isEqualTo(States.S3).as("the index is rebuilt by replaying the journal");
+            assertThat(read.getContext()).containsEntry("k1", "v1").containsEntry("k2", "v2");
+            assertThat(read.getVersion()).isEqualTo(version);
+            assertThat(service.read(def, failed).getErrorType()).isEqualTo(ErrorType.TRANSITION);
+            assertThat(service.read(def, failed).getError()).isPresent();
+            assertThatThrownBy(() -> service.read(def, removed)).isInstanceOf(NoSuchElementException.class).as("removals are replayed");
+            assertThat(service.size()).isEqualTo(2);
+            assertThat(ids(service.findTerminated())).containsExactly(terminated);
+            assertThat(ids(service.findFailed())).containsExactly(failed);
+        }
+    }
+
+    @Test
+    void testConcurrentUpdatesAreRejected() throws Exception {
+        try (JournalStateMachineService<States, Events> service = new JournalStateMachineService<>(directory)) {
+            final String id = service.newMachine(def, Map.of()).start().getId();
+            final Machine<States, Events> first = service.read(def, id);
+            final Machine<States, Events> second = service.read(def, id);
+
+            first.sendEvent(Events.E23);
+            assertThatThrownBy(() -> second.sendEvent(Events.E23))
+                    .isInstanceOf(TransitionException.class)
+                    .hasCauseInstanceOf(ConcurrentModificationException.class)
+                    .as("the second machine was derived from a version that is no longer current");
+            assertThat(service.read(def, id).getCurrentState()).isEqualTo(States.S3);
+            assertThat(ids(service.findStale(0))).isEmpty();
+        }
+    }
+
+    @Test
+    void testSegmentsAreCompacted() throws Exception {
+        final String id;
+        final long version;
+        try (JournalStateMachineService<States, Events> service = new JournalStateMachineService<>(directory, 4096, false)) {
+            final String idle = service.newMachine(def, Map.of("idle", "true")).getId();
+            Machine<States, Events> machine = service.newMachine(def, Map.of()).start();
+            for (int i = 0; i < 1000; i++)
+                machine = machine.sendEvent(Events.E22);
+            id = machine.getId();
+            version = machine.getVersion();
+            service.compact();
+            assertThat(segments()).isLessThanOrEqualTo(4).as("segments holding superseded records are deleted");
+            assertThat(service.read(def, idle).getContext()).containsEntry("idle", "true").as("live records are moved before their segment is deleted");
+        }
+
+        try (JournalStateMachineService<States, Events> service = new JournalStateMachineService<>(directory, 4096, false)) {
+            assertThat(service.read(def, id).getVersion()).isEqualTo(version);
+            assertThat(service.size()).isEqualTo(2);
+        }
+    }
+
+    @Test
+    void testIncompleteRecordsAreIgnored() throws Exception {
+        final String id;
+        try (JournalStateMachineService<States, Events> service = new JournalStateMachineService<>(directory)) {
+            id = service.newMachine(def, Map.of()).start().getId();
+        }
+        final Path segment;
+        try (Stream<Path> files = Files.list(directory)) {
+            segment = files.findFirst().orElseThrow();
+        }
+        final long end;
+        try (FileChannel channel = FileChannel.open(segment, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+            final ByteBuffer header = ByteBuffer.allocate(4);
+            long position = 0;
+            while (true) {
+                header.clear();
+                channel.read(header, position);
+                final int length = header.getInt(0);
+                if (length == 0)
+                    break;
+                position += 8 + length;
+            }
+            end = position;
+            // the header of a record whose body never made it to disk
+            channel.write(ByteBuffer.allocate(8).putInt(0, 100).putInt(4, 12345), end);
+        }
+
+        try (JournalStateMachineService<States, Events> service = new JournalStateMachineService<>(directory)) {
+            assertThat(service.read(def, id).getCurrentState()).isEqualTo(States.S2);
+            final String other = service.newMachine(def, Map.of()).start().getId();
+            assertThat(service.read(def, other).getCurrentState()).isEqualTo(States.S2).as("records are appended after the last complete one");
+        }
+        try (JournalStateMachineService<States, Events> service = new JournalStateMachineService<>(directory)) {
+            assertThat(service.size()).isEqualTo(2);
+        }
+    }
+
+    private long segments() throws Exception {
+        try (Stream<Path> files = Files.list(directory)) {
+            return files.count();
+        }
+    }
+
+    private static List<String> ids(List<MachineSnapshot> snapshots) {
+        return snapshots.stream().map(MachineSnapshot::getId).collect(Collectors.toList());
+    }
+
+    enum States {
+        S1, S2, S3, S4
+    }
+
+    enum Events {
+        E22, E23, E24
+    }
+}
@@ -16,9 +16,11 @@
 
 package io.statusmachina.core;
 
+import com.google.common.collect.ImmutableMap;
 import io.statusmachina.core.api.MachineDefinition;
 import io.statusmachina.core.api.Transition;
 import io.statusmachina.core.stdimpl.EnumBasedMachineDefinitionBuilderProvider;
+import io.statusmachina.core.stdimpl.EnumMachineDefImpl;
 import org.junit.jupiter.api.Test;
 
 import static io.statusmachina.core.api.Transition.*;
@@ -63,6 +65,43 @@ public class MachinaDefinitionTest {
         assertThat(def.getIdleStates()).containsOnly(States.S2, States.S3);
     }
 
+    @Test
+    void testFindEventTransition() {
+        assertThat(def.findEventTransition(States.S2, Events.E23)).contains(t2);
+        assertThat(def.findEventTransition(States.S3, Events.E34)).contains(t3);
+        assertThat(def.findEventTransition(States.S3, Events.E35)).contains(t4);
+        assertThat(def.findEventTransition(States.S2, Events.E34)).as("no transition for this event out of S2").isEmpty();
+        assertThat(def.findEventTransition(States.S1, Events.E23)).as("only an stp transition is configured out of S1").isEmpty();
+    }
+
+    @Test
+    void testFindStpTransitionEvaluatesGuardsInDeclarationOrder() {
+        final Transition<States, Events> guarded = stp(States.S1, States.S3, context -> "yes".equals(context.get("guard")));
+        final Transition<States, Events> fallback = stp(States.S1, States.S2);
+        final MachineDefinition<States, Events> guardedDef = new EnumBasedMachineDefinitionBuilderProvider().getMachineDefinitionBuilder(States.class, Events.class)
+                .name("guarded")
+                .states(States.values())
+                .initialState(States.S1)
+                .terminalStates(States.S4, States.S5)
+                .events(Events.values())
+                .transitions(guarded, fallback, t2, t3, t4)
+                .build();
+
+        assertThat(guardedDef.findStpTransition(States.S1, ImmutableMap.of("guard", "yes"))).contains(guarded);
+        assertThat(guardedDef.findStpTransition(States.S1, ImmutableMap.of())).contains(fallback);
+        assertThat(guardedDef.findStpTransition(States.S2, ImmutableMap.of())).as("no stp transition out of S2").isEmpty();
+    }
+
+    @Test
+    void testEnumDefinitionStateFlags() {
+        assertThat(def).as("enum based builders produce enum specialized definitions").isInstanceOf(EnumMachineDefImpl.class);
+        assertThat(def.isTerminalState(States.S4)).as("S4 is terminal").isTrue();
+        assertThat(def.isTerminalState(States.S2)).as("S2 is not terminal").isFalse();
+        assertThat(def.isIdleState(States.S3)).as("S3 is idle").isTrue();
+        assertThat(def.isIdleState(States.S1)).as("S1 is not idle").isFalse();
+        assertThat(def.findEventTransition(States.S1, Events.E35)).as("no transition out of S1 on E35").isEmpty();
+    }
+
     enum States {
         S1, S2, S3, S4, S5
     }
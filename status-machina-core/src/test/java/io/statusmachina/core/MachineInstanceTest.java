@@ -21,16 +21,26 @@ import io.statusmachina.core.api.*;
 import io.statusmachina.core.spi.MachinePersistenceCallback;
 import io.statusmachina.core.stdimpl.EnumBasedMachineDefinitionBuilderProvider;
 import io.statusmachina.core.stdimpl.MachineInstanceImpl;
+import io.statusmachina.core.stdimpl.TransitionRecord;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
 
+import java.time.Instant;
 import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
+import java.util.Optional;
 import java.util.concurrent.Callable;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Supplier;
 
 import static io.statusmachina.core.api.Transition.event;
+import static io.statusmachina.core.api.Transition.eventWithDynamicCardinality;
 import static io.statusmachina.core.api.Transition.stp;
 import static org.assertj.core.api.Assertions.*;
 
@@ -84,12 +94,19 @@ public class MachineInstanceTest {
             return machine;
         }
 
+        @Override
+        public Machine<States, Events> updateEventCounter(Machine<States, Events> previous, Machine<States, Events> machine, long epochMilliForUpdate) {
+            eventCounterUpdates++;
+            return machine;
+        }
+
         @Override
         public <R> R runInTransaction(Callable<R> callable) throws Exception {
             return callable.call();
         }
     };
 
+    int eventCounterUpdates = 0;
     List<ErrorData> errorDataList = new ArrayList<>();
     List<TransitionData> transitionsDataList = new ArrayList<>();
 
@@ -134,6 +151,7 @@ public class MachineInstanceTest {
         a4.reset();
         errorDataList.clear();
         transitionsDataList.clear();
+        eventCounterUpdates = 0;
     }
 
     @Test
@@ -199,6 +217,7 @@ public class MachineInstanceTest {
             updated = updated.sendEvent(Events.E23);
             assertThat(updated.getTransitionEventCounter()).isEqualTo(0);
             assertThat(updated.getCurrentState()).isEqualTo(States.S3).as("after creation machine has moved from state S2 to state S3 using event transition t2");
+            assertThat(eventCounterUpdates).isEqualTo(5).as("intermediate events only update the event counter");
 
             assertThat(a1.hasBeenThere()).isTrue();
             assertThat(a2.hasBeenThere()).isTrue();
@@ -207,6 +226,42 @@ public class MachineInstanceTest {
         }
     }
 
+    @Test
+    void testEventCardinalityIsResolvedOnce() throws Exception {
+        final AtomicLong lookups = new AtomicLong();
+        final AtomicLong cardinality = new AtomicLong(3);
+        final Supplier<Long> supplier = () -> {
+            lookups.incrementAndGet();
+            return cardinality.get();
+        };
+        final Transition<States, Events> fixed = event(States.S2, States.S3, Events.E23, a2, supplier);
+        final Transition<States, Events> dynamic = eventWithDynamicCardinality(States.S3, States.S4, Events.E34, a3, supplier);
+        assertThat(fixed.isDynamicCardinality()).isFalse();
+        assertThat(dynamic.isDynamicCardinality()).isTrue();
+        assertThat(lookups.get()).isEqualTo(1).as("the fixed cardinality is looked up when the transition is created");
+
+        final MachineDefinition<States, Events> cardinalityDef = new EnumBasedMachineDefinitionBuilderProvider().getMachineDefinitionBuilder(MachinaDefinitionTest.States.class, MachinaDefinitionTest.Events.class)
+                .name("toto")
+                .states(States.values())
+                .initialState(States.S1)
+                .terminalStates(States.S4, States.S5)
+                .events(Events.values())
+                .transitions(t1, t11, fixed, dynamic)
+                .build();
+        Machine<States, Events> updated = new MachineInstanceImpl<>(cardinalityDef, machinePersistenceCallback, new HashMap<>()).start();
+
+        cardinality.set(2);
+        for (int i = 0; i < 3; i++)
+            updated = updated.sendEvent(Events.E23);
+        assertThat(updated.getCurrentState()).isEqualTo(States.S3).as("the fixed cardinality ignores later changes");
+        assertThat(lookups.get()).isEqualTo(1);
+
+        for (int i = 0; i < 2; i++)
+            updated = updated.sendEvent(Events.E34);
+        assertThat(updated.getCurrentState()).isEqualTo(States.S4).as("the dynamic cardinality follows the supplier");
+        assertThat(lookups.get()).isEqualTo(3);
+    }
+
     @Test
     void testEventTransition1CardinalityError() {
         try {
@@ -250,6 +305,54 @@ public class MachineInstanceTest {
         }
     }
 
+    @Test
+    void testEventTransitionAsync() {
+        try {
+            final Machine<States, Events> instance = new MachineInstanceImpl<>(def, machinePersistenceCallback, new HashMap<>()).start();
+            final Machine<States, Events> updated2 = instance.sendEventAsync(Events.E23)
+                    .thenCompose(updated1 -> updated1.sendEventAsync(Events.E34, "xyz"))
+                    .get();
+            assertThat(updated2.getCurrentState()).isEqualTo(States.S4).as("asynchronous events move the machine from state S2 to state S4");
+            assertThat(a2.hasBeenThere()).isTrue();
+            assertThat(a3Post.hasBeenThere()).isTrue();
+
+            assertThatThrownBy(() -> updated2.sendEventAsync(Events.E23).join())
+                    .isInstanceOf(CompletionException.class)
+                    .hasCauseInstanceOf(IllegalStateException.class);
+        } catch (Exception e) {
+            fail("machine was not instantiated", e);
+        }
+    }
+
+    @Test
+    void testEventTransitionAsyncOnConfiguredExecutor() {
+        final ExecutorService executor = Executors.newSingleThreadExecutor(runnable -> new Thread(runnable, "async-test"));
+        final List<String> threads = new ArrayList<>();
+        try {
+            final MachineDefinition<States, Events> asyncDef = new EnumBasedMachineDefinitionBuilderProvider().getMachineDefinitionBuilder(MachinaDefinitionTest.States.class, MachinaDefinitionTest.Events.class)
+                    .name("toto")
+                    .states(States.values())
+                    .initialState(States.S1)
+                    .terminalStates(States.S4, States.S5)
+                    .events(Events.values())
+                    .transitions(t1, t11, t2, t3, t4, t5, t6)
+                    .transitionHandler(transitionData -> threads.add(Thread.currentThread().getName()))
+                    .asyncExecutor(executor)
+                    .build();
+            assertThat(asyncDef.getAsyncExecutor()).isSameAs(executor);
+
+            final Machine<States, Events> instance = new MachineInstanceImpl<>(asyncDef, machinePersistenceCallback, new HashMap<>()).start();
+            threads.clear();
+            final Machine<States, Events> updated = instance.sendEventAsync(Events.E23).get();
+            assertThat(updated.getCurrentState()).isEqualTo(States.S3);
+            assertThat(threads).containsExactly("async-test").as("the transition ran on the configured executor");
+        } catch (Exception e) {
+            fail("machine was not instantiated", e);
+        } finally {
+            executor.shutdown();
+        }
+    }
+
     @Test
     void testEventTransition3() {
         try {
@@ -375,6 +478,153 @@ public class MachineInstanceTest {
         }
     }
 
+    @Test
+    void testUpdateReceivesPreviousMachine() {
+        try {
+            final List<Machine<States, Events>> previousMachines = new ArrayList<>();
+            final MachinePersistenceCallback<States, Events> deltaAwareCallback = new MachinePersistenceCallback<>() {
+                @Override
+                public Machine<States, Events> saveNew(Machine<States, Events> machine) {
+                    return null;
+                }
+
+                @Override
+                public Machine<States, Events> update(Machine<States, Events> machine, long epochMilliForUpdate) {
+                    fail("the delta aware update should have been called");
+                    return machine;
+                }
+
+                @Override
+                public Machine<States, Events> update(Machine<States, Events> previous, Machine<States, Events> machine, long epochMilliForUpdate) {
+                    previousMachines.add(previous);
+                    return machine;
+                }
+
+                @Override
+                public <R> R runInTransaction(Callable<R> callable) throws Exception {
+                    return callable.call();
+                }
+            };
+            final Machine<States, Events> instance = new MachineInstanceImpl<States, Events>(def, deltaAwareCallback, new HashMap<>()).start();
+            final Machine<States, Events> updated = instance.sendEvent(Events.E23);
+            updated.sendEvent(Events.E34);
+
+            assertThat(previousMachines).hasSize(4);
+            assertThat(previousMachines.get(2)).isSameAs(instance);
+            assertThat(previousMachines.get(3)).isSameAs(updated);
+            assertThat(previousMachines.get(3).getCurrentState()).isEqualTo(States.S3);
+        } catch (Exception e) {
+            fail("machine was not instantiated", e);
+        }
+    }
+
+    @Test
+    void testTransitionsAreRecordedAndHistoryIsReadOnDemand() {
+        try {
+            final List<TransitionRecord<States, Events>> recorded = new ArrayList<>();
+            final int[] historyReads = {0};
+            final MachinePersistenceCallback<States, Events> recordingCallback = new MachinePersistenceCallback<>() {
+                @Override
+                public Machine<States, Events> saveNew(Machine<States, Events> machine) {
+                    return null;
+                }
+
+                @Override
+                public Machine<States, Events> update(Machine<States, Events> machine, long epochMilliForUpdate) {
+                    return machine;
+                }
+
+                @Override
+                public void recordTransition(Machine<States, Events> machine, TransitionRecord<States, Events> record) {
+                    recorded.add(record);
+                }
+
+                @Override
+                public List<TransitionRecord<States, Events>> readHistory(Machine<States, Events> machine) {
+                    historyReads[0]++;
+                    return List.copyOf(recorded);
+                }
+
+                @Override
+                public <R> R runInTransaction(Callable<R> callable) throws Exception {
+                    return callable.call();
+                }
+            };
+            final Machine<States, Events> updated = new MachineInstanceImpl<States, Events>(def, recordingCallback, new HashMap<>()).start().sendEvent(Events.E23);
+            final Machine<States, Events> failed = updated.sendEvent(Events.E36);
+
+            assertThat(recorded).hasSize(4);
+            assertThat(recorded.get(0).getState()).isEqualTo(States.S1a);
+            assertThat(recorded.get(0).getEvent().isPresent()).isFalse().as("STP transitions have no event");
+            assertThat(recorded.get(2).getState()).isEqualTo(States.S3);
+            assertThat(recorded.get(2).getEvent()).isEqualTo(Optional.of(Events.E23));
+            assertThat(recorded.get(3).getState()).isEqualTo(States.S3).as("a failed transition leaves the machine in its state");
+            assertThat(recorded.get(3).getError()).isEqualTo(Optional.of("exception during action"));
+            assertThat(historyReads[0]).isZero().as("transitions do not read the history");
+
+            assertThat(updated.getHistory()).hasSize(4);
+            assertThat(failed.getHistory()).hasSize(4);
+            updated.getHistory();
+            assertThat(historyReads[0]).isEqualTo(2).as("each instance reads its history once");
+        } catch (Exception e) {
+            fail("machine was not instantiated", e);
+        }
+    }
+
+    @Test
+    void testHistoryIsReadPageByPage() {
+        final List<TransitionRecord<States, Events>> recorded = new ArrayList<>();
+        for (int i = 0; i < 250; i++)
+            recorded.add(new TransitionRecord<>(States.S2, Optional.of(Events.E23), Optional.empty(), Instant.ofEpochMilli(i)));
+        final List<Integer> pageReads = new ArrayList<>();
+        final MachinePersistenceCallback<States, Events> pagingCallback = new MachinePersistenceCallback<>() {
+            @Override
+            public Machine<States, Events> saveNew(Machine<States, Events> machine) {
+                return null;
+            }
+
+            @Override
+            public Machine<States, Events> update(Machine<States, Events> machine, long epochMilliForUpdate) {
+                return machine;
+            }
+
+            @Override
+            public List<TransitionRecord<States, Events>> readHistory(Machine<States, Events> machine) {
+                throw new IllegalStateException("the whole history should not be read");
+            }
+
+            @Override
+            public List<TransitionRecord<States, Events>> readHistory(Machine<States, Events> machine, int offset, int limit) {
+                pageReads.add(offset);
+                return recorded.subList(Math.min(offset, recorded.size()), Math.min(offset + limit, recorded.size()));
+            }
+
+            @Override
+            public <R> R runInTransaction(Callable<R> callable) throws Exception {
+                return callable.call();
+            }
+        };
+        final Machine<States, Events> machine = new MachineInstanceImpl<>("id", def, States.S2, Map.of(), List.of(), ErrorType.NONE, Optional.empty(), pagingCallback);
+
+        final List<TransitionRecord<States, Events>> page = machine.getHistory(10, 5);
+        assertThat(page).hasSize(5);
+        assertThat(page.get(0).getWhen()).isEqualTo(Instant.ofEpochMilli(10));
+        assertThat(machine.getHistory(240, 50)).hasSize(10).as("the last page is cut at the end of the history");
+        assertThat(pageReads).containsExactly(10, 240);
+
+        pageReads.clear();
+        final Iterator<TransitionRecord<States, Events>> stream = machine.streamHistory().iterator();
+        assertThat(stream.next().getWhen()).isEqualTo(Instant.ofEpochMilli(0));
+        assertThat(pageReads).containsExactly(0).as("pages are read as the stream is consumed");
+        int count = 1;
+        while (stream.hasNext()) {
+            stream.next();
+            count++;
+        }
+        assertThat(count).isEqualTo(250);
+        assertThat(pageReads).containsExactly(0, 100, 200);
+    }
+
     enum States {
         S1, S1a, S2, S3, S4, S5, S6, S7
     }
@@ -0,0 +1,221 @@
+/*
+ *  Copyright 2019 <---> Present Status Machina Contributors (https://github.com/entzik/status-machina/graphs/contributors)
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  This software is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR
+ *  CONDITIONS OF ANY KIND, either express or implied. See the License for the
+ *  specific language governing permissions and limitations under the License.
+ *
+ */
+
+package io.statusmachina.core;
+
+import io.statusmachina.core.api.ErrorType;
+import io.statusmachina.core.api.Machine;
+import io.statusmachina.core.api.MachineDefinition;
+import io.statusmachina.core.api.MachineSnapshot;
+import io.statusmachina.core.api.Transition;
+import io.statusmachina.core.spi.MachinePersistenceCallback;
+import io.statusmachina.core.spi.StateMachineService;
+import io.statusmachina.core.stdimpl.EnumBasedMachineDefinitionBuilderProvider;
+import io.statusmachina.core.stdimpl.MachineInstanceImpl;
+import io.statusmachina.core.stdimpl.MachineMailboxDispatcher;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Queue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static io.statusmachina.core.api.Transition.event;
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class MachineMailboxDispatcherTest {
+    final Transition<States, Events> t1 = event(States.S1, States.S2, Events.E12);
+    final Transition<States, Events> t2 = event(States.S2, States.S3, Events.E23);
+
+    final MachinePersistenceCallback<States, Events> machinePersistenceCallback = new MachinePersistenceCallback<>() {
+        @Override
+        public Machine<States, Events> saveNew(Machine<States, Events> machine) {
+            return machine;
+        }
+
+        @Override
+        public Machine<States, Events> update(Machine<States, Events> machine, long epochMilliForUpdate) {
+            return machine;
+        }
+
+        @Override
+        public <R> R runInTransaction(Callable<R> callable) throws Exception {
+            return callable.call();
+        }
+    };
+
+    final MachineDefinition<States, Events> def = new EnumBasedMachineDefinitionBuilderProvider().getMachineDefinitionBuilder(States.class, Events.class)
+            .name("mailbox")
+            .states(States.values())
+            .initialState(States.S1)
+            .terminalStates(States.S3)
+            .events(Events.values())
+            .transitions(t1, t2)
+            .errorHandler(statesEventsErrorData -> {})
+            .build();
+
+    final AtomicInteger reads = new AtomicInteger();
+
+    /**
+     * reads every machine in its initial state
+     */
+    final StateMachineService<States, Events> service = new StateMachineService<>() {
+        @Override
+        public Machine<States, Events> newMachine(MachineDefinition<States, Events> type, Map<String, String> context) {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public Machine<States, Events> newMachine(MachineDefinition<States, Events> type, String id, Map<String, String> context) {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public Machine<States, Events> read(MachineDefinition<States, Events> def, String id) {
+            reads.incrementAndGet();
+            return new MachineInstanceImpl<>(id, def, States.S1, Map.of(), Collections.emptyList(), ErrorType.NONE, Optional.empty(), machinePersistenceCallback);
+        }
+
+        @Override
+        public List<MachineSnapshot> findStale(long seconds) {
+            return List.of();
+        }
+
+        @Override
+        public List<MachineSnapshot> findFailed() {
+            return List.of();
+        }
+
+        @Override
+        public List<MachineSnapshot> findTerminated() {
+            return List.of();
+        }
+    };
+
+    /**
+     * runs the submitted tasks when told to
+     */
+    final Queue<Runnable> pending = new LinkedList<>();
+
+    @Test
+    void testEventsAreAppliedInOrderToTheLatestMachine() throws Exception {
+        final MachineMailboxDispatcher<States, Events> dispatcher = new MachineMailboxDispatcher<>(service, pending::add);
+
+        final CompletableFuture<Machine<States, Events>> first = dispatcher.sendEvent(def, "m1", Events.E12);
+        final CompletableFuture<Machine<States, Events>> second = dispatcher.sendEvent(def, "m1", Events.E23);
+        assertThat(pending).hasSize(1).as("a mailbox is scheduled once");
+        assertThat(dispatcher.getActiveMailboxes()).isEqualTo(1);
+
+        runPending();
+        assertThat(first.get().getCurrentState()).isEqualTo(States.S2);
+        assertThat(second.get().getCurrentState()).isEqualTo(States.S3).as("the second event is applied to the machine the first one returned");
+        assertThat(reads.get()).isEqualTo(1).as("the machine is read once per mailbox");
+        assertThat(dispatcher.getActiveMailboxes()).isZero().as("an empty mailbox is removed");
+    }
+
+    @Test
+    void testMachineIsReadAgainAfterAFailure() throws Exception {
+        final MachineMailboxDispatcher<States, Events> dispatcher = new MachineMailboxDispatcher<>(service, pending::add);
+
+        final CompletableFuture<Machine<States, Events>> failed = dispatcher.submit(def, "m1", machine -> {
+            throw new IllegalStateException("failed");
+        });
+        final CompletableFuture<Machine<States, Events>> next = dispatcher.sendEvent(def, "m1", Events.E12);
+        runPending();
+
+        assertThat(failed.isCompletedExceptionally()).isTrue().as("the failure is reported to its caller");
+        assertThat(next.get().getCurrentState()).isEqualTo(States.S2).as("the next event is applied");
+        assertThat(reads.get()).isEqualTo(2).as("the machine is read again after a failure");
+    }
+
+    @Test
+    void testBusyMailboxYieldsItsThread() throws Exception {
+        final MachineMailboxDispatcher<States, Events> dispatcher = new MachineMailboxDispatcher<>(service, pending::add);
+        final List<Integer> applied = new ArrayList<>();
+        final List<CompletableFuture<Machine<States, Events>>> results = new ArrayList<>();
+        for (int i = 0; i < 100; i++) {
+            final int index = i;
+            results.add(dispatcher.submit(def, "m1", machine -> {
+                applied.add(index);
+                return machine;
+            }));
+        }
+
+        pending.poll().run();
+        assertThat(applied).hasSize(64).as("a mailbox runs a limited number of events at a time");
+        assertThat(pending).hasSize(1).as("a busy mailbox is scheduled again");
+
+        runPending();
+        for (int i = 0; i < 100; i++)
+            assertThat(applied.get(i)).isEqualTo(i).as("events are applied in submission order");
+        assertThat(results.get(99).isDone()).isTrue();
+    }
+
+    @Test
+    void testMachinesRunInParallel() throws Exception {
+        final ExecutorService executor = Executors.newFixedThreadPool(2);
+        try {
+            final MachineMailboxDispatcher<States, Events> dispatcher = new MachineMailboxDispatcher<>(service, executor);
+            final CountDownLatch otherMachineRan = new CountDownLatch(1);
+            final AtomicInteger inFlight = new AtomicInteger();
+            final AtomicInteger maxInFlight = new AtomicInteger();
+
+            final CompletableFuture<Machine<States, Events>> waiting = dispatcher.submit(def, "m1", machine -> {
+                assertThat(otherMachineRan.await(10, TimeUnit.SECONDS)).isTrue().as("another machine runs while this one is busy");
+                return machine;
+            });
+            final List<CompletableFuture<Machine<States, Events>>> results = new ArrayList<>();
+            for (int i = 0; i < 50; i++)
+                results.add(dispatcher.submit(def, "m2", machine -> {
+                    maxInFlight.accumulateAndGet(inFlight.incrementAndGet(), Math::max);
+                    Thread.sleep(1);
+                    inFlight.decrementAndGet();
+                    otherMachineRan.countDown();
+                    return machine;
+                }));
+
+            waiting.get(10, TimeUnit.SECONDS);
+            for (CompletableFuture<Machine<States, Events>> result : results)
+                result.get(10, TimeUnit.SECONDS);
+            assertThat(maxInFlight.get()).isEqualTo(1).as("events sent to one machine never run concurrently");
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    private void runPending() {
+        Runnable next;
+        while ((next = pending.poll()) != null)
+            next.run();
+    }
+
+    enum States {
+        S1, S2, S3
+    }
+
+    enum Events {
+        E12, E23
+    }
+}
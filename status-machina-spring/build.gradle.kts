@@ -39,6 +39,8 @@ dependencies {
     compileOnly("org.springframework.boot:spring-boot-starter")
     compileOnly("org.springframework.boot:spring-boot-starter-data-jpa")
     compileOnly("jakarta.validation:jakarta.validation-api")
+    // stalled machine scans are timed and counted with Micrometer, registered only when a MeterRegistry bean exists
+    implementation("io.micrometer:micrometer-core")
 
     // Use JUnit test framework
     testImplementation("org.springframework.boot:spring-boot-starter-test")
@@ -2,6 +2,8 @@ package io.statusmachina.spring.jpa;
 
 import io.statusmachina.core.api.Machine;
 import io.statusmachina.core.spi.MachinePersistenceCallback;
+import io.statusmachina.core.stdimpl.MachineInstanceImpl;
+import io.statusmachina.core.stdimpl.TransitionRecord;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.beans.factory.annotation.Qualifier;
 import org.springframework.context.annotation.Lazy;
@@ -11,6 +13,7 @@ import org.springframework.core.retry.RetryTemplate;
 import org.springframework.stereotype.Service;
 import org.springframework.transaction.support.TransactionTemplate;
 
+import java.util.List;
 import java.util.concurrent.Callable;
 
 import static io.statusmachina.spring.jpa.configuration.StateMachineRetryTemplateConfiguration.RETRY_TEMPLATE_TRANSACTION_RETRY;
@@ -40,10 +43,32 @@ class FineGrainedMachinePersistenceCallback<S, E> implements MachinePersistenceC
 
     @Override
     public Machine<S, E> update(Machine<S, E> machine, long epochMilliForUpdate) {
-        return runWithRetry(() -> {
-            stateMachineService.update(machine, epochMilliForUpdate);
-            return machine;
-        });
+        return runWithRetry(() -> withVersion(machine, stateMachineService.update(machine, epochMilliForUpdate)));
+    }
+
+    @Override
+    public Machine<S, E> update(Machine<S, E> previous, Machine<S, E> machine, long epochMilliForUpdate) {
+        return runWithRetry(() -> withVersion(machine, stateMachineService.update(previous, machine, epochMilliForUpdate)));
+    }
+
+    @Override
+    public Machine<S, E> updateEventCounter(Machine<S, E> previous, Machine<S, E> machine, long epochMilliForUpdate) {
+        return runWithRetry(() -> withVersion(machine, stateMachineService.updateEventCounter(previous, machine, epochMilliForUpdate)));
+    }
+
+    @Override
+    public void recordTransition(Machine<S, E> machine, TransitionRecord<S, E> record) {
+        stateMachineService.recordTransition(machine, record);
+    }
+
+    @Override
+    public List<TransitionRecord<S, E>> readHistory(Machine<S, E> machine) {
+        return stateMachineService.readHistory(machine);
+    }
+
+    @Override
+    public List<TransitionRecord<S, E>> readHistory(Machine<S, E> machine, int offset, int limit) {
+        return stateMachineService.readHistory(machine, offset, limit);
     }
 
     @Override
@@ -57,13 +82,23 @@ class FineGrainedMachinePersistenceCallback<S, E> implements MachinePersistenceC
         }));
     }
 
+    /**
+     * the returned machine carries the version it was persisted with, so that the next update can be checked against
+     * it. it is cached as such once the transaction commits.
+     */
+    private Machine<S, E> withVersion(Machine<S, E> machine, long version) {
+        final Machine<S, E> versioned = machine instanceof MachineInstanceImpl ? ((MachineInstanceImpl<S, E>) machine).withVersion(version) : machine;
+        stateMachineService.cacheAfterCommit(versioned);
+        return versioned;
+    }
+
     /**
      * Executes the given operation through the retry template. When the retry policy is exhausted
      * Spring Framework wraps the last failure in a {@link RetryException}; we rethrow that original
      * cause so callers observe the same exception they would have seen without retries, matching the
      * behaviour of the previous spring-retry based implementation.
      */
-    private <R> R runWithRetry(Retryable<R> retryable) {
+    <R> R runWithRetry(Retryable<R> retryable) {
         try {
             return transactionRetryTemplate.execute(retryable);
         } catch (RetryException e) {
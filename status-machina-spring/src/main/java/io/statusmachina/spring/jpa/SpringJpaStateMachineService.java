@@ -16,35 +16,83 @@
 
 package io.statusmachina.spring.jpa;
 
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.collect.AbstractIterator;
+import com.google.common.collect.Iterables;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Streams;
 import io.statusmachina.core.api.ErrorType;
+import io.statusmachina.core.api.EventOutcome;
 import io.statusmachina.core.api.Machine;
 import io.statusmachina.core.api.MachineBuilderProvider;
 import io.statusmachina.core.api.MachineDefinition;
 import io.statusmachina.core.api.MachineSnapshot;
+import io.statusmachina.core.api.MachineSnapshotPage;
+import io.statusmachina.core.api.SnapshotPageRequest;
+import io.statusmachina.core.spi.MachinePersistenceCallback;
 import io.statusmachina.core.spi.StateMachineService;
 import io.statusmachina.core.stdimpl.MachineInstanceImpl;
+import io.statusmachina.core.stdimpl.MachineMailboxDispatcher.MachineAction;
+import io.statusmachina.core.stdimpl.TransitionRecord;
+import io.statusmachina.spring.jpa.autoconfig.ContextStorage;
+import io.statusmachina.spring.jpa.autoconfig.MachineCache;
+import io.statusmachina.spring.jpa.autoconfig.StatusMachinaProperties;
+import io.statusmachina.spring.jpa.autoconfig.UpdateMode;
+import io.statusmachina.spring.jpa.model.ContextCodec;
 import io.statusmachina.spring.jpa.model.ExternalState;
+import io.statusmachina.spring.jpa.model.StoredTransition;
+import io.statusmachina.spring.jpa.repo.ContextDelta;
+import io.statusmachina.spring.jpa.repo.ExternalStateJdbcRepository;
 import io.statusmachina.spring.jpa.repo.ExternalStateRepository;
+import io.statusmachina.spring.jpa.repo.TransitionJdbcRepository;
+import jakarta.persistence.EntityManager;
+import jakarta.persistence.PersistenceContext;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.InitializingBean;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.dao.OptimisticLockingFailureException;
 import org.springframework.stereotype.Service;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+import org.springframework.transaction.support.TransactionTemplate;
 
 import java.time.Duration;
 import java.time.Instant;
 import java.util.ArrayList;
+import java.util.Collection;
 import java.util.Collections;
 import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Map;
+import java.util.NoSuchElementException;
 import java.util.Optional;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.function.BiFunction;
 import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+import static io.statusmachina.spring.jpa.configuration.TransactionTemplateCnfiguration.STATUS_MACHINA_JOINING_TRANSACTION_TEMPLATE;
+import static io.statusmachina.spring.jpa.configuration.TransactionTemplateCnfiguration.STATUS_MACHINA_TRANSACTION_TEMPLATE;
 
 @Service
-public class SpringJpaStateMachineService<S, E> implements StateMachineService<S, E> {
+public class SpringJpaStateMachineService<S, E> implements StateMachineService<S, E>, InitializingBean {
     public static final String ERROR_STATE = "__ERROR_STATE__";
 
     private static final Logger LOGGER = LoggerFactory.getLogger(SpringJpaStateMachineService.class);
+    /**
+     * the number of machines whose context is moved to the context_data column in one transaction
+     */
+    static final int CONTEXT_MIGRATION_CHUNK_SIZE = 1000;
 
     @Autowired
     ExternalStateRepository externalStateRepository;
@@ -55,13 +103,75 @@ public class SpringJpaStateMachineService<S, E> implements StateMachineService<S
     @Autowired
     FineGrainedMachinePersistenceCallback<S, E> machinePersistenceCallback;
 
+    @Autowired(required = false)
+    WriteBehindMachinePersistenceCallback<S, E> writeBehindPersistenceCallback;
+
+    @Autowired
+    ExternalStateJdbcRepository externalStateJdbcRepository;
+
+    @Autowired
+    TransitionJdbcRepository transitionJdbcRepository;
+
+    @Autowired
+    @Qualifier(STATUS_MACHINA_JOINING_TRANSACTION_TEMPLATE)
+    TransactionTemplate joiningTransactionTemplate;
+
+    @Autowired
+    @Qualifier(STATUS_MACHINA_TRANSACTION_TEMPLATE)
+    TransactionTemplate transactionTemplate;
+
+    @Autowired
+    StatusMachinaProperties properties;
+
+    @PersistenceContext
+    EntityManager entityManager;
+
+    /**
+     * recently used machines, by id, if {@link StatusMachinaProperties#getMachineCache()} is enabled. machines are
+     * immutable, so cached instances can be handed out to several callers.
+     */
+    private Cache<String, Machine<S, E>> machineCache;
+
     public SpringJpaStateMachineService() {
     }
 
+    @Override
+    public void afterPropertiesSet() {
+        final MachineCache cacheConfig = properties.getMachineCache();
+        if (cacheConfig.isEnabled())
+            machineCache = CacheBuilder.newBuilder()
+                    .maximumSize(cacheConfig.getMaximumSize())
+                    .expireAfterAccess(Duration.ofMillis(cacheConfig.getExpireAfterAccessMillis()))
+                    .build();
+        if (columnStorage())
+            migrateContextsToColumn();
+    }
+
+    /**
+     * moves the contexts still stored in the sm_context_entries table to the context_data column, by chunks of
+     * {@link #CONTEXT_MIGRATION_CHUNK_SIZE} machines, each in its own transaction, so that no statement locks or logs
+     * the whole table. nothing is scanned once the table is empty.
+     */
+    private void migrateContextsToColumn() {
+        if (!joiningTransactionTemplate.execute(status -> externalStateJdbcRepository.hasTableStoredContexts()))
+            return;
+        int migrated = 0;
+        String afterId = "";
+        List<String> chunk;
+        do {
+            final String after = afterId;
+            chunk = transactionTemplate.execute(status -> externalStateJdbcRepository.migrateContextsToColumn(after, CONTEXT_MIGRATION_CHUNK_SIZE));
+            migrated += chunk.size();
+            if (!chunk.isEmpty())
+                afterId = chunk.stream().max(String::compareTo).get();
+        } while (chunk.size() == CONTEXT_MIGRATION_CHUNK_SIZE);
+        LOGGER.info("moved the context of {} state machines to the context_data column", migrated);
+    }
+
     @Override
     public Machine<S, E> newMachine(MachineDefinition<S, E> def, Map<String, String> context) throws Exception {
         LOGGER.debug("building a new state machine of type {}", def.getName());
-        final Machine machine = machineInstanceBuilderProvider.getMachineBuilder().ofType(def).withContext(context).withPersistence(machinePersistenceCallback).build();
+        final Machine machine = machineInstanceBuilderProvider.getMachineBuilder().ofType(def).withContext(context).withPersistence(persistenceCallback()).build();
         LOGGER.debug("built a new state machine of type {}, with ID {}", def.getName(), machine.getId());
         return machine;
     }
@@ -69,23 +179,93 @@ public class SpringJpaStateMachineService<S, E> implements StateMachineService<S
     @Override
     public Machine<S, E> newMachine(MachineDefinition<S, E> def, String id, Map<String, String> context) throws Exception {
         LOGGER.debug("building a new state machine of type {}, with predefined ID {}", def.getName(), id);
-        final Machine machine = machineInstanceBuilderProvider.getMachineBuilder().ofType(def).withContext(context).withPersistence(machinePersistenceCallback).withId(id).build();
+        final Machine machine = machineInstanceBuilderProvider.getMachineBuilder().ofType(def).withContext(context).withPersistence(persistenceCallback()).withId(id).build();
         LOGGER.debug("built a new state machine of type {}, with ID {}", def.getName(), machine.getId());
         return machine;
     }
 
+    /**
+     * creates many machines without checking whether their generated ids exist, and inserts them with batch
+     * statements, by chunks of {@link StatusMachinaProperties#getBulkChunkSize()} machines, each chunk in its own
+     * transaction. if a chunk fails, the chunks before it remain created. machines are then started, up to
+     * {@link StatusMachinaProperties#getBulkStartParallelism()} at a time, on the executor of the machine definition.
+     */
+    @Override
+    public List<Machine<S, E>> newMachines(MachineDefinition<S, E> def, Collection<Map<String, String>> contexts, boolean start) throws Exception {
+        LOGGER.debug("building {} new state machines of type {}", contexts.size(), def.getName());
+        final List<Machine<S, E>> machines = new ArrayList<>(contexts.size());
+        for (Map<String, String> context : contexts)
+            machines.add(new MachineInstanceImpl<>(UUID.randomUUID().toString(), def, def.getInitialState(), context, Collections.emptyList(), ErrorType.NONE, Optional.empty(), persistenceCallback(), 0, Optional.empty(), 0));
+        for (List<Machine<S, E>> chunk : Lists.partition(machines, properties.getBulkChunkSize())) {
+            final List<ExternalState> states = chunk.stream().map(this::extractExternalState).collect(Collectors.toList());
+            transactionTemplate.executeWithoutResult(status -> externalStateJdbcRepository.insertStates(states, properties.getBulkChunkSize()));
+        }
+        LOGGER.debug("built {} new state machines of type {}", machines.size(), def.getName());
+        return start ? startAll(def, machines) : machines;
+    }
+
+    /**
+     * starts machines in waves of {@link StatusMachinaProperties#getBulkStartParallelism()} machines, so that the
+     * starts do not outnumber the database connections by far
+     */
+    private List<Machine<S, E>> startAll(MachineDefinition<S, E> def, List<Machine<S, E>> machines) throws Exception {
+        final int parallelism = properties.getBulkStartParallelism() > 0 ? properties.getBulkStartParallelism() : Runtime.getRuntime().availableProcessors();
+        final List<Machine<S, E>> started = new ArrayList<>(machines.size());
+        for (List<Machine<S, E>> wave : Lists.partition(machines, parallelism)) {
+            final List<CompletableFuture<Machine<S, E>>> starts = new ArrayList<>(wave.size());
+            for (Machine<S, E> machine : wave)
+                starts.add(CompletableFuture.supplyAsync(machine::start, def.getAsyncExecutor()));
+            try {
+                for (CompletableFuture<Machine<S, E>> start : starts)
+                    started.add(start.join());
+            } catch (CompletionException e) {
+                throw e.getCause() instanceof Exception ? (Exception) e.getCause() : e;
+            }
+        }
+        return started;
+    }
+
     public ExternalState create(Machine<S, E> instance) {
         final String id = instance.getId();
+        evict(id);
         final ExternalState entity = externalStateRepository.findById(id)
                 .map(es -> updateExternalState(es, instance, Instant.now().toEpochMilli()))
                 .orElseGet(() -> extractExternalState(instance));
-        return externalStateRepository.save(entity);
+        // machines are read through JDBC when their context is stored in a column, make the new one visible to it
+        return columnStorage() ? externalStateRepository.saveAndFlush(entity) : externalStateRepository.save(entity);
     }
 
+    /**
+     * reads a machine. if the machine cache is enabled, a cached machine is returned as long as the database holds
+     * the same version of it. a machine that has an update buffered by the write-behind callback is returned as
+     * buffered, without flushing it.
+     */
     @Override
     public Machine<S, E> read(MachineDefinition<S, E> def, String id) throws Exception {
-        final ExternalState externalState = externalStateRepository.findById(id).orElseThrow();
-        final Map<String, String> context = externalState.getContext();
+        if (writeBehindPersistenceCallback != null) {
+            final Optional<Machine<S, E>> pending = writeBehindPersistenceCallback.pending(id);
+            if (pending.isPresent())
+                return pending.get();
+        }
+        if (machineCache != null) {
+            final Machine<S, E> cached = machineCache.getIfPresent(id);
+            if (cached != null && cached.getDefinition() == def && isCurrent(cached))
+                return cached;
+            final Machine<S, E> machine = load(def, id);
+            cacheAfterCommit(machine);
+            return machine;
+        }
+        return load(def, id);
+    }
+
+    private Machine<S, E> load(MachineDefinition<S, E> def, String id) {
+        final ExternalState externalState = (columnStorage() ? externalStateJdbcRepository.findById(id) : externalStateRepository.findById(id)).orElseThrow();
+        return toMachine(def, externalState, persistenceCallback());
+    }
+
+    private Machine<S, E> toMachine(MachineDefinition<S, E> def, ExternalState externalState, MachinePersistenceCallback<S, E> persistenceCallback) {
+        final String id = externalState.getId();
+        final Map<String, String> context = contextOf(externalState);
         final S currentstate = def.getStringToState().apply(externalState.getCurrentState());
         final ErrorType errorType = externalState.getErrorType();
         final String error = externalState.getError();
@@ -100,45 +280,476 @@ public class SpringJpaStateMachineService<S, E> implements StateMachineService<S
                 Collections.emptyList(),
                 errorType,
                 errorType == ErrorType.NONE ? Optional.empty() : Optional.of(error),
-                machinePersistenceCallback,
+                persistenceCallback,
                 transitionEventCounter,
-                event
+                event,
+                externalState.getVersion()
+        );
+    }
+
+    /**
+     * delivers an event to many machines. machines are read, and written with batch statements, by chunks of
+     * {@link StatusMachinaProperties#getBulkChunkSize()} machines, each chunk in its own transaction. a machine that
+     * was modified concurrently is not written and is reported as failed with an
+     * {@link OptimisticLockingFailureException}.
+     */
+    @Override
+    public Map<String, EventOutcome<S, E>> sendEvents(MachineDefinition<S, E> def, Collection<String> ids, E event) {
+        return sendEvents(def, ids, machine -> machine.sendEvent(event));
+    }
+
+    /**
+     * @see #sendEvents(MachineDefinition, Collection, Object)
+     */
+    @Override
+    public <P> Map<String, EventOutcome<S, E>> sendEvents(MachineDefinition<S, E> def, Collection<String> ids, E event, P param) {
+        return sendEvents(def, ids, machine -> machine.sendEvent(event, param));
+    }
+
+    private Map<String, EventOutcome<S, E>> sendEvents(MachineDefinition<S, E> def, Collection<String> ids, MachineAction<S, E> action) {
+        final Map<String, EventOutcome<S, E>> outcomes = new LinkedHashMap<>();
+        for (List<String> chunk : Iterables.partition(new LinkedHashSet<>(ids), properties.getBulkChunkSize())) {
+            try {
+                if (writeBehindPersistenceCallback != null)
+                    writeBehindPersistenceCallback.flush(chunk);
+                outcomes.putAll(transactionTemplate.execute(status -> sendEventsInChunk(def, chunk, action)));
+            } catch (RuntimeException e) {
+                LOGGER.error("failed to deliver an event to {} state machines of type {}", chunk.size(), def.getName(), e);
+                for (String id : chunk)
+                    outcomes.put(id, EventOutcome.failed(id, e));
+            }
+        }
+        return outcomes;
+    }
+
+    private Map<String, EventOutcome<S, E>> sendEventsInChunk(MachineDefinition<S, E> def, List<String> ids, MachineAction<S, E> action) {
+        final Map<String, ExternalState> states = externalStateJdbcRepository.findByIds(ids);
+        final CollectingPersistenceCallback collector = new CollectingPersistenceCallback();
+        final Map<String, Machine<S, E>> results = new HashMap<>();
+        final Map<String, Throwable> errors = new HashMap<>();
+        for (String id : ids) {
+            final ExternalState state = states.get(id);
+            if (state == null)
+                errors.put(id, new NoSuchElementException("there is no state machine with ID " + id));
+            else if (!def.getName().equals(state.getType()))
+                errors.put(id, new IllegalArgumentException("state machine with ID " + id + " is of type " + state.getType() + ", not " + def.getName()));
+            else
+                try {
+                    results.put(id, action.apply(toMachine(def, state, collector)));
+                } catch (Throwable t) {
+                    errors.put(id, t);
+                }
+        }
+
+        // machines that failed in their transition are written as well, so that their error state is persisted
+        final List<ExternalState> written = new ArrayList<>(collector.updates.size());
+        final List<ContextDelta> contextDeltas = new ArrayList<>(collector.updates.size());
+        for (PendingWrite<S, E> update : collector.updates.values())
+            written.add(toExternalState(update.machine, update.epochMilliForUpdate).setVersion((int) update.machine.getVersion()));
+        final Set<String> concurrentlyModified = Set.copyOf(externalStateJdbcRepository.updateStatesVersioned(written, properties.getBulkChunkSize()));
+        if (!columnStorage()) {
+            for (PendingWrite<S, E> update : collector.updates.values())
+                if (!concurrentlyModified.contains(update.machine.getId()))
+                    contextDeltas.add(ContextDelta.between(update.machine.getId(), contextOf(states.get(update.machine.getId())), update.machine.getContext()));
+            externalStateJdbcRepository.applyContextDeltas(contextDeltas, properties.getBulkChunkSize());
+        }
+        final List<StoredTransition> transitions = collector.transitions.stream()
+                .filter(transition -> !concurrentlyModified.contains(transition.getMachineId()))
+                .collect(Collectors.toList());
+        if (!transitions.isEmpty())
+            transitionJdbcRepository.insert(transitions, properties.getBulkChunkSize());
+
+        final Map<String, EventOutcome<S, E>> outcomes = new LinkedHashMap<>();
+        for (String id : ids) {
+            if (concurrentlyModified.contains(id)) {
+                evict(id);
+                outcomes.put(id, EventOutcome.failed(id, new OptimisticLockingFailureException("state machine of type " + def.getName() + " with ID " + id + " was modified concurrently")));
+            } else if (errors.containsKey(id)) {
+                evict(id);
+                outcomes.put(id, EventOutcome.failed(id, errors.get(id)));
+            } else {
+                final Machine<S, E> result = results.get(id);
+                final Machine<S, E> machine = withPersistence(result, collector.updates.containsKey(id) ? result.getVersion() + 1 : result.getVersion());
+                cacheAfterCommit(machine);
+                outcomes.put(id, EventOutcome.delivered(machine));
+            }
+        }
+        return outcomes;
+    }
+
+    /**
+     * the same machine, bound to the persistence callback of this service, with the specified version
+     */
+    private Machine<S, E> withPersistence(Machine<S, E> machine, long version) {
+        return new MachineInstanceImpl<>(
+                machine.getId(),
+                machine.getDefinition(),
+                machine.getCurrentState(),
+                machine.getContext(),
+                Collections.emptyList(),
+                machine.getErrorType(),
+                machine.getError(),
+                persistenceCallback(),
+                machine.getTransitionEventCounter(),
+                machine.getCurrentEvent(),
+                version
         );
     }
 
-    public void update(Machine<S, E> instance, long epochMilliForUpdate) {
-        final ExternalState currentState = externalStateRepository.findById(instance.getId()).orElseThrow();
-        final ExternalState updatedState = updateExternalState(currentState, instance, epochMilliForUpdate);
-        externalStateRepository.save(updatedState);
+    /**
+     * persists the state of a machine, as configured by {@link StatusMachinaProperties#getUpdateMode()}
+     *
+     * @return the version of the machine after the update
+     */
+    public long update(Machine<S, E> instance, long epochMilliForUpdate) {
+        return update(null, instance, epochMilliForUpdate);
+    }
+
+    /**
+     * persists the state of a machine, as configured by {@link StatusMachinaProperties#getUpdateMode()}. when the
+     * context is stored in the sm_context_entries table, only the entries that were added, changed or removed are
+     * written.
+     *
+     * @param previous the machine as it was last persisted, or null if not known. in {@link UpdateMode#DIRECT} mode
+     *                 the context delta is computed against it, or the whole context is rewritten if it is null.
+     * @return the version of the machine after the update
+     */
+    public long update(Machine<S, E> previous, Machine<S, E> instance, long epochMilliForUpdate) {
+        try {
+            return persist(previous, instance, epochMilliForUpdate);
+        } catch (OptimisticLockingFailureException e) {
+            // the machine was modified by someone else, whatever is cached is outdated
+            evict(instance.getId());
+            throw e;
+        }
+    }
+
+    /**
+     * records one more event of a multi-event transition with a single statement that increments the event counter,
+     * whatever the update mode. the context is not written. the counter is only incremented if the machine is still in
+     * the state, and at the count, it was read with, so that concurrent events are neither lost nor counted twice.
+     *
+     * @return the version of the machine after the update
+     */
+    public long updateEventCounter(Machine<S, E> previous, Machine<S, E> instance, long epochMilliForUpdate) {
+        final MachineDefinition<S, E> def = instance.getDefinition();
+        final String id = instance.getId();
+        final String currentState = def.getStateToString().apply(previous.getCurrentState());
+        final String currentEvent = instance.getCurrentEvent().map(e -> def.getEventToString().apply(e)).orElse(null);
+        final Optional<Long> version = joiningTransactionTemplate.execute(status -> externalStateJdbcRepository.incrementEventCounter(id, currentState, previous.getTransitionEventCounter(), currentEvent, epochMilliForUpdate));
+        if (version.isEmpty()) {
+            evict(id);
+            throw new OptimisticLockingFailureException("state machine of type " + def.getName() + " with ID " + id + " could not be found in state " + currentState + " with event counter " + previous.getTransitionEventCounter() + ", it was either removed or modified concurrently");
+        }
+        return version.get();
+    }
+
+    /**
+     * records a transition of a machine, if {@link StatusMachinaProperties#isRecordHistory()}. the transitions made
+     * within a transaction are inserted together, with batch statements, right before it commits, and are discarded if
+     * it rolls back.
+     */
+    public void recordTransition(Machine<S, E> machine, TransitionRecord<S, E> record) {
+        if (!properties.isRecordHistory())
+            return;
+        final StoredTransition transition = toStoredTransition(machine, record);
+        if (!TransactionSynchronizationManager.isSynchronizationActive()) {
+            joiningTransactionTemplate.executeWithoutResult(status -> transitionJdbcRepository.insert(List.of(transition), 1));
+            return;
+        }
+        // synchronizations are suspended along with their transaction, so the pending transitions of an outer
+        // transaction are not written by an inner one
+        PendingTransitions pending = null;
+        for (TransactionSynchronization synchronization : TransactionSynchronizationManager.getSynchronizations())
+            if (synchronization instanceof SpringJpaStateMachineService.PendingTransitions && ((PendingTransitions) synchronization).service() == this)
+                pending = (PendingTransitions) synchronization;
+        if (pending == null) {
+            pending = new PendingTransitions();
+            TransactionSynchronizationManager.registerSynchronization(pending);
+        }
+        pending.transitions.add(transition);
+    }
+
+    /**
+     * reads the recorded transitions of a machine
+     *
+     * @return the transitions, oldest first
+     */
+    public List<TransitionRecord<S, E>> readHistory(Machine<S, E> machine) {
+        return toTransitionRecords(machine, joiningTransactionTemplate.execute(status -> transitionJdbcRepository.findByMachineId(machine.getId())));
+    }
+
+    /**
+     * reads a page of the recorded transitions of a machine
+     *
+     * @return the transitions of the page, oldest first
+     */
+    public List<TransitionRecord<S, E>> readHistory(Machine<S, E> machine, int offset, int limit) {
+        return toTransitionRecords(machine, joiningTransactionTemplate.execute(status -> transitionJdbcRepository.findByMachineId(machine.getId(), offset, limit)));
+    }
+
+    private List<TransitionRecord<S, E>> toTransitionRecords(Machine<S, E> machine, List<StoredTransition> transitions) {
+        final MachineDefinition<S, E> def = machine.getDefinition();
+        return transitions.stream()
+                .map(transition -> new TransitionRecord<S, E>(
+                        def.getStringToState().apply(transition.getState()),
+                        Optional.ofNullable(transition.getEvent()).map(def.getStringToEvent()),
+                        Optional.ofNullable(transition.getError()),
+                        Instant.ofEpochMilli(transition.getTransitionTime())))
+                .collect(Collectors.toList());
+    }
+
+    StoredTransition toStoredTransition(Machine<S, E> machine, TransitionRecord<S, E> record) {
+        final MachineDefinition<S, E> def = machine.getDefinition();
+        return new StoredTransition(
+                machine.getId(),
+                def.getStateToString().apply(record.getState()),
+                record.getEvent().map(def.getEventToString()).orElse(null),
+                record.getError().orElse(null),
+                record.getWhen().toEpochMilli()
+        );
+    }
+
+    /**
+     * caches a machine once the ongoing transaction, if any, commits, unless a later version is already cached.
+     * nothing is cached if the transaction rolls back, and the machine is evicted instead.
+     */
+    void cacheAfterCommit(Machine<S, E> machine) {
+        if (machineCache == null)
+            return;
+        if (!TransactionSynchronizationManager.isSynchronizationActive()) {
+            cache(machine);
+            return;
+        }
+        TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+            @Override
+            public void afterCommit() {
+                cache(machine);
+            }
+
+            @Override
+            public void afterCompletion(int status) {
+                if (status != STATUS_COMMITTED)
+                    evict(machine.getId());
+            }
+        });
+    }
+
+    /**
+     * drops a machine from the machine cache, if enabled
+     */
+    void evict(String id) {
+        if (machineCache != null)
+            machineCache.invalidate(id);
+    }
+
+    private void cache(Machine<S, E> machine) {
+        machineCache.asMap().merge(machine.getId(), machine, (cached, latest) -> latest.getVersion() >= cached.getVersion() ? latest : cached);
+    }
+
+    private boolean isCurrent(Machine<S, E> cached) {
+        if (!properties.getMachineCache().isValidate())
+            return true;
+        final boolean current = joiningTransactionTemplate.execute(status -> externalStateJdbcRepository.findVersion(cached.getId()))
+                .map(version -> version == cached.getVersion())
+                .orElse(false);
+        if (!current)
+            evict(cached.getId());
+        return current;
+    }
+
+    private long persist(Machine<S, E> previous, Machine<S, E> instance, long epochMilliForUpdate) {
+        if (properties.getUpdateMode() == UpdateMode.DIRECT)
+            return updateDirect(previous, instance, epochMilliForUpdate);
+        return joiningTransactionTemplate.execute(status -> {
+            final ExternalState currentState = externalStateRepository.findById(instance.getId()).orElseThrow();
+            if (columnStorage())
+                return externalStateRepository.saveAndFlush(updateExternalState(currentState, instance, epochMilliForUpdate)).getVersion();
+            final ContextDelta contextDelta = ContextDelta.between(instance.getId(), currentState.getContext(), instance.getContext());
+            // the context collection is left untouched, so that hibernate does not rewrite it, the delta is written below
+            updateStateColumns(currentState, instance, epochMilliForUpdate).setContextData(null);
+            final long version = externalStateRepository.saveAndFlush(currentState).getVersion();
+            if (!contextDelta.isEmpty()) {
+                externalStateJdbcRepository.applyContextDelta(contextDelta);
+                // the managed copy of the context is stale now, make the next read in this transaction load it again
+                entityManager.detach(currentState);
+            }
+            return version;
+        });
+    }
+
+    private long updateDirect(Machine<S, E> previous, Machine<S, E> instance, long epochMilliForUpdate) {
+        final ExternalState state = toExternalState(instance, epochMilliForUpdate);
+        return joiningTransactionTemplate.execute(status -> {
+            if (!externalStateJdbcRepository.update(state, instance.getVersion()))
+                throw new OptimisticLockingFailureException("state machine of type " + state.getType() + " with ID " + state.getId() + " could not be found at version " + instance.getVersion() + ", it was either removed or modified concurrently");
+            if (columnStorage())
+                return instance.getVersion() + 1;
+            if (previous == null)
+                externalStateJdbcRepository.replaceContext(state.getId(), state.getContext());
+            else
+                externalStateJdbcRepository.applyContextDelta(ContextDelta.between(state.getId(), previous.getContext(), instance.getContext()));
+            return instance.getVersion() + 1;
+        });
     }
 
     @Override
     public List<MachineSnapshot> findStale(long seconds) {
-        final long staleReference = Instant.now().toEpochMilli() - Duration.ofSeconds(seconds).toMillis();
+        flushPendingUpdates();
+        final long staleReference = staleReference(seconds);
         final List<ExternalState> states = externalStateRepository.findAllByLastModifiedEpochLessThan(staleReference);
         return getMachineSnapshots(states);
     }
 
     @Override
     public List<MachineSnapshot> findFailed() {
+        flushPendingUpdates();
         final List<ExternalState> states = externalStateRepository.findAllByCurrentState(ERROR_STATE);
         return getMachineSnapshots(states);
     }
 
     @Override
     public List<MachineSnapshot> findTerminated() {
+        flushPendingUpdates();
         final List<ExternalState> states = externalStateRepository.findAllByDone(true);
         return getMachineSnapshots(states);
     }
 
+    @Override
+    public MachineSnapshotPage findStale(long seconds, SnapshotPageRequest request) {
+        flushPendingUpdates();
+        final long staleReference = staleReference(seconds);
+        return findPage(request, (afterId, limit) -> externalStateJdbcRepository.findStale(staleReference, afterId, limit, request.isWithContext()));
+    }
+
+    @Override
+    public MachineSnapshotPage findFailed(SnapshotPageRequest request) {
+        flushPendingUpdates();
+        return findPage(request, (afterId, limit) -> externalStateJdbcRepository.findByCurrentState(ERROR_STATE, afterId, limit, request.isWithContext()));
+    }
+
+    @Override
+    public MachineSnapshotPage findTerminated(SnapshotPageRequest request) {
+        flushPendingUpdates();
+        return findPage(request, (afterId, limit) -> externalStateJdbcRepository.findByDone(true, afterId, limit, request.isWithContext()));
+    }
+
+    @Override
+    public Stream<MachineSnapshot> streamStale(long seconds, boolean withContext) {
+        flushPendingUpdates();
+        final long staleReference = staleReference(seconds);
+        return stream((last, limit) -> externalStateJdbcRepository.findStale(staleReference, afterId(last), limit, withContext));
+    }
+
+    @Override
+    public Stream<MachineSnapshot> streamFailed(boolean withContext) {
+        flushPendingUpdates();
+        return stream((last, limit) -> externalStateJdbcRepository.findByCurrentState(ERROR_STATE, afterId(last), limit, withContext));
+    }
+
+    @Override
+    public Stream<MachineSnapshot> streamTerminated(boolean withContext) {
+        flushPendingUpdates();
+        return stream((last, limit) -> externalStateJdbcRepository.findByDone(true, afterId(last), limit, withContext));
+    }
+
+    @Override
+    public Stream<MachineSnapshot> streamStaleModifiedBetween(long fromEpochMilli, long beforeEpochMilli, boolean withContext) {
+        flushPendingUpdates();
+        return stream((last, limit) -> last == null
+                ? externalStateJdbcRepository.findStaleByLastModified(beforeEpochMilli, fromEpochMilli, "", limit, withContext)
+                : externalStateJdbcRepository.findStaleByLastModified(beforeEpochMilli, last.getLastModifiedEpoch(), last.getId(), limit, withContext));
+    }
+
+    @Override
+    public Stream<MachineSnapshot> streamStaleModifiedBetween(long fromEpochMilli, long beforeEpochMilli, int partition, int partitionCount, boolean withContext) {
+        flushPendingUpdates();
+        return stream((last, limit) -> last == null
+                ? externalStateJdbcRepository.findStaleByLastModifiedInPartition(partition, partitionCount, beforeEpochMilli, fromEpochMilli, "", limit, withContext)
+                : externalStateJdbcRepository.findStaleByLastModifiedInPartition(partition, partitionCount, beforeEpochMilli, last.getLastModifiedEpoch(), last.getId(), limit, withContext));
+    }
+
+    /**
+     * builds a detached entity that reflects the specified machine, without reading the database
+     */
+    public ExternalState toExternalState(Machine<S, E> instance, long epochMilliForUpdate) {
+        final ExternalState state = new ExternalState().setId(instance.getId()).setContext(new HashMap<>());
+        return updateExternalState(state, instance, epochMilliForUpdate);
+    }
+
+    private boolean columnStorage() {
+        return properties.getContextStorage() == ContextStorage.COLUMN;
+    }
+
+    /**
+     * the context of a machine, wherever it is stored. the context_data column takes precedence, so contexts that were
+     * moved there can still be read if the table storage is selected again.
+     */
+    private static Map<String, String> contextOf(ExternalState state) {
+        return state.getContextData() != null ? ContextCodec.decode(state.getContextData()) : state.getContext();
+    }
+
+    private MachinePersistenceCallback<S, E> persistenceCallback() {
+        return writeBehindPersistenceCallback != null ? writeBehindPersistenceCallback : machinePersistenceCallback;
+    }
+
+    /**
+     * makes updates buffered by the write-behind callback, if enabled, visible to the queries that follow. reads of
+     * single machines do not need it, they are served from the buffer.
+     */
+    private void flushPendingUpdates() {
+        if (writeBehindPersistenceCallback != null)
+            writeBehindPersistenceCallback.flush();
+    }
+
+    private static long staleReference(long seconds) {
+        return Instant.now().toEpochMilli() - Duration.ofSeconds(seconds).toMillis();
+    }
+
+    /**
+     * runs a keyset query for one more machine than requested, to know whether there is a next page
+     */
+    private MachineSnapshotPage findPage(SnapshotPageRequest request, BiFunction<String, Integer, List<ExternalState>> pageQuery) {
+        final List<ExternalState> states = joiningTransactionTemplate.execute(status -> pageQuery.apply(request.getAfter().orElse(""), request.getPageSize() + 1));
+        return MachineSnapshotPage.of(getMachineSnapshots(states), request.getPageSize());
+    }
+
+    private static String afterId(ExternalState last) {
+        return last == null ? "" : last.getId();
+    }
+
+    /**
+     * a stream that runs the keyset query page by page, as it is consumed, so that only one page is held in memory.
+     * the query is given the last machine of the previous page, null for the first page.
+     */
+    private Stream<MachineSnapshot> stream(BiFunction<ExternalState, Integer, List<ExternalState>> pageQuery) {
+        final int pageSize = properties.getSnapshotFetchSize();
+        final Iterator<List<MachineSnapshot>> pages = new AbstractIterator<>() {
+            private ExternalState lastState = null;
+            private boolean lastPage = false;
+
+            @Override
+            protected List<MachineSnapshot> computeNext() {
+                if (lastPage)
+                    return endOfData();
+                final List<ExternalState> states = joiningTransactionTemplate.execute(status -> pageQuery.apply(lastState, pageSize));
+                lastPage = states.size() < pageSize;
+                if (states.isEmpty())
+                    return endOfData();
+                lastState = states.get(states.size() - 1);
+                return getMachineSnapshots(states);
+            }
+        };
+        return Streams.stream(pages).flatMap(List::stream);
+    }
 
     private List<MachineSnapshot> getMachineSnapshots(List<ExternalState> states) {
         return states
-                .stream().map(state -> new MachineSnapshot(state.getType(), state.getId(), state.getCurrentState(), state.getContext(), state.getErrorType(), state.getError(), state.getLastModifiedEpoch()))
+                .stream().map(state -> new MachineSnapshot(state.getType(), state.getId(), state.getCurrentState(), contextOf(state), state.getErrorType(), state.getError(), state.getLastModifiedEpoch()))
                 .collect(Collectors.toList());
     }
 
-    private <S, E> ExternalState extractExternalState(Machine<S, E> machineInstance) {
+    private ExternalState extractExternalState(Machine<S, E> machineInstance) {
         ExternalState currentState = new ExternalState();
 
         currentState
@@ -147,16 +758,38 @@ public class SpringJpaStateMachineService<S, E> implements StateMachineService<S
                 .setCurrentState(machineInstance.getDefinition().getStateToString().apply(machineInstance.getCurrentState()))
                 .setErrorType(machineInstance.getErrorType())
                 .setError(machineInstance.getError().orElse("no error"))
-                .setContext(new HashMap<>(machineInstance.getContext()))
+                .setContext(new HashMap<>())
                 .setLocked(true)
                 .setIdle(machineInstance.isIdleState())
                 .setDone(machineInstance.isTerminalState())
                 .setLastModifiedEpoch(Instant.now().toEpochMilli());
+        storeContext(currentState, machineInstance.getContext());
+
+        return currentState;
+    }
 
+    private ExternalState updateExternalState(ExternalState currentState, Machine<S, E> machineInstance, long epochMilliForUpdate) {
+        updateStateColumns(currentState, machineInstance, epochMilliForUpdate);
+        storeContext(currentState, machineInstance.getContext());
         return currentState;
     }
 
-    private <S, E> ExternalState updateExternalState(ExternalState currentState, Machine<S, E> machineInstance, long epochMilliForUpdate) {
+    /**
+     * stores the context where {@link StatusMachinaProperties#getContextStorage()} says, and removes it from the other
+     * place, if it was there
+     */
+    private void storeContext(ExternalState currentState, Map<String, String> targetContext) {
+        if (columnStorage()) {
+            currentState.setContextData(ContextCodec.encode(targetContext));
+            if (!currentState.getContext().isEmpty())
+                currentState.getContext().clear();
+        } else {
+            currentState.setContextData(null);
+            applyTargetContext(currentState, targetContext);
+        }
+    }
+
+    private ExternalState updateStateColumns(ExternalState currentState, Machine<S, E> machineInstance, long epochMilliForUpdate) {
         currentState
                 .setType(machineInstance.getDefinition().getName())
                 .setCurrentState(machineInstance.getDefinition().getStateToString().apply(machineInstance.getCurrentState()))
@@ -169,14 +802,11 @@ public class SpringJpaStateMachineService<S, E> implements StateMachineService<S
                 .setCurrentEvent(machineInstance.getCurrentEvent().map(e -> machineInstance.getDefinition().getEventToString().apply(e)).orElse(null))
                 .setTransitionEventCounter(machineInstance.getTransitionEventCounter());
 
-        applyTargetContext(currentState, machineInstance);
-
         return currentState;
     }
 
-    private <S, E> void applyTargetContext(ExternalState currentState, Machine<S, E> machineInstance) {
+    private void applyTargetContext(ExternalState currentState, Map<String, String> targetContext) {
         final Map<String, String> crtContext = currentState.getContext();
-        final Map<String, String> targetContext = machineInstance.getContext();
         for (String targetKey : targetContext.keySet()) {
             final String targetValue = targetContext.get(targetKey);
             if (!crtContext.containsKey(targetKey)) {
@@ -194,4 +824,61 @@ public class SpringJpaStateMachineService<S, E> implements StateMachineService<S
             crtContext.remove(keyToRemove);
     }
 
+    /**
+     * a persistence callback that records the latest update of each machine instead of writing it, so that the updates
+     * of many machines can be written together. machines created by the actions of the bulk operation are saved the
+     * usual way. it runs within the transaction of the bulk operation.
+     */
+    private class CollectingPersistenceCallback implements MachinePersistenceCallback<S, E> {
+        private final Map<String, PendingWrite<S, E>> updates = new LinkedHashMap<>();
+        private final List<StoredTransition> transitions = new ArrayList<>();
+
+        @Override
+        public Machine<S, E> saveNew(Machine<S, E> machine) {
+            return persistenceCallback().saveNew(machine);
+        }
+
+        @Override
+        public Machine<S, E> update(Machine<S, E> machine, long epochMilliForUpdate) {
+            updates.put(machine.getId(), new PendingWrite<>(machine, epochMilliForUpdate));
+            return machine;
+        }
+
+        @Override
+        public void recordTransition(Machine<S, E> machine, TransitionRecord<S, E> record) {
+            if (properties.isRecordHistory())
+                transitions.add(toStoredTransition(machine, record));
+        }
+
+        @Override
+        public <R> R runInTransaction(Callable<R> callable) throws Exception {
+            return callable.call();
+        }
+    }
+
+    /**
+     * the transitions recorded within a transaction, inserted right before it commits
+     */
+    private class PendingTransitions implements TransactionSynchronization {
+        private final List<StoredTransition> transitions = new ArrayList<>();
+
+        @Override
+        public void beforeCommit(boolean readOnly) {
+            transitionJdbcRepository.insert(transitions, properties.getBulkChunkSize());
+        }
+
+        private SpringJpaStateMachineService<S, E> service() {
+            return SpringJpaStateMachineService.this;
+        }
+    }
+
+    private static class PendingWrite<S, E> {
+        private final Machine<S, E> machine;
+        private final long epochMilliForUpdate;
+
+        private PendingWrite(Machine<S, E> machine, long epochMilliForUpdate) {
+            this.machine = machine;
+            this.epochMilliForUpdate = epochMilliForUpdate;
+        }
+    }
 }
@@ -0,0 +1,556 @@
+/*
+ *  Copyright 2019 <---> Present Status Machina Contributors (https://github.com/entzik/status-machina/graphs/contributors)
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  This software is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR
+ *  CONDITIONS OF ANY KIND, either express or implied. See the License for the
+ *  specific language governing permissions and limitations under the License.
+ *
+ */
+
+package io.statusmachina.spring.jpa;
+
+import io.statusmachina.core.api.Machine;
+import io.statusmachina.core.spi.MachinePersistenceCallback;
+import io.statusmachina.core.stdimpl.MachineInstanceImpl;
+import io.statusmachina.core.stdimpl.TransitionRecord;
+import io.statusmachina.spring.jpa.autoconfig.ContextStorage;
+import io.statusmachina.spring.jpa.autoconfig.StatusMachinaProperties;
+import io.statusmachina.spring.jpa.autoconfig.WriteBehind;
+import io.statusmachina.spring.jpa.autoconfig.WriteBehindDurability;
+import io.statusmachina.spring.jpa.model.ExternalState;
+import io.statusmachina.spring.jpa.model.StoredTransition;
+import io.statusmachina.spring.jpa.repo.ContextDelta;
+import io.statusmachina.spring.jpa.repo.ExternalStateJdbcRepository;
+import io.statusmachina.spring.jpa.repo.TransitionJdbcRepository;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.beans.factory.InitializingBean;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.context.annotation.Lazy;
+import org.springframework.dao.OptimisticLockingFailureException;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import static io.statusmachina.spring.jpa.configuration.TransactionTemplateCnfiguration.STATUS_MACHINA_TRANSACTION_TEMPLATE;
+
+/**
+ * <p>A persistence callback that buffers machine updates and writes them to the database in JDBC batches, once the
+ * buffer reaches the configured batch size or the configured flush interval elapses, whichever comes first.
+ * Consecutive updates of the same machine are coalesced, so only the latest state of each machine is written, along
+ * with the context entries that changed since the machine was last written.</p>
+ *
+ * <p>Updates issued within {@link #runInTransaction(Callable)} are buffered only once the transition transaction has
+ * committed, and are discarded if it rolls back. They are not written as part of that transaction though: in
+ * {@link WriteBehindDurability#GROUP_COMMIT} mode the caller waits, after the transition transaction has been
+ * committed, for the batch containing its update to be committed; in {@link WriteBehindDurability#BUFFERED} mode it
+ * does not wait at all.</p>
+ *
+ * <p>Optimistic locking is kept: each machine handed back carries the version it will be written with, an update
+ * derived from a version other than the latest buffered one is rejected right away, and a batch only writes a machine
+ * whose persisted version is still the one its first buffered update was derived from. When a machine was modified
+ * by another node, or removed, meanwhile, its update is not written: in {@link WriteBehindDurability#GROUP_COMMIT}
+ * mode the caller fails with an {@link OptimisticLockingFailureException}, in {@link WriteBehindDurability#BUFFERED}
+ * mode the update is retried with the next batches, and dropped after {@link #MAX_WRITE_ATTEMPTS} attempts.</p>
+ *
+ * <p>A machine that has an update pending is read from the buffer, see {@link #pending(String)}, so that reading it
+ * does not require a flush.</p>
+ *
+ * <p>The transitions recorded along with an update are buffered with it, and inserted in the transaction that writes
+ * it, so that no history is kept for an update that is rejected. Reading the history of a machine flushes its pending
+ * update first.</p>
+ *
+ * <p>New machines are saved synchronously, through {@link FineGrainedMachinePersistenceCallback}.</p>
+ */
+@Service
+@ConditionalOnProperty(name = "statusmachina.spring.write-behind.enabled", havingValue = "true")
+class WriteBehindMachinePersistenceCallback<S, E> implements MachinePersistenceCallback<S, E>, InitializingBean, DisposableBean {
+    private static final Logger LOGGER = LoggerFactory.getLogger(WriteBehindMachinePersistenceCallback.class);
+    /**
+     * the number of batches a buffered update that could not be written is tried with, in BUFFERED mode
+     */
+    static final int MAX_WRITE_ATTEMPTS = 3;
+
+    @Autowired
+    private FineGrainedMachinePersistenceCallback<S, E> fineGrainedCallback;
+
+    @Autowired
+    @Lazy
+    private SpringJpaStateMachineService<S, E> stateMachineService;
+
+    @Autowired
+    private ExternalStateJdbcRepository externalStateJdbcRepository;
+
+    @Autowired
+    private TransitionJdbcRepository transitionJdbcRepository;
+
+    @Autowired
+    @Qualifier(STATUS_MACHINA_TRANSACTION_TEMPLATE)
+    private TransactionTemplate transactionTemplate;
+
+    @Autowired
+    private StatusMachinaProperties properties;
+
+    /**
+     * pending updates, by machine id, in the order in which machines were first buffered
+     */
+    private final LinkedHashMap<String, PendingUpdate<S, E>> buffer = new LinkedHashMap<>();
+    /**
+     * updates taken out of the buffer and being written, by machine id, guarded by the buffer
+     */
+    private final Map<String, PendingUpdate<S, E>> inFlight = new HashMap<>();
+    private final Object flushLock = new Object();
+    /**
+     * updates issued by the current thread within a transition transaction, buffered once the transaction commits
+     */
+    private final ThreadLocal<List<PendingUpdate<S, E>>> staged = new ThreadLocal<>();
+    /**
+     * the transition recorded by the current thread, buffered with the update of its machine that follows
+     */
+    private final ThreadLocal<StoredTransition> recorded = new ThreadLocal<>();
+    /**
+     * whether a flush triggered by the size of the buffer is queued and has not started yet
+     */
+    private final AtomicBoolean flushQueued = new AtomicBoolean();
+
+    private WriteBehind config;
+    private ScheduledExecutorService flusher;
+
+    @Override
+    public void afterPropertiesSet() {
+        config = properties.getWriteBehind();
+        flusher = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            final Thread thread = new Thread(runnable, "status-machina-write-behind");
+            thread.setDaemon(true);
+            return thread;
+        });
+        flusher.scheduleWithFixedDelay(this::flushQuietly, config.getFlushIntervalMillis(), config.getFlushIntervalMillis(), TimeUnit.MILLISECONDS);
+    }
+
+    @Override
+    public void destroy() {
+        flusher.shutdown();
+        flushQuietly();
+    }
+
+    @Override
+    public Machine<S, E> saveNew(Machine<S, E> machine) {
+        return fineGrainedCallback.saveNew(machine);
+    }
+
+    /**
+     * transitions are held until the update that follows, and buffered with it
+     */
+    @Override
+    public void recordTransition(Machine<S, E> machine, TransitionRecord<S, E> record) {
+        if (properties.isRecordHistory())
+            recorded.set(stateMachineService.toStoredTransition(machine, record));
+    }
+
+    @Override
+    public List<TransitionRecord<S, E>> readHistory(Machine<S, E> machine) {
+        flush(List.of(machine.getId()));
+        return fineGrainedCallback.readHistory(machine);
+    }
+
+    @Override
+    public List<TransitionRecord<S, E>> readHistory(Machine<S, E> machine, int offset, int limit) {
+        flush(List.of(machine.getId()));
+        return fineGrainedCallback.readHistory(machine, offset, limit);
+    }
+
+    @Override
+    public Machine<S, E> update(Machine<S, E> machine, long epochMilliForUpdate) {
+        return stage(new PendingUpdate<>(machine, epochMilliForUpdate, null, takeRecorded(machine)));
+    }
+
+    @Override
+    public Machine<S, E> update(Machine<S, E> previous, Machine<S, E> machine, long epochMilliForUpdate) {
+        return stage(new PendingUpdate<>(machine, epochMilliForUpdate, previous.getContext(), takeRecorded(machine)));
+    }
+
+    /**
+     * @return the transition the current thread recorded for the specified machine, or null
+     */
+    private StoredTransition takeRecorded(Machine<S, E> machine) {
+        final StoredTransition transition = recorded.get();
+        recorded.remove();
+        return transition != null && transition.getMachineId().equals(machine.getId()) ? transition : null;
+    }
+
+    /**
+     * @param id the machine id
+     * @return the machine as last buffered, if it has an update that is not written yet
+     */
+    Optional<Machine<S, E>> pending(String id) {
+        synchronized (buffer) {
+            final PendingUpdate<S, E> update = latest(id);
+            return update == null ? Optional.empty() : Optional.of(update.machine);
+        }
+    }
+
+    private Machine<S, E> stage(PendingUpdate<S, E> update) {
+        final String conflict;
+        synchronized (buffer) {
+            conflict = conflict(update);
+        }
+        if (conflict != null)
+            throw new OptimisticLockingFailureException(conflict);
+        final List<PendingUpdate<S, E>> transactionUpdates = staged.get();
+        if (transactionUpdates != null)
+            transactionUpdates.add(update);
+        else
+            awaitIfRequired(enqueue(update));
+        return update.machine;
+    }
+
+    @Override
+    public <R> R runInTransaction(Callable<R> callable) throws Exception {
+        if (staged.get() != null)
+            return fineGrainedCallback.runInTransaction(callable);
+
+        final List<PendingUpdate<S, E>> transactionUpdates = new ArrayList<>();
+        staged.set(transactionUpdates);
+        final R result;
+        try {
+            result = fineGrainedCallback.runInTransaction(() -> {
+                // the transaction may be retried, only the updates of the attempt that commits count
+                transactionUpdates.clear();
+                return callable.call();
+            });
+        } finally {
+            staged.remove();
+        }
+
+        final List<CompletableFuture<Void>> flushes = new ArrayList<>(transactionUpdates.size());
+        for (PendingUpdate<S, E> update : transactionUpdates)
+            flushes.add(enqueue(update));
+        for (CompletableFuture<Void> flush : flushes)
+            awaitIfRequired(flush);
+        return result;
+    }
+
+    /**
+     * writes all pending updates to the database
+     */
+    void flush() {
+        synchronized (flushLock) {
+            final List<PendingUpdate<S, E>> batch;
+            synchronized (buffer) {
+                batch = new ArrayList<>(buffer.values());
+                buffer.clear();
+            }
+            flush(batch);
+        }
+    }
+
+    /**
+     * writes the pending updates of the specified machines to the database, the updates of other machines stay
+     * buffered
+     *
+     * @param ids the machine ids
+     */
+    void flush(Collection<String> ids) {
+        synchronized (flushLock) {
+            final List<PendingUpdate<S, E>> batch = new ArrayList<>();
+            synchronized (buffer) {
+                for (String id : ids) {
+                    final PendingUpdate<S, E> update = buffer.remove(id);
+                    if (update != null)
+                        batch.add(update);
+                }
+            }
+            flush(batch);
+        }
+    }
+
+    /**
+     * only called with the flush lock held
+     */
+    private void flush(List<PendingUpdate<S, E>> batch) {
+        if (batch.isEmpty())
+            return;
+        synchronized (buffer) {
+            for (PendingUpdate<S, E> update : batch)
+                inFlight.put(update.machine.getId(), update);
+        }
+        try {
+            final Set<String> notWritten = Set.copyOf(write(batch));
+            for (PendingUpdate<S, E> update : batch)
+                if (notWritten.contains(update.machine.getId()))
+                    notWritten(update);
+                else {
+                    stateMachineService.cacheAfterCommit(update.machine);
+                    update.flushed.complete(null);
+                }
+        } catch (RuntimeException e) {
+            LOGGER.error("failed to flush {} buffered state machine updates", batch.size(), e);
+            final List<PendingUpdate<S, E>> retried = new ArrayList<>(batch.size());
+            for (PendingUpdate<S, E> update : batch)
+                if (config.getDurability() == WriteBehindDurability.BUFFERED && ++update.attempts < MAX_WRITE_ATTEMPTS)
+                    retried.add(update);
+                else
+                    update.flushed.completeExceptionally(e);
+            if (retried.size() < batch.size() && config.getDurability() == WriteBehindDurability.BUFFERED)
+                LOGGER.error("{} buffered state machine updates were dropped after {} attempts", batch.size() - retried.size(), MAX_WRITE_ATTEMPTS);
+            requeue(retried);
+            throw e;
+        } finally {
+            synchronized (buffer) {
+                inFlight.clear();
+            }
+        }
+    }
+
+    /**
+     * handles an update that was not written because its machine was removed or modified by another node
+     */
+    private void notWritten(PendingUpdate<S, E> update) {
+        final String id = update.machine.getId();
+        stateMachineService.evict(id);
+        if (config.getDurability() == WriteBehindDurability.BUFFERED && ++update.attempts < MAX_WRITE_ATTEMPTS) {
+            LOGGER.warn("state machine with ID {} could not be found at version {}, its buffered update is retried", id, update.expectedVersion);
+            requeue(List.of(update));
+            return;
+        }
+        final OptimisticLockingFailureException e = new OptimisticLockingFailureException("state machine of type " + update.machine.getDefinition().getName() + " with ID " + id +
+                " could not be found at version " + update.expectedVersion + ", it was either removed or modified concurrently");
+        if (config.getDurability() == WriteBehindDurability.BUFFERED)
+            LOGGER.error("a buffered update of a state machine was dropped", e);
+        update.flushed.completeExceptionally(e);
+    }
+
+    private void flushQuietly() {
+        try {
+            flush();
+        } catch (RuntimeException e) {
+            // already logged, updates are either requeued or reported to their callers
+        }
+    }
+
+    /**
+     * @return the ids of the machines that were not written, because they were removed or modified by another node
+     */
+    private List<String> write(List<PendingUpdate<S, E>> batch) {
+        final List<ExternalState> states = new ArrayList<>(batch.size());
+        final List<Long> expectedVersions = new ArrayList<>(batch.size());
+        for (PendingUpdate<S, E> update : batch) {
+            states.add(stateMachineService.toExternalState(update.machine, update.epochMilliForUpdate).setVersion((int) update.machine.getVersion()));
+            expectedVersions.add(update.expectedVersion);
+        }
+        // when the context is stored in a column, it is written along with the state
+        final boolean tableStorage = properties.getContextStorage() == ContextStorage.TABLE;
+        final List<String> notWritten = fineGrainedCallback.runWithRetry(() -> transactionTemplate.execute(status -> {
+            final List<String> notUpdated = externalStateJdbcRepository.updateStatesToVersion(states, expectedVersions, config.getBatchSize());
+            final Set<String> skipped = Set.copyOf(notUpdated);
+            if (tableStorage) {
+                final List<ContextDelta> contextDeltas = new ArrayList<>(batch.size());
+                for (PendingUpdate<S, E> update : batch)
+                    if (!skipped.contains(update.machine.getId()))
+                        contextDeltas.add(update.contextDelta());
+                externalStateJdbcRepository.applyContextDeltas(contextDeltas, config.getBatchSize());
+            }
+            final List<StoredTransition> transitions = new ArrayList<>();
+            for (PendingUpdate<S, E> update : batch)
+                if (!skipped.contains(update.machine.getId()))
+                    transitions.addAll(update.transitions);
+            if (!transitions.isEmpty())
+                transitionJdbcRepository.insert(transitions, config.getBatchSize());
+            return notUpdated;
+        }));
+        if (LOGGER.isDebugEnabled())
+            LOGGER.debug("flushed {} buffered state machine updates, {} could not be written", batch.size(), notWritten.size());
+        return notWritten;
+    }
+
+    private CompletableFuture<Void> enqueue(PendingUpdate<S, E> update) {
+        final CompletableFuture<Void> flushed;
+        final int pending;
+        synchronized (buffer) {
+            final String conflict = conflict(update);
+            if (conflict != null) {
+                // another update of the machine was buffered since this one was staged
+                final OptimisticLockingFailureException e = new OptimisticLockingFailureException(conflict);
+                if (config.getDurability() == WriteBehindDurability.BUFFERED)
+                    LOGGER.error("a buffered update of a state machine was dropped", e);
+                update.flushed.completeExceptionally(e);
+                return update.flushed;
+            }
+            final PendingUpdate<S, E> existing = buffer.get(update.machine.getId());
+            if (existing == null) {
+                buffer.put(update.machine.getId(), update);
+                flushed = update.flushed;
+            } else {
+                existing.supersede(update);
+                flushed = existing.flushed;
+            }
+            pending = buffer.size();
+        }
+        if (pending >= config.getBatchSize() && flushQueued.compareAndSet(false, true))
+            flusher.execute(() -> {
+                // updates buffered from now on may queue another flush
+                flushQueued.set(false);
+                flushQuietly();
+            });
+        if (pending >= config.getMaxPendingUpdates()) {
+            // the database does not keep up, hold the caller back whatever the durability mode
+            flusher.execute(this::flushQuietly);
+            await(flushed);
+        }
+        return flushed;
+    }
+
+    /**
+     * the latest update of a machine, buffered or being written, or null. only called with the buffer locked.
+     */
+    private PendingUpdate<S, E> latest(String id) {
+        final PendingUpdate<S, E> buffered = buffer.get(id);
+        return buffered != null ? buffered : inFlight.get(id);
+    }
+
+    /**
+     * @return why the specified update cannot follow the latest update of its machine, or null if it can. only called
+     * with the buffer locked.
+     */
+    private String conflict(PendingUpdate<S, E> update) {
+        final PendingUpdate<S, E> latest = latest(update.machine.getId());
+        if (latest == null || latest.machine.getVersion() == update.expectedVersion)
+            return null;
+        return "state machine of type " + update.machine.getDefinition().getName() + " with ID " + update.machine.getId() +
+                " is buffered at version " + latest.machine.getVersion() + ", not " + update.expectedVersion + ", it was modified concurrently";
+    }
+
+    private void requeue(List<PendingUpdate<S, E>> batch) {
+        synchronized (buffer) {
+            for (PendingUpdate<S, E> update : batch) {
+                final PendingUpdate<S, E> newer = buffer.get(update.machine.getId());
+                if (newer == null)
+                    buffer.put(update.machine.getId(), update);
+                else {
+                    // the requeued update was not written, so the newer one must start from where it started
+                    newer.rebase(update);
+                    newer.flushed.whenComplete((v, t) -> {
+                        if (t == null)
+                            update.flushed.complete(null);
+                        else
+                            update.flushed.completeExceptionally(t);
+                    });
+                }
+            }
+        }
+    }
+
+    private void awaitIfRequired(CompletableFuture<Void> flushed) {
+        if (config.getDurability() == WriteBehindDurability.GROUP_COMMIT)
+            await(flushed);
+    }
+
+    private void await(CompletableFuture<Void> flushed) {
+        try {
+            flushed.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("interrupted while waiting for a state machine update to be flushed", e);
+        } catch (ExecutionException e) {
+            final Throwable cause = e.getCause();
+            if (cause instanceof RuntimeException)
+                throw (RuntimeException) cause;
+            throw new IllegalStateException(cause);
+        }
+    }
+
+    private static class PendingUpdate<S, E> {
+        private Machine<S, E> machine;
+        private long epochMilliForUpdate;
+        /**
+         * the version the machine has in the database, the one the first of the coalesced updates was derived from
+         */
+        private long expectedVersion;
+        /**
+         * the number of batches the update could not be written with
+         */
+        private int attempts;
+        /**
+         * the context the machine had when it was last written, or null if not known, in which case the whole context
+         * is rewritten
+         */
+        private Map<String, String> previousContext;
+        /**
+         * the transitions of the coalesced updates, oldest first, inserted along with the update
+         */
+        private List<StoredTransition> transitions = new ArrayList<>(1);
+        private final CompletableFuture<Void> flushed = new CompletableFuture<>();
+
+        /**
+         * @param machine the updated machine, with the version it was derived from. the update holds it with the next
+         *                version, which it is written with.
+         */
+        PendingUpdate(Machine<S, E> machine, long epochMilliForUpdate, Map<String, String> previousContext, StoredTransition transition) {
+            this.expectedVersion = machine.getVersion();
+            this.machine = machine instanceof MachineInstanceImpl ? ((MachineInstanceImpl<S, E>) machine).withVersion(machine.getVersion() + 1) : machine;
+            this.epochMilliForUpdate = epochMilliForUpdate;
+            this.previousContext = previousContext;
+            if (transition != null)
+                this.transitions.add(transition);
+        }
+
+        /**
+         * coalesces a newer update of the same machine into this one, the delta still starts from this update's
+         * previous context
+         */
+        void supersede(PendingUpdate<S, E> newer) {
+            this.machine = newer.machine;
+            this.epochMilliForUpdate = newer.epochMilliForUpdate;
+            this.transitions.addAll(newer.transitions);
+            if (newer.previousContext == null)
+                this.previousContext = null;
+        }
+
+        /**
+         * makes this update start from where the specified, older and unwritten, update started: its delta, its
+         * transitions, and the version the machine has in the database
+         */
+        void rebase(PendingUpdate<S, E> older) {
+            this.expectedVersion = older.expectedVersion;
+            this.attempts = older.attempts;
+            final List<StoredTransition> all = new ArrayList<>(older.transitions.size() + this.transitions.size());
+            all.addAll(older.transitions);
+            all.addAll(this.transitions);
+            this.transitions = all;
+            if (older.previousContext == null)
+                this.previousContext = null;
+            else if (this.previousContext != null)
+                this.previousContext = older.previousContext;
+        }
+
+        ContextDelta contextDelta() {
+            return previousContext == null
+                    ? ContextDelta.replacing(machine.getId(), machine.getContext())
+                    : ContextDelta.between(machine.getId(), previousContext, machine.getContext());
+        }
+    }
+}
@@ -0,0 +1,32 @@
+/*
+ *  Copyright 2019 <---> Present Status Machina Contributors (https://github.com/entzik/status-machina/graphs/contributors)
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  This software is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR
+ *  CONDITIONS OF ANY KIND, either express or implied. See the License for the
+ *  specific language governing permissions and limitations under the License.
+ *
+ */
+
+package io.statusmachina.spring.jpa.autoconfig;
+
+/**
+ * defines where the context of a machine is stored
+ */
+public enum ContextStorage {
+    /**
+     * one row per context entry, in the sm_context_entries table
+     */
+    TABLE,
+    /**
+     * a single binary value, in the context_data column of the sm_states table, so that a machine is read with a
+     * single row fetch. when this mode is enabled, contexts still stored in the sm_context_entries table are moved to
+     * the column at startup.
+     */
+    COLUMN
+}
@@ -0,0 +1,59 @@
+/*
+ *  Copyright 2019 <---> Present Status Machina Contributors (https://github.com/entzik/status-machina/graphs/contributors)
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  This software is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR
+ *  CONDITIONS OF ANY KIND, either express or implied. See the License for the
+ *  specific language governing permissions and limitations under the License.
+ *
+ */
+
+package io.statusmachina.spring.jpa.autoconfig;
+
+public class MachineCache {
+    private boolean enabled = false;
+    private long maximumSize = 10_000;
+    private long expireAfterAccessMillis = 60_000;
+    /**
+     * whether a cached machine is checked against the version stored in the database before it is returned. only
+     * disable it if no other process updates the machines.
+     */
+    private boolean validate = true;
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    public void setEnabled(boolean enabled) {
+        this.enabled = enabled;
+    }
+
+    public long getMaximumSize() {
+        return maximumSize;
+    }
+
+    public void setMaximumSize(long maximumSize) {
+        this.maximumSize = maximumSize;
+    }
+
+    public long getExpireAfterAccessMillis() {
+        return expireAfterAccessMillis;
+    }
+
+    public void setExpireAfterAccessMillis(long expireAfterAccessMillis) {
+        this.expireAfterAccessMillis = expireAfterAccessMillis;
+    }
+
+    public boolean isValidate() {
+        return validate;
+    }
+
+    public void setValidate(boolean validate) {
+        this.validate = validate;
+    }
+}
@@ -23,9 +23,33 @@ import org.springframework.transaction.TransactionDefinition;
 public class StatusMachinaProperties {
     private int transactionIsolation = TransactionDefinition.ISOLATION_DEFAULT;
     private int transactionPropagation = TransactionDefinition.PROPAGATION_REQUIRES_NEW;
+    private UpdateMode updateMode = UpdateMode.LOAD_AND_SAVE;
+    private ContextStorage contextStorage = ContextStorage.TABLE;
+    /**
+     * the number of machines read per query by the snapshot streams
+     */
+    private int snapshotFetchSize = 1000;
+    /**
+     * the number of machines read, and written, per transaction by bulk event deliveries and bulk machine creations
+     */
+    private int bulkChunkSize = 500;
+    /**
+     * the number of machines started concurrently by bulk machine creations, 0 for the number of processors
+     */
+    private int bulkStartParallelism = 0;
+    /**
+     * whether the transitions of machines are appended to the sm_transitions table, which their history is read from
+     */
+    private boolean recordHistory = true;
 
     private TransactionRetry transactionRetry = new TransactionRetry();
 
+    private WriteBehind writeBehind = new WriteBehind();
+
+    private MachineCache machineCache = new MachineCache();
+
+    private Mailbox mailbox = new Mailbox();
+
     public int getTransactionIsolation() {
         return transactionIsolation;
     }
@@ -42,6 +66,54 @@ public class StatusMachinaProperties {
         this.transactionPropagation = transactionPropagation;
     }
 
+    public UpdateMode getUpdateMode() {
+        return updateMode;
+    }
+
+    public void setUpdateMode(UpdateMode updateMode) {
+        this.updateMode = updateMode;
+    }
+
+    public ContextStorage getContextStorage() {
+        return contextStorage;
+    }
+
+    public void setContextStorage(ContextStorage contextStorage) {
+        this.contextStorage = contextStorage;
+    }
+
+    public int getSnapshotFetchSize() {
+        return snapshotFetchSize;
+    }
+
+    public void setSnapshotFetchSize(int snapshotFetchSize) {
+        this.snapshotFetchSize = snapshotFetchSize;
+    }
+
+    public int getBulkChunkSize() {
+        return bulkChunkSize;
+    }
+
+    public void setBulkChunkSize(int bulkChunkSize) {
+        this.bulkChunkSize = bulkChunkSize;
+    }
+
+    public int getBulkStartParallelism() {
+        return bulkStartParallelism;
+    }
+
+    public void setBulkStartParallelism(int bulkStartParallelism) {
+        this.bulkStartParallelism = bulkStartParallelism;
+    }
+
+    public boolean isRecordHistory() {
+        return recordHistory;
+    }
+
+    public void setRecordHistory(boolean recordHistory) {
+        this.recordHistory = recordHistory;
+    }
+
     public TransactionRetry getTransactionRetry() {
         return transactionRetry;
     }
@@ -49,4 +121,28 @@ public class StatusMachinaProperties {
     public void setTransactionRetry(TransactionRetry transactionRetry) {
         this.transactionRetry = transactionRetry;
     }
+
+    public WriteBehind getWriteBehind() {
+        return writeBehind;
+    }
+
+    public void setWriteBehind(WriteBehind writeBehind) {
+        this.writeBehind = writeBehind;
+    }
+
+    public MachineCache getMachineCache() {
+        return machineCache;
+    }
+
+    public void setMachineCache(MachineCache machineCache) {
+        this.machineCache = machineCache;
+    }
+
+    public Mailbox getMailbox() {
+        return mailbox;
+    }
+
+    public void setMailbox(Mailbox mailbox) {
+        this.mailbox = mailbox;
+    }
 }
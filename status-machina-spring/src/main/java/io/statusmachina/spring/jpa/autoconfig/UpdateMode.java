@@ -0,0 +1,32 @@
+/*
+ *  Copyright 2019 <---> Present Status Machina Contributors (https://github.com/entzik/status-machina/graphs/contributors)
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  This software is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR
+ *  CONDITIONS OF ANY KIND, either express or implied. See the License for the
+ *  specific language governing permissions and limitations under the License.
+ *
+ */
+
+package io.statusmachina.spring.jpa.autoconfig;
+
+/**
+ * defines how the state of a machine is written to the database after a transition
+ */
+public enum UpdateMode {
+    /**
+     * the persisted state is loaded through JPA, updated and saved back
+     */
+    LOAD_AND_SAVE,
+    /**
+     * the persisted state is written with a single versioned UPDATE statement, without being loaded first. the update
+     * fails with an {@link org.springframework.dao.OptimisticLockingFailureException} if the machine was modified
+     * since it was read.
+     */
+    DIRECT
+}
@@ -0,0 +1,64 @@
+/*
+ *  Copyright 2019 <---> Present Status Machina Contributors (https://github.com/entzik/status-machina/graphs/contributors)
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  This software is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR
+ *  CONDITIONS OF ANY KIND, either express or implied. See the License for the
+ *  specific language governing permissions and limitations under the License.
+ *
+ */
+
+package io.statusmachina.spring.jpa.autoconfig;
+
+public class WriteBehind {
+    private boolean enabled = false;
+    private int batchSize = 500;
+    private long flushIntervalMillis = 20;
+    private int maxPendingUpdates = 10_000;
+    private WriteBehindDurability durability = WriteBehindDurability.GROUP_COMMIT;
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    public void setEnabled(boolean enabled) {
+        this.enabled = enabled;
+    }
+
+    public int getBatchSize() {
+        return batchSize;
+    }
+
+    public void setBatchSize(int batchSize) {
+        this.batchSize = batchSize;
+    }
+
+    public long getFlushIntervalMillis() {
+        return flushIntervalMillis;
+    }
+
+    public void setFlushIntervalMillis(long flushIntervalMillis) {
+        this.flushIntervalMillis = flushIntervalMillis;
+    }
+
+    public int getMaxPendingUpdates() {
+        return maxPendingUpdates;
+    }
+
+    public void setMaxPendingUpdates(int maxPendingUpdates) {
+        this.maxPendingUpdates = maxPendingUpdates;
+    }
+
+    public WriteBehindDurability getDurability() {
+        return durability;
+    }
+
+    public void setDurability(WriteBehindDurability durability) {
+        this.durability = durability;
+    }
+}
@@ -0,0 +1,35 @@
+/*
+ *  Copyright 2019 <---> Present Status Machina Contributors (https://github.com/entzik/status-machina/graphs/contributors)
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  This software is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR
+ *  CONDITIONS OF ANY KIND, either express or implied. See the License for the
+ *  specific language governing permissions and limitations under the License.
+ *
+ */
+
+package io.statusmachina.spring.jpa.autoconfig;
+
+/**
+ * defines when a machine update handed to the write-behind persistence callback is acknowledged
+ */
+public enum WriteBehindDurability {
+    /**
+     * the caller waits until the batch containing its update has been committed. concurrent callers share the same
+     * batch, so the cost of a commit is spread over all updates flushed together.
+     * the caller fails if its machine was modified by another node, or removed, before the batch was written.
+     */
+    GROUP_COMMIT,
+    /**
+     * the caller returns as soon as the update is buffered. updates that were not flushed yet are lost if the process
+     * dies.
+     * an update that cannot be written because its machine was modified by another node, or removed, is retried with
+     * the next batches, then dropped.
+     */
+    BUFFERED
+}
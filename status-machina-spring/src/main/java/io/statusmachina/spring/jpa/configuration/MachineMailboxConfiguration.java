@@ -0,0 +1,63 @@
+/*
+ *  Copyright 2019 <---> Present Status Machina Contributors (https://github.com/entzik/status-machina/graphs/contributors)
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  This software is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR
+ *  CONDITIONS OF ANY KIND, either express or implied. See the License for the
+ *  specific language governing permissions and limitations under the License.
+ *
+ */
+
+package io.statusmachina.spring.jpa.configuration;
+
+import io.statusmachina.core.spi.StateMachineService;
+import io.statusmachina.core.stdimpl.AsyncExecutors;
+import io.statusmachina.core.stdimpl.MachineMailboxDispatcher;
+import io.statusmachina.spring.jpa.autoconfig.StatusMachinaProperties;
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+
+@Configuration
+public class MachineMailboxConfiguration implements DisposableBean {
+    @Autowired
+    StatusMachinaProperties properties;
+
+    private ExecutorService mailboxExecutor;
+
+    /**
+     * serializes the events sent to each machine in memory, on a pool of statusmachina.spring.mailbox.threads threads
+     * if set, otherwise on the default asynchronous executor, which starts a virtual thread per mailbox run when the
+     * runtime supports them
+     */
+    @Bean
+    public MachineMailboxDispatcher machineMailboxDispatcher(StateMachineService stateMachineService) {
+        final int threads = properties.getMailbox().getThreads();
+        // the default executor is shared, and not shut down with this configuration
+        if (threads <= 0)
+            return new MachineMailboxDispatcher(stateMachineService, AsyncExecutors.defaultExecutor());
+        final AtomicInteger threadNumber = new AtomicInteger();
+        mailboxExecutor = Executors.newFixedThreadPool(threads, runnable -> {
+            final Thread thread = new Thread(runnable, "status-machina-mailbox-" + threadNumber.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+        return new MachineMailboxDispatcher(stateMachineService, mailboxExecutor);
+    }
+
+    @Override
+    public void destroy() {
+        if (mailboxExecutor != null)
+            mailboxExecutor.shutdown();
+    }
+}
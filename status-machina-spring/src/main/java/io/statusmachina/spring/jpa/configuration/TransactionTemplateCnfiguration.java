@@ -20,11 +20,13 @@ import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
 import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.TransactionDefinition;
 import org.springframework.transaction.support.TransactionTemplate;
 
 @Configuration
 public class TransactionTemplateCnfiguration {
     public static final String STATUS_MACHINA_TRANSACTION_TEMPLATE = "status-machina-transaction-template";
+    public static final String STATUS_MACHINA_JOINING_TRANSACTION_TEMPLATE = "status-machina-joining-transaction-template";
 
     @Autowired
     PlatformTransactionManager platformTransactionManager;
@@ -39,4 +41,16 @@ public class TransactionTemplateCnfiguration {
         transactionTemplate.setPropagationBehavior(config.getTransactionPropagation());
         return transactionTemplate;
     }
+
+    /**
+     * a transaction template that joins the ongoing transaction if there is one, used to group statements that must be
+     * applied atomically
+     */
+    @Bean(STATUS_MACHINA_JOINING_TRANSACTION_TEMPLATE)
+    public TransactionTemplate buildJoiningTransactionTemplate() {
+        final TransactionTemplate transactionTemplate = new TransactionTemplate(platformTransactionManager);
+        transactionTemplate.setIsolationLevel(config.getTransactionIsolation());
+        transactionTemplate.setPropagationBehavior(TransactionDefinition.PROPAGATION_REQUIRED);
+        return transactionTemplate;
+    }
 }
@@ -0,0 +1,83 @@
+/*
+ *  Copyright 2019 <---> Present Status Machina Contributors (https://github.com/entzik/status-machina/graphs/contributors)
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  This software is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR
+ *  CONDITIONS OF ANY KIND, either express or implied. See the License for the
+ *  specific language governing permissions and limitations under the License.
+ *
+ */
+
+package io.statusmachina.spring.jpa.model;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * <p>Encodes a machine context into the compact binary value stored in the context_data column, and back.</p>
+ *
+ * <p>The value is the number of entries followed by each key and value, all big endian. A string is written as its
+ * length in bytes, or -1 for null, followed by its UTF-8 bytes. This layout can also be produced in SQL, which is how
+ * existing contexts are migrated from the sm_context_entries table.</p>
+ */
+public final class ContextCodec {
+    private static final int NULL_LENGTH = -1;
+
+    private ContextCodec() {
+    }
+
+    public static byte[] encode(Map<String, String> context) {
+        final byte[][] encoded = new byte[context.size() * 2][];
+        int size = Integer.BYTES;
+        int i = 0;
+        for (Map.Entry<String, String> entry : context.entrySet()) {
+            encoded[i] = toBytes(entry.getKey());
+            encoded[i + 1] = toBytes(entry.getValue());
+            size += 2 * Integer.BYTES + length(encoded[i]) + length(encoded[i + 1]);
+            i += 2;
+        }
+
+        final ByteBuffer buffer = ByteBuffer.allocate(size);
+        buffer.putInt(context.size());
+        for (byte[] bytes : encoded) {
+            if (bytes == null)
+                buffer.putInt(NULL_LENGTH);
+            else
+                buffer.putInt(bytes.length).put(bytes);
+        }
+        return buffer.array();
+    }
+
+    public static Map<String, String> decode(byte[] data) {
+        final ByteBuffer buffer = ByteBuffer.wrap(data);
+        final int count = buffer.getInt();
+        final Map<String, String> context = new HashMap<>(count * 4 / 3 + 1);
+        for (int i = 0; i < count; i++)
+            context.put(readString(buffer), readString(buffer));
+        return context;
+    }
+
+    private static byte[] toBytes(String s) {
+        return s == null ? null : s.getBytes(StandardCharsets.UTF_8);
+    }
+
+    private static int length(byte[] bytes) {
+        return bytes == null ? 0 : bytes.length;
+    }
+
+    private static String readString(ByteBuffer buffer) {
+        final int length = buffer.getInt();
+        if (length == NULL_LENGTH)
+            return null;
+        final String s = new String(buffer.array(), buffer.position(), length, StandardCharsets.UTF_8);
+        buffer.position(buffer.position() + length);
+        return s;
+    }
+}
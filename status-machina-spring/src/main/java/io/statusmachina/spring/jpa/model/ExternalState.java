@@ -24,7 +24,9 @@ import java.util.Map;
 
 @Entity
 @Table(name = "sm_states", indexes = {
-        @Index(columnList = "done")
+        @Index(columnList = "done"),
+        @Index(name = "sm_states_crt_state", columnList = "crt_state, id"),
+        @Index(name = "sm_states_type_state", columnList = "typename, crt_state")
 })
 public class ExternalState {
     @Id
@@ -72,6 +74,13 @@ public class ExternalState {
     @CollectionTable(name = "sm_context_entries", joinColumns = @JoinColumn(name = "machine_id"))
     Map<String, String> context;
 
+    /**
+     * the context, encoded by {@link ContextCodec}, when it is stored in a column rather than in the sm_context_entries
+     * table. null if the context is stored in the table.
+     */
+    @Column(name = "context_data")
+    byte[] contextData;
+
     /**
      * milliseconds since last time this state was updated
      */
@@ -139,6 +148,15 @@ public class ExternalState {
         return this;
     }
 
+    public byte[] getContextData() {
+        return contextData;
+    }
+
+    public ExternalState setContextData(byte[] contextData) {
+        this.contextData = contextData;
+        return this;
+    }
+
     public long getLastModifiedEpoch() {
         return lastModifiedEpoch;
     }
@@ -0,0 +1,62 @@
+/*
+ *  Copyright 2019 <---> Present Status Machina Contributors (https://github.com/entzik/status-machina/graphs/contributors)
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  This software is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR
+ *  CONDITIONS OF ANY KIND, either express or implied. See the License for the
+ *  specific language governing permissions and limitations under the License.
+ *
+ */
+
+package io.statusmachina.spring.jpa.model;
+
+/**
+ * a row of the sm_transitions table: a transition of a machine, with its states and events as strings
+ */
+public class StoredTransition {
+    private final String machineId;
+    private final String state;
+    private final String event;
+    private final String error;
+    private final long transitionTime;
+
+    /**
+     * @param machineId      the id of the machine
+     * @param state          the state the transition led to, or the state of the machine if it failed
+     * @param event          the event that triggered the transition, null for STP transitions
+     * @param error          the error the transition failed with, null if it succeeded
+     * @param transitionTime when the transition happened, in milliseconds since the epoch
+     */
+    public StoredTransition(String machineId, String state, String event, String error, long transitionTime) {
+        this.machineId = machineId;
+        this.state = state;
+        this.event = event;
+        this.error = error;
+        this.transitionTime = transitionTime;
+    }
+
+    public String getMachineId() {
+        return machineId;
+    }
+
+    public String getState() {
+        return state;
+    }
+
+    public String getEvent() {
+        return event;
+    }
+
+    public String getError() {
+        return error;
+    }
+
+    public long getTransitionTime() {
+        return transitionTime;
+    }
+}
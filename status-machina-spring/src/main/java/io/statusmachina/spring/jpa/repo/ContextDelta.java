@@ -0,0 +1,100 @@
+/*
+ *  Copyright 2019 <---> Present Status Machina Contributors (https://github.com/entzik/status-machina/graphs/contributors)
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  This software is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR
+ *  CONDITIONS OF ANY KIND, either express or implied. See the License for the
+ *  specific language governing permissions and limitations under the License.
+ *
+ */
+
+package io.statusmachina.spring.jpa.repo;
+
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.ImmutableSet;
+import com.google.common.collect.MapDifference;
+import com.google.common.collect.Maps;
+
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * The context entries that must be written to bring the persisted context of a machine from one state to another.
+ * A delta either lists the entries that were added or changed and the keys that were removed, or, when the persisted
+ * context is not known, replaces the whole context.
+ */
+public class ContextDelta {
+    private final String machineId;
+    private final boolean replace;
+    private final Map<String, String> upserts;
+    private final Set<String> removals;
+
+    private ContextDelta(String machineId, boolean replace, Map<String, String> upserts, Set<String> removals) {
+        this.machineId = machineId;
+        this.replace = replace;
+        this.upserts = upserts;
+        this.removals = removals;
+    }
+
+    /**
+     * computes the entries that must be written to turn the previous context into the target one
+     *
+     * @param machineId the machine id
+     * @param previous  the context as it is persisted
+     * @param target    the context the machine must have
+     * @return the delta, empty if the two contexts are equal
+     */
+    public static ContextDelta between(String machineId, Map<String, String> previous, Map<String, String> target) {
+        if (previous == target)
+            return new ContextDelta(machineId, false, ImmutableMap.of(), ImmutableSet.of());
+
+        final MapDifference<String, String> difference = Maps.difference(previous, target);
+        final ImmutableMap.Builder<String, String> upserts = ImmutableMap.builder();
+        upserts.putAll(difference.entriesOnlyOnRight());
+        for (Map.Entry<String, MapDifference.ValueDifference<String>> entry : difference.entriesDiffering().entrySet())
+            upserts.put(entry.getKey(), entry.getValue().rightValue());
+        return new ContextDelta(machineId, false, upserts.build(), ImmutableSet.copyOf(difference.entriesOnlyOnLeft().keySet()));
+    }
+
+    /**
+     * builds a delta that deletes all persisted entries of the machine and writes the target context
+     *
+     * @param machineId the machine id
+     * @param target    the context the machine must have
+     * @return the delta
+     */
+    public static ContextDelta replacing(String machineId, Map<String, String> target) {
+        return new ContextDelta(machineId, true, ImmutableMap.copyOf(target), ImmutableSet.of());
+    }
+
+    public String getMachineId() {
+        return machineId;
+    }
+
+    /**
+     * @return true if all persisted entries must be deleted before the upserts are written
+     */
+    public boolean isReplace() {
+        return replace;
+    }
+
+    public Map<String, String> getUpserts() {
+        return upserts;
+    }
+
+    public Set<String> getRemovals() {
+        return removals;
+    }
+
+    /**
+     * @return true if nothing needs to be written
+     */
+    public boolean isEmpty() {
+        return !replace && upserts.isEmpty() && removals.isEmpty();
+    }
+}
@@ -0,0 +1,485 @@
+/*
+ *  Copyright 2019 <---> Present Status Machina Contributors (https://github.com/entzik/status-machina/graphs/contributors)
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  This software is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR
+ *  CONDITIONS OF ANY KIND, either express or implied. See the License for the
+ *  specific language governing permissions and limitations under the License.
+ *
+ */
+
+package io.statusmachina.spring.jpa.repo;
+
+import io.statusmachina.core.api.ErrorType;
+import io.statusmachina.spring.jpa.model.ContextCodec;
+import io.statusmachina.spring.jpa.model.ExternalState;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.stereotype.Repository;
+
+import javax.sql.DataSource;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+
+/**
+ * Plain JDBC access to the state machine tables, for the write paths that need batching or conditional statements
+ * JPA does not offer. It works on detached {@link ExternalState} instances and must be called within a transaction.
+ */
+@Repository
+public class ExternalStateJdbcRepository {
+    static final String UPDATE_STATE = "UPDATE sm_states SET typename = ?, crt_state = ?, error_type = ?, error = ?, done = ?, idle = ?, locked = ?, " +
+            "last_modified = ?, current_event = ?, transition_event_counter = ?, context_data = ?, version = version + 1 WHERE id = ?";
+    static final String INSERT_STATE = "INSERT INTO sm_states (typename, crt_state, error_type, error, done, idle, locked, " +
+            "last_modified, current_event, transition_event_counter, context_data, id, version) VALUES (?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?)";
+    static final String INSERT_CONTEXT_ENTRY = "INSERT INTO sm_context_entries (machine_id, name, value) VALUES (?, ?, ?)";
+    static final String UPDATE_STATE_VERSIONED = UPDATE_STATE + " AND version = ?";
+    static final String UPDATE_STATE_TO_VERSION = "UPDATE sm_states SET typename = ?, crt_state = ?, error_type = ?, error = ?, done = ?, idle = ?, locked = ?, " +
+            "last_modified = ?, current_event = ?, transition_event_counter = ?, context_data = ?, version = ? WHERE id = ? AND version = ?";
+    static final String INCREMENT_EVENT_COUNTER = "UPDATE sm_states SET transition_event_counter = transition_event_counter + 1, current_event = ?, " +
+            "last_modified = ?, version = version + 1 WHERE id = ? AND crt_state = ? AND transition_event_counter = ? RETURNING version";
+    static final String DELETE_CONTEXT = "DELETE FROM sm_context_entries WHERE machine_id = ?";
+    static final String UPSERT_CONTEXT_ENTRY = "INSERT INTO sm_context_entries (machine_id, name, value) VALUES (?, ?, ?) " +
+            "ON CONFLICT (machine_id, name) DO UPDATE SET value = EXCLUDED.value WHERE sm_context_entries.value IS DISTINCT FROM EXCLUDED.value";
+    static final String DELETE_CONTEXT_ENTRIES_NOT_IN = "DELETE FROM sm_context_entries WHERE machine_id = ? AND name <> ALL (?)";
+    static final String DELETE_CONTEXT_ENTRY = "DELETE FROM sm_context_entries WHERE machine_id = ? AND name = ?";
+    static final String SELECT_STATE_COLUMNS = "SELECT id, version, typename, crt_state, error_type, error, done, idle, locked, last_modified, " +
+            "current_event, transition_event_counter, context_data FROM sm_states";
+    static final String SELECT_STATE = SELECT_STATE_COLUMNS + " WHERE id = ?";
+    static final String SELECT_STATES = SELECT_STATE_COLUMNS + " WHERE id = ANY (?)";
+    static final String SELECT_VERSION = "SELECT version FROM sm_states WHERE id = ?";
+    static final String SELECT_CONTEXT = "SELECT name, value FROM sm_context_entries WHERE machine_id = ?";
+    static final String SELECT_CONTEXTS = "SELECT machine_id, name, value FROM sm_context_entries WHERE machine_id = ANY (?)";
+    static final String SELECT_SNAPSHOT = "SELECT id, typename, crt_state, error_type, error, last_modified FROM sm_states";
+    static final String SELECT_SNAPSHOT_WITH_CONTEXT = "SELECT id, typename, crt_state, error_type, error, last_modified, context_data FROM sm_states";
+    static final String STALE = "error_type = 'NONE' AND done = false AND idle = false AND last_modified < ?";
+    static final String STALE_WINDOW = "error_type = 'NONE' AND done = false AND idle = false AND last_modified < ? " +
+            "AND (last_modified, id) > (?, ?) ORDER BY last_modified, id LIMIT ?";
+    /**
+     * the partition of a machine is taken from the first 32 bits of the md5 of its id, which unlike hashtext is stable
+     * across PostgreSQL versions. the remainder is brought back to [0, partitionCount) arithmetically, as abs of the hash
+     * overflows for Integer.MIN_VALUE.
+     */
+    static final String STALE_WINDOW_IN_PARTITION = "error_type = 'NONE' AND done = false AND idle = false AND last_modified < ? " +
+            "AND ((('x' || substr(md5(id), 1, 8))::bit(32)::int % ?) + ?) % ? = ? AND (last_modified, id) > (?, ?) " +
+            "ORDER BY last_modified, id LIMIT ?";
+    static final String IN_STATE = "crt_state = ?";
+    static final String DONE = "done = ?";
+    /**
+     * encodes the entries of each machine of a chunk whose context is stored in the table the way {@link ContextCodec}
+     * does. the chunk is bounded by id, so that each statement only touches a limited number of rows.
+     */
+    static final String MIGRATE_CONTEXT_TO_COLUMN = "UPDATE sm_states s SET context_data = (" +
+            "SELECT int4send(count(*)::int4) || COALESCE(string_agg(" +
+            "int4send(octet_length(convert_to(e.name, 'UTF8'))) || convert_to(e.name, 'UTF8') || " +
+            "COALESCE(int4send(octet_length(convert_to(e.value, 'UTF8'))) || convert_to(e.value, 'UTF8'), int4send(-1)), ''::bytea), ''::bytea) " +
+            "FROM sm_context_entries e WHERE e.machine_id = s.id) " +
+            "WHERE s.id IN (SELECT id FROM sm_states WHERE context_data IS NULL AND id > ? ORDER BY id LIMIT ?) RETURNING s.id";
+    static final String DELETE_MIGRATED_CONTEXT_ENTRIES = "DELETE FROM sm_context_entries WHERE machine_id = ANY (?)";
+    static final String ANY_CONTEXT_ENTRY = "SELECT EXISTS (SELECT 1 FROM sm_context_entries)";
+
+    private final JdbcTemplate jdbcTemplate;
+
+    public ExternalStateJdbcRepository(DataSource dataSource) {
+        this.jdbcTemplate = new JdbcTemplate(dataSource);
+    }
+
+    /**
+     * inserts the specified machines, using batch statements, without checking whether they exist. the entries of
+     * the contexts that are not stored in the context_data column are inserted in the sm_context_entries table.
+     *
+     * @param states    the machine states to insert, with the version they start at
+     * @param batchSize the maximum number of statements sent in one batch
+     */
+    public void insertStates(List<ExternalState> states, int batchSize) {
+        jdbcTemplate.batchUpdate(INSERT_STATE, states, batchSize, (ps, state) -> {
+            setStateValues(ps, state);
+            ps.setLong(13, state.getVersion());
+        });
+
+        final List<Object[]> entries = new ArrayList<>();
+        for (ExternalState state : states)
+            if (state.getContextData() == null)
+                for (Map.Entry<String, String> entry : state.getContext().entrySet())
+                    entries.add(new Object[]{state.getId(), entry.getKey(), entry.getValue()});
+        if (!entries.isEmpty())
+            jdbcTemplate.batchUpdate(INSERT_CONTEXT_ENTRY, entries, batchSize, (ps, entry) -> {
+                ps.setString(1, (String) entry[0]);
+                ps.setString(2, (String) entry[1]);
+                ps.setString(3, (String) entry[2]);
+            });
+    }
+
+    /**
+     * updates the specified machines, using batch statements, provided the persisted version of each matches the
+     * version of its state, and increments their version. the context_data column is written, the
+     * sm_context_entries table is not touched.
+     *
+     * @param states    the machine states to write, each with the version the machine is expected to have
+     * @param batchSize the maximum number of statements sent in one batch
+     * @return the ids of the machines that were not updated, because they do not exist or their version did not match
+     */
+    public List<String> updateStatesVersioned(List<ExternalState> states, int batchSize) {
+        final int[][] updated = jdbcTemplate.batchUpdate(UPDATE_STATE_VERSIONED, states, batchSize, (ps, state) -> {
+            setStateValues(ps, state);
+            ps.setLong(13, state.getVersion());
+        });
+        return notUpdated(states, updated);
+    }
+
+    /**
+     * updates the specified machines, using batch statements, provided the persisted version of each matches the
+     * expected one, and sets their version to the version of their state. it lets several updates of a machine be
+     * written at once while the version keeps counting each of them. the context_data column is written, the
+     * sm_context_entries table is not touched.
+     *
+     * @param states           the machine states to write, each with the version the machine must have once written
+     * @param expectedVersions the version each machine is expected to have in the database, in the order of the states
+     * @param batchSize        the maximum number of statements sent in one batch
+     * @return the ids of the machines that were not updated, because they do not exist or their version did not match
+     */
+    public List<String> updateStatesToVersion(List<ExternalState> states, List<Long> expectedVersions, int batchSize) {
+        final List<Integer> indexes = new ArrayList<>(states.size());
+        for (int i = 0; i < states.size(); i++)
+            indexes.add(i);
+        final int[][] updated = jdbcTemplate.batchUpdate(UPDATE_STATE_TO_VERSION, indexes, batchSize, (ps, i) -> {
+            final ExternalState state = states.get(i);
+            setStateColumns(ps, state);
+            ps.setLong(12, state.getVersion());
+            ps.setString(13, state.getId());
+            ps.setLong(14, expectedVersions.get(i));
+        });
+        return notUpdated(states, updated);
+    }
+
+    /**
+     * writes the specified context deltas, using batch statements. only the entries that were added, changed or
+     * removed are written, unless a delta replaces the whole context.
+     *
+     * @param deltas    the context deltas to write
+     * @param batchSize the maximum number of statements sent in one batch
+     */
+    public void applyContextDeltas(List<ContextDelta> deltas, int batchSize) {
+        final List<String> replaced = new ArrayList<>();
+        final List<Object[]> removals = new ArrayList<>();
+        final List<Object[]> upserts = new ArrayList<>();
+        for (ContextDelta delta : deltas) {
+            if (delta.isReplace())
+                replaced.add(delta.getMachineId());
+            for (String name : delta.getRemovals())
+                removals.add(new Object[]{delta.getMachineId(), name});
+            for (Map.Entry<String, String> entry : delta.getUpserts().entrySet())
+                upserts.add(new Object[]{delta.getMachineId(), entry.getKey(), entry.getValue()});
+        }
+
+        if (!replaced.isEmpty())
+            jdbcTemplate.batchUpdate(DELETE_CONTEXT, replaced, batchSize, (ps, id) -> ps.setString(1, id));
+        if (!removals.isEmpty())
+            jdbcTemplate.batchUpdate(DELETE_CONTEXT_ENTRY, removals, batchSize, (ps, removal) -> {
+                ps.setString(1, (String) removal[0]);
+                ps.setString(2, (String) removal[1]);
+            });
+        if (!upserts.isEmpty())
+            jdbcTemplate.batchUpdate(UPSERT_CONTEXT_ENTRY, upserts, batchSize, (ps, entry) -> {
+                ps.setString(1, (String) entry[0]);
+                ps.setString(2, (String) entry[1]);
+                ps.setString(3, (String) entry[2]);
+            });
+    }
+
+    /**
+     * writes the specified context delta, in as few statements as possible
+     *
+     * @param delta the context delta to write
+     */
+    public void applyContextDelta(ContextDelta delta) {
+        if (!delta.isEmpty())
+            applyContextDeltas(List.of(delta), Math.max(delta.getUpserts().size(), delta.getRemovals().size()) + 1);
+    }
+
+    /**
+     * updates a machine, provided its persisted version matches the expected one, and increments its version. the
+     * context_data column is written, the sm_context_entries table is not touched.
+     *
+     * @param state           the machine state to write
+     * @param expectedVersion the version the machine is expected to have in the database
+     * @return true if the machine was updated, false if it does not exist or its version did not match
+     */
+    public boolean update(ExternalState state, long expectedVersion) {
+        return jdbcTemplate.update(UPDATE_STATE_VERSIONED, ps -> {
+            setStateValues(ps, state);
+            ps.setLong(13, expectedVersion);
+        }) == 1;
+    }
+
+    /**
+     * increments the event counter of a machine, provided it is still in the specified state and its counter still has
+     * the expected value, and increments its version. the other columns and the context are not touched.
+     *
+     * @param id              the machine id
+     * @param currentState    the state the machine is expected to be in
+     * @param expectedCounter the event counter the machine is expected to have
+     * @param currentEvent    the event the machine is counting, null if not known
+     * @param lastModified    the modification time, in milliseconds since the epoch
+     * @return the version of the machine after the update, or empty if the machine does not exist or did not match
+     */
+    public Optional<Long> incrementEventCounter(String id, String currentState, long expectedCounter, String currentEvent, long lastModified) {
+        final List<Long> versions = jdbcTemplate.queryForList(INCREMENT_EVENT_COUNTER, Long.class, currentEvent, lastModified, id, currentState, expectedCounter);
+        return versions.isEmpty() ? Optional.empty() : Optional.of(versions.get(0));
+    }
+
+    /**
+     * makes the persisted context of a machine match the specified one. the comparison is done by the database, so
+     * only the entries that were actually added, changed or removed are written.
+     *
+     * @param id      the machine id
+     * @param context the context the machine must have
+     */
+    public void replaceContext(String id, Map<String, String> context) {
+        final List<Map.Entry<String, String>> entries = new ArrayList<>(context.entrySet());
+        if (!entries.isEmpty())
+            jdbcTemplate.batchUpdate(UPSERT_CONTEXT_ENTRY, entries, entries.size(), (ps, entry) -> {
+                ps.setString(1, id);
+                ps.setString(2, entry.getKey());
+                ps.setString(3, entry.getValue());
+            });
+        jdbcTemplate.update(DELETE_CONTEXT_ENTRIES_NOT_IN, ps -> {
+            ps.setString(1, id);
+            ps.setArray(2, ps.getConnection().createArrayOf("varchar", context.keySet().toArray()));
+        });
+    }
+
+    /**
+     * reads a machine with a single row fetch when its context is stored in the context_data column. otherwise its
+     * context is read from the sm_context_entries table.
+     *
+     * @param id the machine id
+     * @return the detached machine state, or empty if there is no machine with that id
+     */
+    public Optional<ExternalState> findById(String id) {
+        final List<ExternalState> states = jdbcTemplate.query(SELECT_STATE, ExternalStateJdbcRepository::mapState, id);
+        if (states.isEmpty())
+            return Optional.empty();
+
+        final ExternalState state = states.get(0);
+        state.setContext(state.getContextData() == null ? findContext(id) : new HashMap<>());
+        return Optional.of(state);
+    }
+
+    /**
+     * reads several machines in one query, and the contexts of those whose context is not stored in the context_data
+     * column in another one
+     *
+     * @param ids the machine ids
+     * @return the detached machine states, by id. ids that match no machine are left out.
+     */
+    public Map<String, ExternalState> findByIds(Collection<String> ids) {
+        final Map<String, ExternalState> states = new HashMap<>();
+        jdbcTemplate.query(SELECT_STATES, ps -> ps.setArray(1, ps.getConnection().createArrayOf("varchar", ids.toArray())), rs -> {
+            final ExternalState state = mapState(rs, 0).setContext(new HashMap<>());
+            states.put(state.getId(), state);
+        });
+        readTableStoredContexts(states.values());
+        return states;
+    }
+
+    /**
+     * @param id the machine id
+     * @return the version of the machine, or empty if there is no machine with that id
+     */
+    public Optional<Long> findVersion(String id) {
+        final List<Long> versions = jdbcTemplate.queryForList(SELECT_VERSION, Long.class, id);
+        return versions.isEmpty() ? Optional.empty() : Optional.of(versions.get(0));
+    }
+
+    /**
+     * finds a page of the machines that are neither failed, done nor idle and were last modified before the
+     * specified time, ordered by id
+     *
+     * @param lastModifiedBefore the staleness reference, in milliseconds since the epoch
+     * @param afterId            only machines whose id sorts after this one are returned, "" for the first page
+     * @param limit              the maximum number of machines to return
+     * @param withContext        whether the context of the machines is read as well
+     * @return the detached machine states, with an empty context if it was not read
+     */
+    public List<ExternalState> findStale(long lastModifiedBefore, String afterId, int limit, boolean withContext) {
+        return findPage(STALE, lastModifiedBefore, afterId, limit, withContext);
+    }
+
+    /**
+     * finds a page of the machines that are neither failed, done nor idle and were last modified before the
+     * specified time, ordered by last modification time and id. pages are walked with the last modification time and
+     * id of the last machine of the previous page.
+     *
+     * @param lastModifiedBefore the staleness reference, in milliseconds since the epoch
+     * @param afterLastModified  only machines modified after this time, or at this time with an id that sorts after
+     *                           afterId, are returned
+     * @param afterId            see afterLastModified, "" to include all machines modified at afterLastModified
+     * @param limit              the maximum number of machines to return
+     * @param withContext        whether the context of the machines is read as well
+     * @return the detached machine states, with an empty context if it was not read
+     */
+    public List<ExternalState> findStaleByLastModified(long lastModifiedBefore, long afterLastModified, String afterId, int limit, boolean withContext) {
+        return findPage(STALE_WINDOW, withContext, lastModifiedBefore, afterLastModified, afterId, limit);
+    }
+
+    /**
+     * same as {@link #findStaleByLastModified(long, long, String, int, boolean)}, restricted to the machines whose id hash
+     * falls in the specified partition
+     *
+     * @param partition      the partition, from 0 to partitionCount - 1
+     * @param partitionCount the number of partitions the machines are spread over
+     */
+    public List<ExternalState> findStaleByLastModifiedInPartition(int partition, int partitionCount, long lastModifiedBefore, long afterLastModified, String afterId, int limit, boolean withContext) {
+        return findPage(STALE_WINDOW_IN_PARTITION, withContext, lastModifiedBefore, partitionCount, partitionCount, partitionCount, partition, afterLastModified, afterId, limit);
+    }
+
+    /**
+     * finds a page of the machines in the specified state, ordered by id
+     *
+     * @see #findStale(long, String, int, boolean)
+     */
+    public List<ExternalState> findByCurrentState(String currentState, String afterId, int limit, boolean withContext) {
+        return findPage(IN_STATE, currentState, afterId, limit, withContext);
+    }
+
+    /**
+     * finds a page of the machines that are, or are not, in a terminal state, ordered by id
+     *
+     * @see #findStale(long, String, int, boolean)
+     */
+    public List<ExternalState> findByDone(boolean done, String afterId, int limit, boolean withContext) {
+        return findPage(DONE, done, afterId, limit, withContext);
+    }
+
+    /**
+     * @return true if any context is stored in the sm_context_entries table
+     */
+    public boolean hasTableStoredContexts() {
+        return jdbcTemplate.queryForObject(ANY_CONTEXT_ENTRY, Boolean.class);
+    }
+
+    /**
+     * moves the contexts stored in the sm_context_entries table to the context_data column, for a chunk of the
+     * machines whose context is not stored in the column, ordered by id. machines whose context is already stored in
+     * the column are not touched.
+     *
+     * @param afterId only machines whose id sorts after this one are migrated, "" for the first chunk
+     * @param limit   the maximum number of machines to migrate
+     * @return the ids of the machines whose context was moved. the chunk was the last one if there are fewer than limit.
+     */
+    public List<String> migrateContextsToColumn(String afterId, int limit) {
+        final List<String> migrated = jdbcTemplate.queryForList(MIGRATE_CONTEXT_TO_COLUMN, String.class, afterId, limit);
+        if (!migrated.isEmpty())
+            jdbcTemplate.update(DELETE_MIGRATED_CONTEXT_ENTRIES, ps -> ps.setArray(1, ps.getConnection().createArrayOf("varchar", migrated.toArray())));
+        return migrated;
+    }
+
+    private List<ExternalState> findPage(String condition, Object conditionValue, String afterId, int limit, boolean withContext) {
+        return findPage(condition + " AND id > ? ORDER BY id LIMIT ?", withContext, conditionValue, afterId, limit);
+    }
+
+    private List<ExternalState> findPage(String conditionAndOrder, boolean withContext, Object... params) {
+        final String sql = (withContext ? SELECT_SNAPSHOT_WITH_CONTEXT : SELECT_SNAPSHOT) + " WHERE " + conditionAndOrder;
+        final List<ExternalState> states = jdbcTemplate.query(sql, (rs, rowNum) -> new ExternalState()
+                .setId(rs.getString("id"))
+                .setType(rs.getString("typename"))
+                .setCurrentState(rs.getString("crt_state"))
+                .setErrorType(ErrorType.valueOf(rs.getString("error_type")))
+                .setError(rs.getString("error"))
+                .setLastModifiedEpoch(rs.getLong("last_modified"))
+                .setContextData(withContext ? rs.getBytes("context_data") : null)
+                .setContext(new HashMap<>()), params);
+
+        if (withContext)
+            readTableStoredContexts(states);
+        return states;
+    }
+
+    /**
+     * reads, in one query, the context entries of the specified machines whose context is not stored in the
+     * context_data column, into their context map
+     */
+    private void readTableStoredContexts(Collection<ExternalState> states) {
+        final Map<String, ExternalState> tableStored = new HashMap<>();
+        for (ExternalState state : states)
+            if (state.getContextData() == null)
+                tableStored.put(state.getId(), state);
+        if (!tableStored.isEmpty())
+            jdbcTemplate.query(SELECT_CONTEXTS, ps -> ps.setArray(1, ps.getConnection().createArrayOf("varchar", tableStored.keySet().toArray())), rs -> {
+                tableStored.get(rs.getString("machine_id")).getContext().put(rs.getString("name"), rs.getString("value"));
+            });
+    }
+
+    private Map<String, String> findContext(String id) {
+        final Map<String, String> context = new HashMap<>();
+        jdbcTemplate.query(SELECT_CONTEXT, rs -> {
+            context.put(rs.getString("name"), rs.getString("value"));
+        }, id);
+        return context;
+    }
+
+    private static ExternalState mapState(ResultSet rs, int rowNum) throws SQLException {
+        return new ExternalState()
+                .setId(rs.getString("id"))
+                .setVersion(rs.getInt("version"))
+                .setType(rs.getString("typename"))
+                .setCurrentState(rs.getString("crt_state"))
+                .setErrorType(ErrorType.valueOf(rs.getString("error_type")))
+                .setError(rs.getString("error"))
+                .setDone(rs.getBoolean("done"))
+                .setIdle(rs.getBoolean("idle"))
+                .setLocked(rs.getBoolean("locked"))
+                .setLastModifiedEpoch(rs.getLong("last_modified"))
+                .setCurrentEvent(rs.getString("current_event"))
+                .setTransitionEventCounter(rs.getLong("transition_event_counter"))
+                .setContextData(rs.getBytes("context_data"));
+    }
+
+    /**
+     * @return the ids of the states whose statement updated no row
+     */
+    private static List<String> notUpdated(List<ExternalState> states, int[][] updated) {
+        final List<String> notUpdated = new ArrayList<>();
+        int i = 0;
+        for (int[] batch : updated)
+            for (int count : batch) {
+                if (count == 0)
+                    notUpdated.add(states.get(i).getId());
+                i++;
+            }
+        return notUpdated;
+    }
+
+    private static void setStateValues(PreparedStatement ps, ExternalState state) throws SQLException {
+        setStateColumns(ps, state);
+        ps.setString(12, state.getId());
+    }
+
+    /**
+     * sets the first 11 parameters, the columns every update writes
+     */
+    private static void setStateColumns(PreparedStatement ps, ExternalState state) throws SQLException {
+        ps.setString(1, state.getType());
+        ps.setString(2, state.getCurrentState());
+        ps.setString(3, state.getErrorType().name());
+        ps.setString(4, state.getError());
+        ps.setBoolean(5, state.isDone());
+        ps.setBoolean(6, state.isIdle());
+        ps.setBoolean(7, state.isLocked());
+        ps.setLong(8, state.getLastModifiedEpoch());
+        ps.setString(9, state.getCurrentEvent());
+        ps.setLong(10, state.getTransitionEventCounter());
+        ps.setBytes(11, state.getContextData());
+    }
+}
@@ -23,7 +23,8 @@ import org.springframework.data.jpa.repository.Query;
 import java.util.List;
 
 public interface ExternalStateRepository extends JpaRepository<ExternalState, String> {
-    @Query("SELECT s FROM ExternalState s WHERE s.errorType = 'NONE' AND s.done IS false AND s.idle IS false AND s.lastModifiedEpoch < ?1")
+    // the predicate matches the one of the partial sm_states_stale index
+    @Query("SELECT s FROM ExternalState s WHERE s.errorType = 'NONE' AND s.done = false AND s.idle = false AND s.lastModifiedEpoch < ?1")
     List<ExternalState> findAllByLastModifiedEpochLessThan(long lastModifiedEpoch);
     List<ExternalState> findAllByCurrentState(String currentState);
     List<ExternalState> findAllByDone(boolean done);
@@ -0,0 +1,128 @@
+/*
+ *  Copyright 2019 <---> Present Status Machina Contributors (https://github.com/entzik/status-machina/graphs/contributors)
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  This software is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR
+ *  CONDITIONS OF ANY KIND, either express or implied. See the License for the
+ *  specific language governing permissions and limitations under the License.
+ *
+ */
+
+package io.statusmachina.spring.jpa.repo;
+
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.stereotype.Repository;
+
+import javax.sql.DataSource;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Plain JDBC access to the leases that spread the scan for stalled machines over the nodes of a cluster. Machines are
+ * spread over a fixed number of partitions by a hash of their id, each partition is leased by one node at a time, and
+ * each node leases its fair share of the partitions given the number of live nodes. It must be called within a
+ * transaction.
+ */
+@Repository
+public class StalledPartitionJdbcRepository {
+    static final String UPSERT_NODE = "INSERT INTO sm_stalled_nodes (node_id, heartbeat) VALUES (?, ?) " +
+            "ON CONFLICT (node_id) DO UPDATE SET heartbeat = EXCLUDED.heartbeat";
+    static final String DELETE_DEAD_NODES = "DELETE FROM sm_stalled_nodes WHERE heartbeat < ?";
+    static final String DELETE_NODE = "DELETE FROM sm_stalled_nodes WHERE node_id = ?";
+    static final String COUNT_NODES = "SELECT count(*) FROM sm_stalled_nodes";
+    static final String COUNT_PARTITIONS = "SELECT count(*) FROM sm_stalled_partitions";
+    static final String RESET_WATERMARKS = "UPDATE sm_stalled_partitions SET watermark = (SELECT COALESCE(min(watermark), 0) FROM sm_stalled_partitions)";
+    static final String DELETE_PARTITIONS_FROM = "DELETE FROM sm_stalled_partitions WHERE partition_no >= ?";
+    static final String CREATE_PARTITIONS = "INSERT INTO sm_stalled_partitions (partition_no, owner, lease_expires, watermark) " +
+            "SELECT p, NULL, 0, (SELECT COALESCE(min(watermark), 0) FROM sm_stalled_partitions) FROM generate_series(0, ? - 1) p " +
+            "ON CONFLICT (partition_no) DO NOTHING";
+    static final String RENEW_LEASES = "UPDATE sm_stalled_partitions SET lease_expires = ? WHERE owner = ?";
+    static final String RELEASE_LEASES = "UPDATE sm_stalled_partitions SET owner = NULL, lease_expires = 0 WHERE partition_no IN (" +
+            "SELECT partition_no FROM sm_stalled_partitions WHERE owner = ? ORDER BY partition_no DESC LIMIT ?)";
+    static final String RELEASE_ALL_LEASES = "UPDATE sm_stalled_partitions SET owner = NULL, lease_expires = 0 WHERE owner = ?";
+    static final String CLAIM_LEASES = "UPDATE sm_stalled_partitions SET owner = ?, lease_expires = ? WHERE partition_no IN (" +
+            "SELECT partition_no FROM sm_stalled_partitions WHERE owner IS NULL OR lease_expires < ? " +
+            "ORDER BY partition_no LIMIT ? FOR UPDATE SKIP LOCKED)";
+    static final String SELECT_LEASES = "SELECT partition_no, watermark FROM sm_stalled_partitions WHERE owner = ? ORDER BY partition_no";
+    static final String ADVANCE_WATERMARK = "UPDATE sm_stalled_partitions SET watermark = ? WHERE partition_no = ? AND owner = ?";
+
+    private final JdbcTemplate jdbcTemplate;
+
+    public StalledPartitionJdbcRepository(DataSource dataSource) {
+        this.jdbcTemplate = new JdbcTemplate(dataSource);
+    }
+
+    /**
+     * records that the specified node is alive, forgets the nodes that were not seen for a lease duration, then
+     * renews the leases of the node and claims or releases partitions until it holds its fair share of them. the
+     * leases of the nodes that were not seen are claimed once they expire.
+     * <p>
+     * when the number of partitions changes, machines move between partitions, so all partitions start again from
+     * the lowest watermark.
+     *
+     * @param nodeId      the id of the node
+     * @param now         the current time, in milliseconds since the epoch
+     * @param leaseMillis how long a lease, and a heartbeat, last
+     * @param partitions  the number of partitions, all nodes must use the same
+     * @return the partitions leased by the node, and the watermark of each, ordered by partition
+     */
+    public Map<Integer, Long> rebalance(String nodeId, long now, long leaseMillis, int partitions) {
+        jdbcTemplate.update(UPSERT_NODE, nodeId, now);
+        jdbcTemplate.update(DELETE_DEAD_NODES, now - leaseMillis);
+
+        if (jdbcTemplate.queryForObject(COUNT_PARTITIONS, Integer.class) != partitions) {
+            jdbcTemplate.update(RESET_WATERMARKS);
+            jdbcTemplate.update(DELETE_PARTITIONS_FROM, partitions);
+            jdbcTemplate.update(CREATE_PARTITIONS, partitions);
+        }
+
+        final int nodes = jdbcTemplate.queryForObject(COUNT_NODES, Integer.class);
+        final int fairShare = (partitions + nodes - 1) / nodes;
+        final int leased = jdbcTemplate.update(RENEW_LEASES, now + leaseMillis, nodeId);
+        if (leased > fairShare)
+            jdbcTemplate.update(RELEASE_LEASES, nodeId, leased - fairShare);
+        else if (leased < fairShare)
+            jdbcTemplate.update(CLAIM_LEASES, nodeId, now + leaseMillis, now, fairShare - leased);
+
+        return findLeases(nodeId);
+    }
+
+    /**
+     * @param nodeId the id of the node
+     * @return the partitions leased by the node, and the watermark of each, ordered by partition
+     */
+    public Map<Integer, Long> findLeases(String nodeId) {
+        final Map<Integer, Long> leases = new LinkedHashMap<>();
+        jdbcTemplate.query(SELECT_LEASES, rs -> {
+            leases.put(rs.getInt("partition_no"), rs.getLong("watermark"));
+        }, nodeId);
+        return leases;
+    }
+
+    /**
+     * records how far a partition was scanned, if the node still leases it
+     *
+     * @param nodeId    the id of the node
+     * @param partition the partition
+     * @param watermark the new watermark, in milliseconds since the epoch
+     * @return true if the watermark was recorded, false if the partition was leased by another node meanwhile
+     */
+    public boolean advanceWatermark(String nodeId, int partition, long watermark) {
+        return jdbcTemplate.update(ADVANCE_WATERMARK, watermark, partition, nodeId) == 1;
+    }
+
+    /**
+     * releases all the leases of a node leaving the cluster, so that the other nodes can claim them right away
+     *
+     * @param nodeId the id of the node
+     */
+    public void leave(String nodeId) {
+        jdbcTemplate.update(RELEASE_ALL_LEASES, nodeId);
+        jdbcTemplate.update(DELETE_NODE, nodeId);
+    }
+}
@@ -0,0 +1,86 @@
+/*
+ *  Copyright 2019 <---> Present Status Machina Contributors (https://github.com/entzik/status-machina/graphs/contributors)
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  This software is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR
+ *  CONDITIONS OF ANY KIND, either express or implied. See the License for the
+ *  specific language governing permissions and limitations under the License.
+ *
+ */
+
+package io.statusmachina.spring.jpa.repo;
+
+import io.statusmachina.spring.jpa.model.StoredTransition;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.stereotype.Repository;
+
+import javax.sql.DataSource;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.List;
+
+/**
+ * Plain JDBC access to the sm_transitions table, which holds the history of the machines. Transitions are only ever
+ * appended, and are read back in the order they were appended. It must be called within a transaction.
+ */
+@Repository
+public class TransitionJdbcRepository {
+    static final String INSERT_TRANSITION = "INSERT INTO sm_transitions (machine_id, crt_state, event, error, transition_time) VALUES (?, ?, ?, ?, ?)";
+    static final String SELECT_TRANSITIONS = "SELECT machine_id, crt_state, event, error, transition_time FROM sm_transitions WHERE machine_id = ? ORDER BY id";
+    static final String SELECT_TRANSITIONS_PAGE = SELECT_TRANSITIONS + " LIMIT ? OFFSET ?";
+
+    private final JdbcTemplate jdbcTemplate;
+
+    public TransitionJdbcRepository(DataSource dataSource) {
+        this.jdbcTemplate = new JdbcTemplate(dataSource);
+    }
+
+    /**
+     * appends transitions, using batch statements
+     *
+     * @param transitions the transitions, in the order they were made
+     * @param batchSize   the maximum number of statements sent in one batch
+     */
+    public void insert(List<StoredTransition> transitions, int batchSize) {
+        jdbcTemplate.batchUpdate(INSERT_TRANSITION, transitions, batchSize, (ps, transition) -> {
+            ps.setString(1, transition.getMachineId());
+            ps.setString(2, transition.getState());
+            ps.setString(3, transition.getEvent());
+            ps.setString(4, transition.getError());
+            ps.setLong(5, transition.getTransitionTime());
+        });
+    }
+
+    /**
+     * @param machineId the id of the machine
+     * @return the transitions of the machine, oldest first
+     */
+    public List<StoredTransition> findByMachineId(String machineId) {
+        return jdbcTemplate.query(SELECT_TRANSITIONS, TransitionJdbcRepository::toStoredTransition, machineId);
+    }
+
+    /**
+     * @param machineId the id of the machine
+     * @param offset    the number of transitions to skip
+     * @param limit     the maximum number of transitions to return
+     * @return a page of the transitions of the machine, oldest first
+     */
+    public List<StoredTransition> findByMachineId(String machineId, int offset, int limit) {
+        return jdbcTemplate.query(SELECT_TRANSITIONS_PAGE, TransitionJdbcRepository::toStoredTransition, machineId, limit, offset);
+    }
+
+    private static StoredTransition toStoredTransition(ResultSet rs, int rowNum) throws SQLException {
+        return new StoredTransition(
+                rs.getString("machine_id"),
+                rs.getString("crt_state"),
+                rs.getString("event"),
+                rs.getString("error"),
+                rs.getLong("transition_time")
+        );
+    }
+}
@@ -13,34 +13,58 @@
  *****************************************************************************/
 package io.statusmachina.spring.jpa.service;
 
-import io.statusmachina.core.api.ErrorType;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import io.micrometer.observation.Observation;
+import io.micrometer.observation.ObservationRegistry;
 import io.statusmachina.core.api.MachineSnapshot;
 import io.statusmachina.core.api.StalledData;
 import io.statusmachina.core.spi.StateMachineService;
+import io.statusmachina.spring.jpa.repo.StalledPartitionJdbcRepository;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.beans.factory.InitializingBean;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.beans.factory.annotation.Qualifier;
 import org.springframework.beans.factory.annotation.Value;
 import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
-import org.springframework.data.util.Pair;
 import org.springframework.scheduling.annotation.EnableScheduling;
 import org.springframework.scheduling.annotation.Scheduled;
 import org.springframework.stereotype.Component;
+import org.springframework.transaction.support.TransactionTemplate;
 
-import java.util.ArrayList;
-import java.util.List;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.HashMap;
 import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
 import java.util.function.Consumer;
-import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+import static io.statusmachina.spring.jpa.configuration.TransactionTemplateCnfiguration.STATUS_MACHINA_JOINING_TRANSACTION_TEMPLATE;
 
 @Component
 @EnableScheduling
 @ConditionalOnProperty(name = "statusmachina.spring.statemachine.stalled.batch", havingValue = "true")
-public class StateMachineStalledService {
+public class StateMachineStalledService implements InitializingBean, DisposableBean {
     private final Logger LOGGER = LoggerFactory.getLogger(StateMachineStalledService.class);
 
     public static final String BEAN_STATE_MACHINE_STALLED_HANDLER = "BEAN_STATE_MACHINE_STALLED_HANDLER";
+    /**
+     * the name of the observation recorded for each scan for stalled machines
+     */
+    public static final String TICK_OBSERVATION = "statusmachina.stalled.tick";
+    /**
+     * the name of the timer recording how long each scan for stalled machines takes
+     */
+    public static final String TICK_TIMER = "statusmachina.stalled.tick.duration";
+    /**
+     * the name of the counter of stalled handler invocations
+     */
+    public static final String HANDLER_INVOCATIONS_COUNTER = "statusmachina.stalled.handler.invocations";
 
     @Autowired
     @Qualifier(BEAN_STATE_MACHINE_STALLED_HANDLER)
@@ -49,30 +73,168 @@ public class StateMachineStalledService {
     @Autowired
     private StateMachineService stateMachineService;
 
+    @Autowired(required = false)
+    private ObservationRegistry observationRegistry;
+
+    @Autowired(required = false)
+    private MeterRegistry meterRegistry;
+
+    @Autowired
+    private StalledPartitionJdbcRepository partitionRepository;
+
+    @Autowired
+    @Qualifier(STATUS_MACHINA_JOINING_TRANSACTION_TEMPLATE)
+    private TransactionTemplate transactionTemplate;
+
     public StateMachineStalledService() {
         String t = "";
     }
 
-    private List<Pair<String, Long>> stateMachineIdAndEpochStalled = new ArrayList<>();
+    /**
+     * all machines last modified before this time, in milliseconds since the epoch, and still stalled were reported.
+     * each tick only scans the machines that stalled since, plus an overlap.
+     */
+    private long watermark = 0;
+
+    /**
+     * the last modification time each machine reported within the overlap was reported with, by machine id, so that
+     * it is not reported again when the overlap is scanned. older entries are evicted at every tick.
+     */
+    private final Map<String, Long> recentlyReported = new HashMap<>();
+
+    private final AtomicLong handlerInvocations = new AtomicLong();
+    private volatile long lastTickDurationMillis;
+    /**
+     * the meters tick durations and handler invocations are exported with, null when there is no meter registry
+     */
+    private Timer tickTimer;
+    private Counter handlerInvocationsCounter;
 
     @Value("#{new Integer('${statusmachina.spring.statemachine.stalled.seconds}')}")
     private int secondForStalledMachine;
 
+    /**
+     * how far back before the watermark each tick scans again, to catch machines whose update was committed after
+     * the previous tick even though its modification time precedes it
+     */
+    @Value("#{new Integer('${statusmachina.spring.statemachine.stalled.overlap.seconds:60}')}")
+    private int overlapSeconds;
+
+    @Value("#{new Integer('${statusmachina.spring.statemachine.stalled.batch.frequency.seconds}')}")
+    private int frequencySeconds;
+
+    /**
+     * the number of partitions the scan is spread over, across all the nodes of the cluster. 0, the default, lets
+     * each node scan all machines on its own.
+     */
+    @Value("#{new Integer('${statusmachina.spring.statemachine.stalled.partitions:0}')}")
+    private int partitions;
+
+    /**
+     * how long a node keeps its partitions without renewing the leases, 0 for three times the scan frequency
+     */
+    @Value("#{new Integer('${statusmachina.spring.statemachine.stalled.lease.seconds:0}')}")
+    private int leaseSeconds;
+
+    @Value("${statusmachina.spring.statemachine.stalled.node-id:#{T(java.util.UUID).randomUUID().toString()}}")
+    private String nodeId;
+
     @Scheduled(fixedRateString = "#{1000 * new Integer('${statusmachina.spring.statemachine.stalled.batch.frequency.seconds}')}")
-    public void findAndPublishStaledStateMachine() {
+    public synchronized void findAndPublishStaledStateMachine() {
         LOGGER.debug("Starting findAndPublishStaledStateMachine");
-        List<MachineSnapshot> stalledMachines = (List<MachineSnapshot>) stateMachineService.findStale(secondForStalledMachine);
-        LOGGER.debug("found {} stalled machine", stalledMachines.size());
+        Observation.createNotStarted(TICK_OBSERVATION, observationRegistry != null ? observationRegistry : ObservationRegistry.NOOP)
+                .observe(this::publishStalledMachines);
+    }
+
+    /**
+     * @return the number of times the stalled handler was invoked since startup
+     */
+    public long getHandlerInvocations() {
+        return handlerInvocations.get();
+    }
+
+    /**
+     * @return how long the last scan for stalled machines took, in milliseconds
+     */
+    public long getLastTickDurationMillis() {
+        return lastTickDurationMillis;
+    }
+
+    /**
+     * @return the id under which this node leases partitions
+     */
+    public String getNodeId() {
+        return nodeId;
+    }
+
+    @Override
+    public void afterPropertiesSet() {
+        if (meterRegistry != null) {
+            tickTimer = Timer.builder(TICK_TIMER)
+                    .description("how long each scan for stalled state machines takes")
+                    .register(meterRegistry);
+            handlerInvocationsCounter = Counter.builder(HANDLER_INVOCATIONS_COUNTER)
+                    .description("the number of stalled state machines handed to the stalled handler")
+                    .register(meterRegistry);
+        }
+    }
+
+    @Override
+    public void destroy() {
+        if (partitions > 0)
+            transactionTemplate.executeWithoutResult(status -> partitionRepository.leave(nodeId));
+    }
+
+    private void publishStalledMachines() {
+        final long start = System.nanoTime();
+        final long now = Instant.now().toEpochMilli();
+        final long staleReference = now - Duration.ofSeconds(secondForStalledMachine).toMillis();
+        final long overlap = Duration.ofSeconds(overlapSeconds).toMillis();
+
+        int published = 0;
+        if (partitions > 0) {
+            final long leaseMillis = Duration.ofSeconds(leaseSeconds > 0 ? leaseSeconds : 3L * frequencySeconds).toMillis();
+            final Map<Integer, Long> leases = transactionTemplate.execute(status -> partitionRepository.rebalance(nodeId, now, leaseMillis, partitions));
+            for (Map.Entry<Integer, Long> lease : leases.entrySet()) {
+                final long from = Math.max(0, lease.getValue() - overlap);
+                try (Stream<MachineSnapshot> stalledMachines = (Stream<MachineSnapshot>) stateMachineService.streamStaleModifiedBetween(from, staleReference, lease.getKey(), partitions, false)) {
+                    published += publish(stalledMachines);
+                }
+                transactionTemplate.executeWithoutResult(status -> partitionRepository.advanceWatermark(nodeId, lease.getKey(), staleReference));
+            }
+            LOGGER.debug("node {} scanned partitions {}", nodeId, leases.keySet());
+        } else {
+            final long from = Math.max(0, watermark - overlap);
+            try (Stream<MachineSnapshot> stalledMachines = (Stream<MachineSnapshot>) stateMachineService.streamStaleModifiedBetween(from, staleReference, false)) {
+                published = publish(stalledMachines);
+            }
+            watermark = staleReference;
+        }
+        // the next tick scans from the new watermark minus the overlap, older reports can't be met again
+        recentlyReported.values().removeIf(epoch -> epoch < staleReference - overlap);
+
+        final long duration = System.nanoTime() - start;
+        lastTickDurationMillis = TimeUnit.NANOSECONDS.toMillis(duration);
+        if (tickTimer != null)
+            tickTimer.record(duration, TimeUnit.NANOSECONDS);
+        LOGGER.debug("published {} newly stalled machines in {} ms", published, lastTickDurationMillis);
+    }
 
-        Map<Pair<String, Long>, MachineSnapshot> machineStateById = stalledMachines.stream().filter(ms -> ((MachineSnapshot) ms).getErrorType() == ErrorType.NONE).collect(Collectors.toMap(ms -> Pair.of(ms.getId(), ms.getLastModifiedEpoch()), ms -> ms));
-        for (MachineSnapshot stalledMachine : stalledMachines) {
-            Pair<String, Long> pair = Pair.of(stalledMachine.getId(), stalledMachine.getLastModifiedEpoch());
-            if (!stateMachineIdAndEpochStalled.contains(pair)) {
+    private int publish(Stream<MachineSnapshot> stalledMachines) {
+        int published = 0;
+        for (MachineSnapshot stalledMachine : (Iterable<MachineSnapshot>) stalledMachines::iterator) {
+            final Long reportedEpoch = recentlyReported.get(stalledMachine.getId());
+            // a machine is reported again if it moved and stalled since it was last reported
+            if (reportedEpoch == null || reportedEpoch != stalledMachine.getLastModifiedEpoch()) {
                 stalledHandler.accept(new DefaultStalledData(stalledMachine));
-                stateMachineIdAndEpochStalled.add(pair);
+                handlerInvocations.incrementAndGet();
+                if (handlerInvocationsCounter != null)
+                    handlerInvocationsCounter.increment();
+                published++;
+                recentlyReported.put(stalledMachine.getId(), stalledMachine.getLastModifiedEpoch());
             }
         }
-        stateMachineIdAndEpochStalled.retainAll(machineStateById.keySet());
+        return published;
     }
 
     private static class DefaultStalledData implements StalledData {
@@ -0,0 +1,37 @@
+/*
+ *
+ *  * Copyright 2019 <---> Present Status Machina Contributors (https://github.com/entzik/status-machina/graphs/contributors)
+ *  *
+ *  * Licensed under the Apache License, Version 2.0 (the "License");
+ *  * you may not use this file except in compliance with the License.
+ *  * You may obtain a copy of the License at
+ *  *
+ *  *     http://www.apache.org/licenses/LICENSE-2.0
+ *  *
+ *  * This software is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR
+ *  * CONDITIONS OF ANY KIND, either express or implied. See the License for the
+ *  * specific language governing permissions and limitations under the License.
+ *
+ */
+
+package some.unrelated.app.config;
+
+import io.statusmachina.core.api.StalledData;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.function.Consumer;
+
+import static io.statusmachina.spring.jpa.service.StateMachineStalledService.BEAN_STATE_MACHINE_STALLED_HANDLER;
+
+@Configuration
+public class TestStalledHandlerConfiguration {
+    public final List<StalledData> stalled = new CopyOnWriteArrayList<>();
+
+    @Bean(BEAN_STATE_MACHINE_STALLED_HANDLER)
+    public Consumer<StalledData> stalledHandler() {
+        return stalled::add;
+    }
+}
@@ -0,0 +1,80 @@
+/*
+ *
+ *  * Copyright 2019 <---> Present Status Machina Contributors (https://github.com/entzik/status-machina/graphs/contributors)
+ *  *
+ *  * Licensed under the Apache License, Version 2.0 (the "License");
+ *  * you may not use this file except in compliance with the License.
+ *  * You may obtain a copy of the License at
+ *  *
+ *  *     http://www.apache.org/licenses/LICENSE-2.0
+ *  *
+ *  * This software is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR
+ *  * CONDITIONS OF ANY KIND, either express or implied. See the License for the
+ *  * specific language governing permissions and limitations under the License.
+ *
+ */
+
+package some.unrelated.app.tests;
+
+import io.statusmachina.core.api.ErrorType;
+import io.statusmachina.core.api.Machine;
+import io.statusmachina.core.api.MachineDefinition;
+import io.statusmachina.core.spi.StateMachineService;
+import io.statusmachina.core.stdimpl.MachineInstanceImpl;
+import io.statusmachina.spring.jpa.SpringJpaStateMachineService;
+import org.springframework.jdbc.core.JdbcTemplate;
+import some.unrelated.app.config.TestOneStateMachineConfiguration.Events;
+import some.unrelated.app.config.TestOneStateMachineConfiguration.States;
+
+import javax.sql.DataSource;
+import java.time.Instant;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Optional;
+import java.util.stream.Collectors;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+/**
+ * checks that updating a machine whose context is stored in the entries table only writes the entries that changed,
+ * whatever the update mode of the service
+ */
+final class ContextEntryUpdates {
+    private ContextEntryUpdates() {
+    }
+
+    static void assertOnlyChangedEntriesAreWritten(StateMachineService<States, Events> service, MachineDefinition<States, Events> def, DataSource dataSource) throws Exception {
+        final JdbcTemplate jdbcTemplate = new JdbcTemplate(dataSource);
+        final HashMap<String, String> context = new HashMap<>();
+        context.put("k1", "v1");
+        context.put("k2", "v2");
+        context.put("k3", "v3");
+        final Machine<States, Events> instance = service.read(def, service.newMachine(def, context).start().getId());
+        final Map<String, String> rowsBefore = rowVersions(jdbcTemplate, instance.getId());
+
+        final Map<String, String> changedContext = new HashMap<>(instance.getContext());
+        changedContext.put("k1", "v1bis");
+        changedContext.remove("k2");
+        changedContext.put("k4", "v4");
+        final Machine<States, Events> changed = new MachineInstanceImpl<>(instance.getId(), def, instance.getCurrentState(), changedContext, Collections.emptyList(),
+                ErrorType.NONE, Optional.empty(), null, instance.getTransitionEventCounter(), Optional.empty(), instance.getVersion());
+        ((SpringJpaStateMachineService<States, Events>) service).update(instance, changed, Instant.now().toEpochMilli());
+
+        final Map<String, String> rowsAfter = rowVersions(jdbcTemplate, instance.getId());
+        assertThat(service.read(def, instance.getId()).getContext()).as("the context matches").isEqualTo(changedContext);
+        assertThat(rowsAfter.get("k3")).as("the unchanged entry was not rewritten").isEqualTo(rowsBefore.get("k3"));
+        assertThat(rowsAfter.get("k1")).as("the changed entry was rewritten").isNotEqualTo(rowsBefore.get("k1"));
+    }
+
+    /**
+     * the location and the inserting transaction of each entry row of a machine, which change whenever PostgreSQL
+     * writes the row
+     */
+    private static Map<String, String> rowVersions(JdbcTemplate jdbcTemplate, String machineId) {
+        return jdbcTemplate.query("SELECT name, ctid::text || '/' || xmin::text FROM sm_context_entries WHERE machine_id = ?",
+                        (rs, rowNum) -> Map.entry(rs.getString(1), rs.getString(2)), machineId)
+                .stream()
+                .collect(Collectors.toMap(Map.Entry::getKey, Map.Entry::getValue));
+    }
+}
@@ -0,0 +1,87 @@
+/*
+ *
+ *  * Copyright 2019 <---> Present Status Machina Contributors (https://github.com/entzik/status-machina/graphs/contributors)
+ *  *
+ *  * Licensed under the Apache License, Version 2.0 (the "License");
+ *  * you may not use this file except in compliance with the License.
+ *  * You may obtain a copy of the License at
+ *  *
+ *  *     http://www.apache.org/licenses/LICENSE-2.0
+ *  *
+ *  * This software is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR
+ *  * CONDITIONS OF ANY KIND, either express or implied. See the License for the
+ *  * specific language governing permissions and limitations under the License.
+ *
+ */
+
+package some.unrelated.app.tests;
+
+import io.statusmachina.core.api.Machine;
+import io.statusmachina.core.api.MachineDefinition;
+import io.statusmachina.core.spi.StateMachineService;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.test.context.junit.jupiter.SpringExtension;
+import some.unrelated.app.TestSpringBootApp;
+import some.unrelated.app.config.TestOneStateMachineConfiguration.Events;
+import some.unrelated.app.config.TestOneStateMachineConfiguration.States;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+@ExtendWith(SpringExtension.class)
+@SpringBootTest(
+        classes = TestSpringBootApp.class,
+        webEnvironment = SpringBootTest.WebEnvironment.NONE,
+        properties = {
+                "statusmachina.spring.bulk-chunk-size=4",
+                "statusmachina.spring.bulk-start-parallelism=3"
+        }
+)
+public class SpringBulkCreateTest {
+    @Autowired
+    StateMachineService<States, Events> service;
+
+    @Autowired
+    @Qualifier("Test1StateMachineDef")
+    MachineDefinition<States, Events> def;
+
+    @Test
+    void testMachinesAreCreated() throws Exception {
+        final List<Map<String, String>> contexts = contexts(10);
+        final List<Machine<States, Events>> machines = service.newMachines(def, contexts, false);
+        assertThat(machines).hasSize(10);
+        for (int i = 0; i < machines.size(); i++) {
+            final Machine<States, Events> read = service.read(def, machines.get(i).getId());
+            assertThat(read.getCurrentState()).isEqualTo(States.S1).as("machines are not started");
+            assertThat(read.getContext()).isEqualTo(contexts.get(i)).as("machines are created in the order of their contexts");
+        }
+
+        final Machine<States, Events> started = machines.get(0).start();
+        assertThat(started.getCurrentState()).isEqualTo(States.S2);
+        assertThat(service.read(def, started.getId()).getCurrentState()).isEqualTo(States.S2).as("created machines can be started later");
+    }
+
+    @Test
+    void testMachinesAreCreatedAndStarted() throws Exception {
+        final List<Machine<States, Events>> machines = service.newMachines(def, contexts(10), true);
+        assertThat(machines).hasSize(10);
+        for (Machine<States, Events> machine : machines) {
+            assertThat(machine.getCurrentState()).isEqualTo(States.S2);
+            assertThat(service.read(def, machine.getId()).getCurrentState()).isEqualTo(States.S2).as("the STP transition out of the initial state was persisted");
+        }
+    }
+
+    private static List<Map<String, String>> contexts(int count) {
+        final List<Map<String, String>> contexts = new ArrayList<>();
+        for (int i = 0; i < count; i++)
+            contexts.add(Map.of("k1", "v" + i));
+        return contexts;
+    }
+}
@@ -0,0 +1,96 @@
+/*
+ *
+ *  * Copyright 2019 <---> Present Status Machina Contributors (https://github.com/entzik/status-machina/graphs/contributors)
+ *  *
+ *  * Licensed under the Apache License, Version 2.0 (the "License");
+ *  * you may not use this file except in compliance with the License.
+ *  * You may obtain a copy of the License at
+ *  *
+ *  *     http://www.apache.org/licenses/LICENSE-2.0
+ *  *
+ *  * This software is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR
+ *  * CONDITIONS OF ANY KIND, either express or implied. See the License for the
+ *  * specific language governing permissions and limitations under the License.
+ *
+ */
+
+package some.unrelated.app.tests;
+
+import io.statusmachina.core.api.EventOutcome;
+import io.statusmachina.core.api.Machine;
+import io.statusmachina.core.api.MachineDefinition;
+import io.statusmachina.core.spi.StateMachineService;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.test.context.junit.jupiter.SpringExtension;
+import some.unrelated.app.TestSpringBootApp;
+import some.unrelated.app.config.TestOneStateMachineConfiguration.Events;
+import some.unrelated.app.config.TestOneStateMachineConfiguration.States;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.UUID;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+@ExtendWith(SpringExtension.class)
+@SpringBootTest(
+        classes = TestSpringBootApp.class,
+        webEnvironment = SpringBootTest.WebEnvironment.NONE,
+        properties = "statusmachina.spring.bulk-chunk-size=4"
+)
+public class SpringBulkEventsTest {
+    @Autowired
+    StateMachineService<States, Events> service;
+
+    @Autowired
+    @Qualifier("Test1StateMachineDef")
+    MachineDefinition<States, Events> def;
+
+    @Test
+    void testEventIsDeliveredToAllMachines() throws Exception {
+        final List<String> ids = new ArrayList<>();
+        for (int i = 0; i < 10; i++)
+            ids.add(service.newMachine(def, Map.of("k1", "v1")).start().getId());
+        final String unknownId = UUID.randomUUID().toString();
+        ids.add(5, unknownId);
+
+        final Map<String, EventOutcome<States, Events>> outcomes = service.sendEvents(def, ids, Events.E23);
+        assertThat(outcomes.keySet()).containsExactlyElementsOf(ids).as("an outcome is reported for each machine, in order");
+        assertThat(outcomes.get(unknownId).isDelivered()).isFalse();
+        assertThat(outcomes.get(unknownId).getError().orElseThrow()).isInstanceOf(NoSuchElementException.class);
+
+        ids.remove(unknownId);
+        for (String id : ids) {
+            final EventOutcome<States, Events> outcome = outcomes.get(id);
+            assertThat(outcome.isDelivered()).isTrue().as("machines are not affected by the failure of another one");
+            assertThat(outcome.getMachine().orElseThrow().getCurrentState()).isEqualTo(States.S3);
+            final Machine<States, Events> read = service.read(def, id);
+            assertThat(read.getCurrentState()).isEqualTo(States.S3).as("the transition was persisted");
+            assertThat(read.getContext()).containsEntry("k1", "v1");
+        }
+
+        // the returned machines are bound to the service and carry the version they were written with
+        final Machine<States, Events> updated = outcomes.get(ids.get(0)).getMachine().orElseThrow().sendEvent(Events.E34);
+        assertThat(updated.getCurrentState()).isEqualTo(States.S4);
+        assertThat(service.read(def, ids.get(0)).getCurrentState()).isEqualTo(States.S4);
+    }
+
+    @Test
+    void testFailedTransitionsAreReported() throws Exception {
+        final String started = service.newMachine(def, Map.of()).start().getId();
+        final String moved = service.newMachine(def, Map.of()).start().sendEvent(Events.E23).getId();
+
+        final Map<String, EventOutcome<States, Events>> outcomes = service.sendEvents(def, List.of(started, moved), Events.E34, "param");
+        assertThat(outcomes.get(started).isDelivered()).isFalse().as("E34 does not trigger any transition out of S2");
+        assertThat(outcomes.get(started).getError().orElseThrow()).isInstanceOf(IllegalStateException.class);
+        assertThat(outcomes.get(moved).isDelivered()).isTrue();
+        assertThat(service.read(def, started).getCurrentState()).isEqualTo(States.S2);
+        assertThat(service.read(def, moved).getCurrentState()).isEqualTo(States.S4);
+    }
+}
@@ -0,0 +1,111 @@
+/*
+ *
+ *  * Copyright 2019 <---> Present Status Machina Contributors (https://github.com/entzik/status-machina/graphs/contributors)
+ *  *
+ *  * Licensed under the Apache License, Version 2.0 (the "License");
+ *  * you may not use this file except in compliance with the License.
+ *  * You may obtain a copy of the License at
+ *  *
+ *  *     http://www.apache.org/licenses/LICENSE-2.0
+ *  *
+ *  * This software is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR
+ *  * CONDITIONS OF ANY KIND, either express or implied. See the License for the
+ *  * specific language governing permissions and limitations under the License.
+ *
+ */
+
+package some.unrelated.app.tests;
+
+import io.statusmachina.core.api.Machine;
+import io.statusmachina.core.api.MachineDefinition;
+import io.statusmachina.core.spi.StateMachineService;
+import io.statusmachina.spring.jpa.repo.ExternalStateJdbcRepository;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.test.context.junit.jupiter.SpringExtension;
+import some.unrelated.app.TestSpringBootApp;
+import some.unrelated.app.config.TestOneStateMachineConfiguration.Events;
+import some.unrelated.app.config.TestOneStateMachineConfiguration.States;
+
+import javax.sql.DataSource;
+import java.util.HashMap;
+import java.util.Map;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.entry;
+import static org.assertj.core.api.Assertions.fail;
+
+@ExtendWith(SpringExtension.class)
+@SpringBootTest(
+        classes = TestSpringBootApp.class,
+        webEnvironment = SpringBootTest.WebEnvironment.NONE,
+        properties = "statusmachina.spring.context-storage=COLUMN"
+)
+public class SpringColumnContextStorageTest {
+    @Autowired
+    StateMachineService<States, Events> service;
+
+    @Autowired
+    @Qualifier("Test1StateMachineDef")
+    MachineDefinition<States, Events> def;
+
+    @Autowired
+    ExternalStateJdbcRepository externalStateJdbcRepository;
+
+    @Autowired
+    DataSource dataSource;
+
+    @Test
+    void testContextIsStoredInColumn() {
+        try {
+            final Machine<States, Events> instance = buildStateMachine().start();
+            instance.sendEvent(Events.E23);
+
+            final Machine<States, Events> updated = service.read(def, instance.getId());
+
+            assertThat(updated.getCurrentState()).isEqualTo(States.S3).as("states match");
+            // containsOnly (order-insensitive) — a persisted map has no guaranteed iteration order
+            assertThat(updated.getContext()).containsOnly(instance.getContext().entrySet().toArray(new Map.Entry[instance.getContext().size()])).as("context matches");
+            assertThat(contextEntryCount(instance.getId())).isZero().as("no context entries were written");
+        } catch (Exception e) {
+            fail("machine was not updated", e);
+        }
+    }
+
+    @Test
+    void testTableContextIsMigrated() {
+        try {
+            final Machine<States, Events> instance = buildStateMachine().start();
+            // turn the machine into one written in table storage mode
+            final JdbcTemplate jdbcTemplate = new JdbcTemplate(dataSource);
+            jdbcTemplate.update("UPDATE sm_states SET context_data = NULL WHERE id = ?", instance.getId());
+            jdbcTemplate.update("INSERT INTO sm_context_entries (machine_id, name, value) VALUES (?, ?, ?)", instance.getId(), "k1", "v1");
+            jdbcTemplate.update("INSERT INTO sm_context_entries (machine_id, name, value) VALUES (?, ?, ?)", instance.getId(), "kü", "vü");
+
+            assertThat(service.read(def, instance.getId()).getContext()).containsOnly(entry("k1", "v1"), entry("kü", "vü")).as("table context is read");
+
+            assertThat(externalStateJdbcRepository.hasTableStoredContexts()).isTrue();
+            assertThat(externalStateJdbcRepository.migrateContextsToColumn("", Integer.MAX_VALUE)).as("the machine is migrated").contains(instance.getId());
+
+            assertThat(service.read(def, instance.getId()).getContext()).containsOnly(entry("k1", "v1"), entry("kü", "vü")).as("migrated context is read");
+            assertThat(contextEntryCount(instance.getId())).isZero().as("migrated context entries were removed");
+        } catch (Exception e) {
+            fail("machine context was not migrated", e);
+        }
+    }
+
+    private int contextEntryCount(String id) {
+        return new JdbcTemplate(dataSource).queryForObject("SELECT count(*) FROM sm_context_entries WHERE machine_id = ?", Integer.class, id);
+    }
+
+    private Machine<States, Events> buildStateMachine() throws Exception {
+        final HashMap<String, String> context = new HashMap<>();
+        context.put("k1", "v1");
+        context.put("k2", "v2");
+        return service.newMachine(def, context);
+    }
+}
@@ -0,0 +1,99 @@
+/*
+ *
+ *  * Copyright 2019 <---> Present Status Machina Contributors (https://github.com/entzik/status-machina/graphs/contributors)
+ *  *
+ *  * Licensed under the Apache License, Version 2.0 (the "License");
+ *  * you may not use this file except in compliance with the License.
+ *  * You may obtain a copy of the License at
+ *  *
+ *  *     http://www.apache.org/licenses/LICENSE-2.0
+ *  *
+ *  * This software is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR
+ *  * CONDITIONS OF ANY KIND, either express or implied. See the License for the
+ *  * specific language governing permissions and limitations under the License.
+ *
+ */
+
+package some.unrelated.app.tests;
+
+import io.statusmachina.core.api.Machine;
+import io.statusmachina.core.api.MachineDefinition;
+import io.statusmachina.core.api.TransitionException;
+import io.statusmachina.core.spi.StateMachineService;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.test.context.junit.jupiter.SpringExtension;
+import some.unrelated.app.TestSpringBootApp;
+import some.unrelated.app.config.TestOneStateMachineConfiguration.Events;
+import some.unrelated.app.config.TestOneStateMachineConfiguration.States;
+
+import javax.sql.DataSource;
+import java.util.HashMap;
+import java.util.Map;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+import static org.assertj.core.api.Assertions.fail;
+
+@ExtendWith(SpringExtension.class)
+@SpringBootTest(
+        classes = TestSpringBootApp.class,
+        webEnvironment = SpringBootTest.WebEnvironment.NONE,
+        properties = "statusmachina.spring.update-mode=DIRECT"
+)
+public class SpringDirectUpdateTest {
+    @Autowired
+    StateMachineService<States, Events> service;
+
+    @Autowired
+    @Qualifier("Test1StateMachineDef")
+    MachineDefinition<States, Events> def;
+
+    @Autowired
+    DataSource dataSource;
+
+    @Test
+    void testDirectUpdate() {
+        try {
+            final Machine<States, Events> instance = buildStateMachine().start();
+            final Machine<States, Events> created = service.read(def, instance.getId());
+            final Machine<States, Events> transitioned = created.sendEvent(Events.E23);
+
+            final Machine<States, Events> updated = service.read(def, instance.getId());
+
+            assertThat(updated.getCurrentState()).isEqualTo(States.S3).as("states match");
+            assertThat(updated.getVersion()).isEqualTo(transitioned.getVersion()).as("the transitioned machine carries the persisted version");
+            assertThat(updated.getVersion()).isGreaterThan(created.getVersion()).as("version was incremented");
+            // containsOnly (order-insensitive) — a persisted map has no guaranteed iteration order
+            assertThat(updated.getContext()).containsOnly(instance.getContext().entrySet().toArray(new Map.Entry[instance.getContext().size()])).as("context matches");
+        } catch (Exception e) {
+            fail("machine was not updated", e);
+        }
+    }
+
+    @Test
+    void testStaleMachineIsRejected() throws Exception {
+        final Machine<States, Events> instance = buildStateMachine().start();
+        final Machine<States, Events> first = service.read(def, instance.getId());
+        final Machine<States, Events> second = service.read(def, instance.getId());
+        first.sendEvent(Events.E23);
+
+        assertThatThrownBy(() -> second.sendEvent(Events.E23)).isInstanceOf(TransitionException.class);
+        assertThat(service.read(def, instance.getId()).getCurrentState()).isEqualTo(States.S3).as("the first update is kept");
+    }
+
+    @Test
+    void testUpdateChangedContextEntries() throws Exception {
+        ContextEntryUpdates.assertOnlyChangedEntriesAreWritten(service, def, dataSource);
+    }
+
+    private Machine<States, Events> buildStateMachine() throws Exception {
+        final HashMap<String, String> context = new HashMap<>();
+        context.put("k1", "v1");
+        context.put("k2", "v2");
+        return service.newMachine(def, context);
+    }
+}
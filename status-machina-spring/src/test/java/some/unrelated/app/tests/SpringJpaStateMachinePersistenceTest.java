@@ -30,6 +30,7 @@ import some.unrelated.app.config.TestOneStateMachineConfiguration;
 import some.unrelated.app.config.TestOneStateMachineConfiguration.Events;
 import some.unrelated.app.config.TestOneStateMachineConfiguration.States;
 
+import javax.sql.DataSource;
 import java.util.HashMap;
 import java.util.Map;
 
@@ -51,6 +52,9 @@ public class SpringJpaStateMachinePersistenceTest {
     @Qualifier("Test1StateMachineDef")
     MachineDefinition<States, Events> def;
 
+    @Autowired
+    DataSource dataSource;
+
     @Test
     void testSaveStateMachine() {
         try {
@@ -93,6 +97,11 @@ public class SpringJpaStateMachinePersistenceTest {
     }
 
 
+    @Test
+    void testUpdateChangedContextEntries() throws Exception {
+        ContextEntryUpdates.assertOnlyChangedEntriesAreWritten(service, def, dataSource);
+    }
+
     private Machine<TestOneStateMachineConfiguration.States, TestOneStateMachineConfiguration.Events> buildStateMachine() throws Exception {
         final HashMap<String, String> context = new HashMap<>();
         context.put("k1", "v1");
@@ -0,0 +1,96 @@
+/*
+ *
+ *  * Copyright 2019 <---> Present Status Machina Contributors (https://github.com/entzik/status-machina/graphs/contributors)
+ *  *
+ *  * Licensed under the Apache License, Version 2.0 (the "License");
+ *  * you may not use this file except in compliance with the License.
+ *  * You may obtain a copy of the License at
+ *  *
+ *  *     http://www.apache.org/licenses/LICENSE-2.0
+ *  *
+ *  * This software is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR
+ *  * CONDITIONS OF ANY KIND, either express or implied. See the License for the
+ *  * specific language governing permissions and limitations under the License.
+ *
+ */
+
+package some.unrelated.app.tests;
+
+import io.statusmachina.core.api.Machine;
+import io.statusmachina.core.api.MachineDefinition;
+import io.statusmachina.core.api.TransitionException;
+import io.statusmachina.core.spi.StateMachineService;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.test.context.junit.jupiter.SpringExtension;
+import some.unrelated.app.TestSpringBootApp;
+import some.unrelated.app.config.TestOneStateMachineConfiguration.Events;
+import some.unrelated.app.config.TestOneStateMachineConfiguration.States;
+
+import javax.sql.DataSource;
+import java.util.Map;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+@ExtendWith(SpringExtension.class)
+@SpringBootTest(
+        classes = TestSpringBootApp.class,
+        webEnvironment = SpringBootTest.WebEnvironment.NONE,
+        properties = {
+                "statusmachina.spring.machine-cache.enabled=true",
+                "statusmachina.spring.update-mode=DIRECT"
+        }
+)
+public class SpringMachineCacheTest {
+    @Autowired
+    StateMachineService<States, Events> service;
+
+    @Autowired
+    @Qualifier("Test1StateMachineDef")
+    MachineDefinition<States, Events> def;
+
+    @Autowired
+    DataSource dataSource;
+
+    @Test
+    void testCachedMachineIsReused() throws Exception {
+        final Machine<States, Events> instance = service.newMachine(def, Map.of("k1", "v1")).start();
+        final Machine<States, Events> first = service.read(def, instance.getId());
+        assertThat(service.read(def, instance.getId())).isSameAs(first).as("an unchanged machine is served from the cache");
+
+        final Machine<States, Events> transitioned = first.sendEvent(Events.E23);
+        assertThat(service.read(def, instance.getId())).isSameAs(transitioned).as("a transitioned machine is cached once committed");
+    }
+
+    @Test
+    void testMachineModifiedElsewhereIsReloaded() throws Exception {
+        final Machine<States, Events> instance = service.newMachine(def, Map.of("k1", "v1")).start();
+        final Machine<States, Events> cached = service.read(def, instance.getId());
+
+        new JdbcTemplate(dataSource).update("UPDATE sm_states SET crt_state = 'S3', version = version + 1 WHERE id = ?", instance.getId());
+
+        final Machine<States, Events> reloaded = service.read(def, instance.getId());
+        assertThat(reloaded).isNotSameAs(cached).as("a cached machine is checked against the database version");
+        assertThat(reloaded.getCurrentState()).isEqualTo(States.S3).as("the machine is reloaded");
+        assertThat(reloaded.getVersion()).isEqualTo(cached.getVersion() + 1).as("the machine is reloaded");
+    }
+
+    @Test
+    void testMachineIsEvictedOnOptimisticLockFailure() throws Exception {
+        final Machine<States, Events> instance = service.newMachine(def, Map.of("k1", "v1")).start();
+        final Machine<States, Events> stale = service.read(def, instance.getId());
+        final Machine<States, Events> transitioned = stale.sendEvent(Events.E23);
+
+        assertThatThrownBy(() -> stale.sendEvent(Events.E23)).isInstanceOf(TransitionException.class);
+
+        final Machine<States, Events> reloaded = service.read(def, instance.getId());
+        assertThat(reloaded).isNotSameAs(transitioned).as("a machine that failed to update is evicted");
+        assertThat(reloaded.getCurrentState()).isEqualTo(States.S3).as("the first update is kept");
+        assertThat(reloaded.getVersion()).isEqualTo(transitioned.getVersion()).as("the first update is kept");
+    }
+}
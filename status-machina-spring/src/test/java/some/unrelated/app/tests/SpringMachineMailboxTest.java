@@ -0,0 +1,76 @@
+/*
+ *
+ *  * Copyright 2019 <---> Present Status Machina Contributors (https://github.com/entzik/status-machina/graphs/contributors)
+ *  *
+ *  * Licensed under the Apache License, Version 2.0 (the "License");
+ *  * you may not use this file except in compliance with the License.
+ *  * You may obtain a copy of the License at
+ *  *
+ *  *     http://www.apache.org/licenses/LICENSE-2.0
+ *  *
+ *  * This software is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR
+ *  * CONDITIONS OF ANY KIND, either express or implied. See the License for the
+ *  * specific language governing permissions and limitations under the License.
+ *
+ */
+
+package some.unrelated.app.tests;
+
+import io.statusmachina.core.api.Machine;
+import io.statusmachina.core.api.MachineDefinition;
+import io.statusmachina.core.spi.StateMachineService;
+import io.statusmachina.core.stdimpl.MachineMailboxDispatcher;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.test.context.junit.jupiter.SpringExtension;
+import some.unrelated.app.TestSpringBootApp;
+import some.unrelated.app.config.TestOneStateMachineConfiguration.Events;
+import some.unrelated.app.config.TestOneStateMachineConfiguration.States;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+@ExtendWith(SpringExtension.class)
+@SpringBootTest(
+        classes = TestSpringBootApp.class,
+        webEnvironment = SpringBootTest.WebEnvironment.NONE,
+        properties = "statusmachina.spring.update-mode=DIRECT"
+)
+public class SpringMachineMailboxTest {
+    @Autowired
+    StateMachineService<States, Events> service;
+
+    @Autowired
+    @Qualifier("Test1StateMachineDef")
+    MachineDefinition<States, Events> def;
+
+    @Autowired
+    MachineMailboxDispatcher<States, Events> dispatcher;
+
+    @Test
+    void testConcurrentEventsDoNotConflict() throws Exception {
+        final List<String> ids = new ArrayList<>();
+        for (int i = 0; i < 20; i++)
+            ids.add(service.newMachine(def, Map.of("k1", "v1")).start().getId());
+
+        // without a mailbox, the second event of each machine would race the first one and fail on the version check
+        final List<CompletableFuture<Machine<States, Events>>> results = new ArrayList<>();
+        for (String id : ids) {
+            results.add(dispatcher.sendEvent(def, id, Events.E23));
+            results.add(dispatcher.sendEvent(def, id, Events.E34));
+        }
+        for (CompletableFuture<Machine<States, Events>> result : results)
+            result.get(30, TimeUnit.SECONDS);
+
+        for (String id : ids)
+            assertThat(service.read(def, id).getCurrentState()).isEqualTo(States.S4).as("both events were applied, in order");
+    }
+}
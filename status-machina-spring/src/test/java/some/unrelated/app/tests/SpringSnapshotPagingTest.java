@@ -0,0 +1,96 @@
+/*
+ *
+ *  * Copyright 2019 <---> Present Status Machina Contributors (https://github.com/entzik/status-machina/graphs/contributors)
+ *  *
+ *  * Licensed under the Apache License, Version 2.0 (the "License");
+ *  * you may not use this file except in compliance with the License.
+ *  * You may obtain a copy of the License at
+ *  *
+ *  *     http://www.apache.org/licenses/LICENSE-2.0
+ *  *
+ *  * This software is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR
+ *  * CONDITIONS OF ANY KIND, either express or implied. See the License for the
+ *  * specific language governing permissions and limitations under the License.
+ *
+ */
+
+package some.unrelated.app.tests;
+
+import io.statusmachina.core.api.Machine;
+import io.statusmachina.core.api.MachineDefinition;
+import io.statusmachina.core.api.MachineSnapshot;
+import io.statusmachina.core.api.MachineSnapshotPage;
+import io.statusmachina.core.api.SnapshotPageRequest;
+import io.statusmachina.core.spi.StateMachineService;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.test.context.junit.jupiter.SpringExtension;
+import some.unrelated.app.TestSpringBootApp;
+import some.unrelated.app.config.TestOneStateMachineConfiguration.Events;
+import some.unrelated.app.config.TestOneStateMachineConfiguration.States;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.stream.Stream;
+
+import static java.util.stream.Collectors.toList;
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.fail;
+
+@ExtendWith(SpringExtension.class)
+@SpringBootTest(
+        classes = TestSpringBootApp.class,
+        webEnvironment = SpringBootTest.WebEnvironment.NONE,
+        properties = "statusmachina.spring.snapshot-fetch-size=2"
+)
+public class SpringSnapshotPagingTest {
+    @Autowired
+    StateMachineService<States, Events> service;
+
+    @Autowired
+    @Qualifier("Test1StateMachineDef")
+    MachineDefinition<States, Events> def;
+
+    @Test
+    void testTerminatedMachinesArePagedAndStreamed() {
+        try {
+            final List<String> ids = new ArrayList<>();
+            for (int i = 0; i < 5; i++) {
+                final Machine<States, Events> machine = service.newMachine(def, Map.of("k", "v" + i)).start();
+                machine.sendEvent(Events.E23).sendEvent(Events.E34);
+                ids.add(machine.getId());
+            }
+            ids.sort(String::compareTo);
+
+            final List<String> paged = new ArrayList<>();
+            SnapshotPageRequest request = SnapshotPageRequest.ofSize(2).withoutContext();
+            MachineSnapshotPage page;
+            int pages = 0;
+            do {
+                page = service.findTerminated(request);
+                pages++;
+                assertThat(page.getSnapshots().size()).isLessThanOrEqualTo(2).as("page size is honoured");
+                for (MachineSnapshot snapshot : page.getSnapshots()) {
+                    assertThat(snapshot.getContext()).isEmpty().as("context was not loaded");
+                    paged.add(snapshot.getId());
+                }
+                request = request.after(page.getNextCursor().orElse(null));
+            } while (page.hasNext());
+
+            assertThat(pages).isEqualTo(3).as("5 machines fit in 3 pages");
+            assertThat(paged).containsExactly(ids.toArray()).as("pages are ordered by id and do not overlap");
+
+            try (Stream<MachineSnapshot> stream = service.streamTerminated(true)) {
+                final List<MachineSnapshot> streamed = stream.collect(toList());
+                assertThat(streamed.stream().map(MachineSnapshot::getId).collect(toList())).containsExactly(ids.toArray()).as("all machines are streamed, in id order");
+                assertThat(streamed.get(0).getContext()).containsOnlyKeys("k").as("context was loaded");
+            }
+        } catch (Exception e) {
+            fail("machines were not paged", e);
+        }
+    }
+}
@@ -0,0 +1,105 @@
+/*
+ *
+ *  * Copyright 2019 <---> Present Status Machina Contributors (https://github.com/entzik/status-machina/graphs/contributors)
+ *  *
+ *  * Licensed under the Apache License, Version 2.0 (the "License");
+ *  * you may not use this file except in compliance with the License.
+ *  * You may obtain a copy of the License at
+ *  *
+ *  *     http://www.apache.org/licenses/LICENSE-2.0
+ *  *
+ *  * This software is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR
+ *  * CONDITIONS OF ANY KIND, either express or implied. See the License for the
+ *  * specific language governing permissions and limitations under the License.
+ *
+ */
+
+package some.unrelated.app.tests;
+
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import io.statusmachina.core.api.Machine;
+import io.statusmachina.core.api.MachineDefinition;
+import io.statusmachina.core.api.StalledData;
+import io.statusmachina.core.spi.StateMachineService;
+import io.statusmachina.spring.jpa.service.StateMachineStalledService;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.boot.test.context.TestConfiguration;
+import org.springframework.context.annotation.Bean;
+import org.springframework.test.context.junit.jupiter.SpringExtension;
+import some.unrelated.app.TestSpringBootApp;
+import some.unrelated.app.config.TestOneStateMachineConfiguration.Events;
+import some.unrelated.app.config.TestOneStateMachineConfiguration.States;
+import some.unrelated.app.config.TestStalledHandlerConfiguration;
+
+import java.util.Map;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+@ExtendWith(SpringExtension.class)
+@SpringBootTest(
+        classes = TestSpringBootApp.class,
+        webEnvironment = SpringBootTest.WebEnvironment.NONE,
+        properties = {
+                "statusmachina.spring.statemachine.stalled.batch=true",
+                "statusmachina.spring.statemachine.stalled.seconds=1",
+                "statusmachina.spring.statemachine.stalled.batch.frequency.seconds=3600"
+        }
+)
+public class SpringStalledMachinesTest {
+    @Autowired
+    StateMachineService<States, Events> service;
+
+    @Autowired
+    @Qualifier("Test1StateMachineDef")
+    MachineDefinition<States, Events> def;
+
+    @Autowired
+    StateMachineStalledService stalledService;
+
+    @Autowired
+    TestStalledHandlerConfiguration stalledHandlerConfiguration;
+
+    @Autowired
+    MeterRegistry meterRegistry;
+
+    @Test
+    void testStalledMachinesAreReportedOnce() throws Exception {
+        final Machine<States, Events> machine = service.newMachine(def, Map.of()).start();
+        Thread.sleep(1200);
+
+        stalledService.findAndPublishStaledStateMachine();
+        stalledService.findAndPublishStaledStateMachine();
+        assertThat(reportsOf(machine)).isEqualTo(1L).as("a machine still stalled since it was reported is not reported again");
+        final long invocations = stalledService.getHandlerInvocations();
+        assertThat(invocations).isGreaterThan(0L).as("handler invocations are counted");
+
+        machine.sendEvent(Events.E23);
+        Thread.sleep(1200);
+
+        final long ticks = meterRegistry.get(StateMachineStalledService.TICK_TIMER).timer().count();
+        stalledService.findAndPublishStaledStateMachine();
+        assertThat(reportsOf(machine)).isEqualTo(2L).as("a machine that moved and stalled again is reported again");
+        assertThat(stalledService.getHandlerInvocations()).isEqualTo(invocations + 1).as("handler invocations are counted");
+        assertThat(meterRegistry.get(StateMachineStalledService.TICK_TIMER).timer().count()).as("ticks are timed").isEqualTo(ticks + 1);
+        assertThat(meterRegistry.get(StateMachineStalledService.HANDLER_INVOCATIONS_COUNTER).counter().count())
+                .as("handler invocations are exported")
+                .isEqualTo((double) stalledService.getHandlerInvocations());
+    }
+
+    @TestConfiguration
+    static class MeterRegistryConfiguration {
+        @Bean
+        MeterRegistry meterRegistry() {
+            return new SimpleMeterRegistry();
+        }
+    }
+
+    private long reportsOf(Machine<States, Events> machine) {
+        return stalledHandlerConfiguration.stalled.stream().map(StalledData::getStateMachineId).filter(machine.getId()::equals).count();
+    }
+}
@@ -0,0 +1,157 @@
+/*
+ *
+ *  * Copyright 2019 <---> Present Status Machina Contributors (https://github.com/entzik/status-machina/graphs/contributors)
+ *  *
+ *  * Licensed under the Apache License, Version 2.0 (the "License");
+ *  * you may not use this file except in compliance with the License.
+ *  * You may obtain a copy of the License at
+ *  *
+ *  *     http://www.apache.org/licenses/LICENSE-2.0
+ *  *
+ *  * This software is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR
+ *  * CONDITIONS OF ANY KIND, either express or implied. See the License for the
+ *  * specific language governing permissions and limitations under the License.
+ *
+ */
+
+package some.unrelated.app.tests;
+
+import io.statusmachina.core.api.Machine;
+import io.statusmachina.core.api.MachineDefinition;
+import io.statusmachina.core.api.MachineSnapshot;
+import io.statusmachina.core.api.StalledData;
+import io.statusmachina.core.spi.StateMachineService;
+import io.statusmachina.spring.jpa.repo.StalledPartitionJdbcRepository;
+import io.statusmachina.spring.jpa.service.StateMachineStalledService;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.test.context.junit.jupiter.SpringExtension;
+import org.springframework.transaction.support.TransactionTemplate;
+import some.unrelated.app.TestSpringBootApp;
+import some.unrelated.app.config.TestOneStateMachineConfiguration.Events;
+import some.unrelated.app.config.TestOneStateMachineConfiguration.States;
+import some.unrelated.app.config.TestStalledHandlerConfiguration;
+
+import java.time.Duration;
+import java.time.Instant;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+import java.util.stream.Stream;
+
+import static io.statusmachina.spring.jpa.configuration.TransactionTemplateCnfiguration.STATUS_MACHINA_JOINING_TRANSACTION_TEMPLATE;
+import static org.assertj.core.api.Assertions.assertThat;
+
+@ExtendWith(SpringExtension.class)
+@SpringBootTest(
+        classes = TestSpringBootApp.class,
+        webEnvironment = SpringBootTest.WebEnvironment.NONE,
+        properties = {
+                "statusmachina.spring.statemachine.stalled.batch=true",
+                "statusmachina.spring.statemachine.stalled.seconds=1",
+                "statusmachina.spring.statemachine.stalled.batch.frequency.seconds=3600",
+                "statusmachina.spring.statemachine.stalled.partitions=4"
+        }
+)
+public class SpringStalledPartitionsTest {
+    private static final int PARTITIONS = 4;
+    private static final String OTHER_NODE = "other-node";
+
+    @Autowired
+    StateMachineService<States, Events> service;
+
+    @Autowired
+    @Qualifier("Test1StateMachineDef")
+    MachineDefinition<States, Events> def;
+
+    @Autowired
+    StateMachineStalledService stalledService;
+
+    @Autowired
+    StalledPartitionJdbcRepository partitionRepository;
+
+    @Autowired
+    @Qualifier(STATUS_MACHINA_JOINING_TRANSACTION_TEMPLATE)
+    TransactionTemplate transactionTemplate;
+
+    @Autowired
+    TestStalledHandlerConfiguration stalledHandlerConfiguration;
+
+    @Test
+    void testPartitionsAreSharedBetweenNodes() throws Exception {
+        final Set<String> firstBatch = newMachines(12);
+        Thread.sleep(1200);
+
+        stalledService.findAndPublishStaledStateMachine();
+        assertThat(leasesOf(stalledService.getNodeId())).hasSize(PARTITIONS).as("a single node leases all partitions");
+        assertThat(reported(firstBatch)).isEqualTo(firstBatch).as("a single node reports all stalled machines");
+
+        // another node joins: this node gives up half of the partitions, which the other node claims
+        rebalance(OTHER_NODE);
+        stalledService.findAndPublishStaledStateMachine();
+        final Set<Integer> ownPartitions = leasesOf(stalledService.getNodeId());
+        assertThat(ownPartitions).hasSize(PARTITIONS / 2).as("the partitions are shared between the live nodes");
+        final Set<Integer> otherPartitions = rebalance(OTHER_NODE);
+        assertThat(otherPartitions).hasSize(PARTITIONS / 2).as("the partitions are shared between the live nodes");
+        assertThat(otherPartitions).doesNotContain(ownPartitions.toArray(new Integer[0])).as("a partition is leased by one node only");
+
+        final Set<String> secondBatch = newMachines(12);
+        Thread.sleep(1200);
+
+        stalledService.findAndPublishStaledStateMachine();
+        final Set<String> expected = new HashSet<>();
+        for (int partition : ownPartitions)
+            expected.addAll(stalledIn(partition, secondBatch));
+        assertThat(reported(secondBatch)).isEqualTo(expected).as("a node only reports the stalled machines of its partitions");
+        final Set<String> left = new HashSet<>(secondBatch);
+        left.removeAll(expected);
+        for (int partition : otherPartitions)
+            left.removeAll(stalledIn(partition, secondBatch));
+        assertThat(left).isEmpty().as("every machine belongs to a partition");
+
+        // the other node leaves: its partitions are claimed at the next tick, from their watermark
+        transactionTemplate.executeWithoutResult(status -> partitionRepository.leave(OTHER_NODE));
+        stalledService.findAndPublishStaledStateMachine();
+        assertThat(leasesOf(stalledService.getNodeId())).hasSize(PARTITIONS).as("the partitions of a node that left are claimed");
+        assertThat(reported(secondBatch)).isEqualTo(secondBatch).as("the stalled machines of the claimed partitions are reported");
+    }
+
+    private Set<String> newMachines(int count) {
+        return IntStream.range(0, count)
+                .mapToObj(i -> {
+                    try {
+                        return service.newMachine(def, Map.of()).start();
+                    } catch (Exception e) {
+                        throw new RuntimeException(e);
+                    }
+                })
+                .map(Machine::getId)
+                .collect(Collectors.toSet());
+    }
+
+    private Set<Integer> rebalance(String nodeId) {
+        final long leaseMillis = Duration.ofHours(3).toMillis();
+        return transactionTemplate.execute(status -> partitionRepository.rebalance(nodeId, Instant.now().toEpochMilli(), leaseMillis, PARTITIONS)).keySet();
+    }
+
+    private Set<Integer> leasesOf(String nodeId) {
+        return transactionTemplate.execute(status -> partitionRepository.findLeases(nodeId)).keySet();
+    }
+
+    private Set<String> stalledIn(int partition, Set<String> machineIds) {
+        try (Stream<MachineSnapshot> stalled = service.streamStaleModifiedBetween(0, Instant.now().toEpochMilli(), partition, PARTITIONS, false)) {
+            return stalled.map(MachineSnapshot::getId).filter(machineIds::contains).collect(Collectors.toSet());
+        }
+    }
+
+    private Set<String> reported(Set<String> machineIds) {
+        final List<StalledData> stalled = stalledHandlerConfiguration.stalled;
+        return stalled.stream().map(StalledData::getStateMachineId).filter(machineIds::contains).collect(Collectors.toSet());
+    }
+}
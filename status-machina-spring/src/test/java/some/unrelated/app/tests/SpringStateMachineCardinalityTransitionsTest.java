@@ -23,6 +23,7 @@ import org.junit.jupiter.api.extension.ExtendWith;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.beans.factory.annotation.Qualifier;
 import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.dao.OptimisticLockingFailureException;
 import org.springframework.test.context.junit.jupiter.SpringExtension;
 import some.unrelated.app.TestSpringBootApp;
 import some.unrelated.app.config.TestCardinalityStateMachineConfiguration.Events;
@@ -32,6 +33,7 @@ import java.util.HashMap;
 import java.util.UUID;
 
 import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
 import static org.assertj.core.api.Assertions.fail;
 import static some.unrelated.app.config.TestCardinalityStateMachineConfiguration.CARDINALITY;
 
@@ -83,4 +85,21 @@ public class SpringStateMachineCardinalityTransitionsTest {
             fail("", e);
         }
     }
+
+    @Test
+    public void testConcurrentEventsAreCountedOnce() throws Exception {
+        final String machineId = service.newMachine(def, new HashMap<>()).start().getId();
+        final Machine<States, Events> first = service.read(def, machineId);
+        final Machine<States, Events> second = service.read(def, machineId);
+
+        assertThat(first.sendEvent(Events.E23).getTransitionEventCounter()).isEqualTo(1);
+        assertThatThrownBy(() -> second.sendEvent(Events.E23))
+                .isInstanceOf(OptimisticLockingFailureException.class)
+                .as("the second event was delivered to a machine that had already counted an event");
+        assertThat(service.read(def, machineId).getTransitionEventCounter()).isEqualTo(1);
+
+        final Machine<States, Events> counted = service.read(def, machineId).sendEvent(Events.E23);
+        assertThat(counted.getTransitionEventCounter()).isEqualTo(2).as("events are counted against the latest machine");
+        assertThat(service.read(def, machineId).getTransitionEventCounter()).isEqualTo(2);
+    }
 }
@@ -0,0 +1,116 @@
+/*
+ *
+ *  * Copyright 2019 <---> Present Status Machina Contributors (https://github.com/entzik/status-machina/graphs/contributors)
+ *  *
+ *  * Licensed under the Apache License, Version 2.0 (the "License");
+ *  * you may not use this file except in compliance with the License.
+ *  * You may obtain a copy of the License at
+ *  *
+ *  *     http://www.apache.org/licenses/LICENSE-2.0
+ *  *
+ *  * This software is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR
+ *  * CONDITIONS OF ANY KIND, either express or implied. See the License for the
+ *  * specific language governing permissions and limitations under the License.
+ *
+ */
+
+package some.unrelated.app.tests;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.test.context.junit.jupiter.SpringExtension;
+import some.unrelated.app.TestSpringBootApp;
+
+import javax.sql.DataSource;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.List;
+
+import static io.statusmachina.spring.jpa.SpringJpaStateMachineService.ERROR_STATE;
+import static org.assertj.core.api.Assertions.assertThat;
+
+/**
+ * checks, with EXPLAIN, that the queries used to monitor a large fleet of machines are served by an index
+ */
+@ExtendWith(SpringExtension.class)
+@SpringBootTest(
+        classes = TestSpringBootApp.class,
+        webEnvironment = SpringBootTest.WebEnvironment.NONE
+)
+public class SpringStateQueryPlanTest {
+    private static final int MACHINES = 50_000;
+
+    @Autowired
+    DataSource dataSource;
+
+    JdbcTemplate jdbcTemplate;
+
+    long staleReference;
+
+    @BeforeEach
+    void populate() {
+        jdbcTemplate = new JdbcTemplate(dataSource);
+        final long now = Instant.now().toEpochMilli();
+        staleReference = now - Duration.ofMinutes(1).toMillis();
+        // most machines are terminated, one in 200 is active and one in 1000 has failed
+        jdbcTemplate.update("INSERT INTO sm_states (id, version, typename, crt_state, error_type, error, done, idle, locked, last_modified, transition_event_counter) " +
+                "SELECT 'plan-' || g, 0, 'plan-type-' || (g % 20), " +
+                "CASE WHEN g % 1000 = 500 THEN ? WHEN g % 200 = 0 THEN 'S2' ELSE 'S4' END, " +
+                "CASE WHEN g % 1000 = 500 THEN 'TRANSITION' ELSE 'NONE' END, 'no error', " +
+                "g % 1000 <> 500 AND g % 200 <> 0, false, true, ? - g, 0 " +
+                "FROM generate_series(1, ?) g", ERROR_STATE, now - Duration.ofHours(1).toMillis(), MACHINES);
+        jdbcTemplate.execute("ANALYZE sm_states");
+    }
+
+    @AfterEach
+    void cleanUp() {
+        jdbcTemplate.update("DELETE FROM sm_states WHERE id LIKE 'plan-%'");
+        jdbcTemplate.execute("ANALYZE sm_states");
+    }
+
+    @Test
+    void testStaleQueriesUseIndex() {
+        assertUsesIndex("SELECT * FROM sm_states WHERE error_type = 'NONE' AND done = false AND idle = false AND last_modified < " + staleReference);
+        assertUsesIndex("SELECT * FROM sm_states WHERE error_type = 'NONE' AND done = false AND idle = false AND last_modified < " + staleReference + " AND id > '' ORDER BY id LIMIT 1000");
+    }
+
+    @Test
+    void testIncrementalStaleScanUsesIndex() {
+        // the keyset window the stalled machine scanner pages through, see ExternalStateJdbcRepository.STALE_WINDOW
+        assertUsesIndex("SELECT * FROM sm_states WHERE error_type = 'NONE' AND done = false AND idle = false AND last_modified < " + staleReference +
+                " AND (last_modified, id) > (0, '') ORDER BY last_modified, id LIMIT 1000", "sm_states_stale");
+        assertUsesIndex("SELECT * FROM sm_states WHERE error_type = 'NONE' AND done = false AND idle = false AND last_modified < " + staleReference +
+                " AND (last_modified, id) > (" + (staleReference - Duration.ofMinutes(30).toMillis()) + ", 'plan-1') ORDER BY last_modified, id LIMIT 1000", "sm_states_stale");
+    }
+
+    @Test
+    void testFailedQueriesUseIndex() {
+        assertUsesIndex("SELECT * FROM sm_states WHERE crt_state = '" + ERROR_STATE + "'");
+        assertUsesIndex("SELECT * FROM sm_states WHERE crt_state = '" + ERROR_STATE + "' AND id > '' ORDER BY id LIMIT 1000");
+    }
+
+    @Test
+    void testTerminatedQueriesUseIndex() {
+        assertUsesIndex("SELECT * FROM sm_states WHERE done = true AND id > '' ORDER BY id LIMIT 1000", "sm_states_terminated");
+    }
+
+    @Test
+    void testPerTypeQueriesUseIndex() {
+        assertUsesIndex("SELECT * FROM sm_states WHERE typename = 'plan-type-0' AND crt_state = 'S2'");
+    }
+
+    private void assertUsesIndex(String query) {
+        assertUsesIndex(query, "Index");
+    }
+
+    private void assertUsesIndex(String query, String index) {
+        final String plan = String.join("\n", jdbcTemplate.queryForList("EXPLAIN " + query, String.class));
+        assertThat(plan).as("index scan for " + query + "\n" + plan).contains(index);
+        assertThat(plan).as("no sequential scan for " + query + "\n" + plan).doesNotContain("Seq Scan");
+    }
+}
@@ -0,0 +1,88 @@
+/*
+ *
+ *  * Copyright 2019 <---> Present Status Machina Contributors (https://github.com/entzik/status-machina/graphs/contributors)
+ *  *
+ *  * Licensed under the Apache License, Version 2.0 (the "License");
+ *  * you may not use this file except in compliance with the License.
+ *  * You may obtain a copy of the License at
+ *  *
+ *  *     http://www.apache.org/licenses/LICENSE-2.0
+ *  *
+ *  * This software is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR
+ *  * CONDITIONS OF ANY KIND, either express or implied. See the License for the
+ *  * specific language governing permissions and limitations under the License.
+ *
+ */
+
+package some.unrelated.app.tests;
+
+import io.statusmachina.core.api.Machine;
+import io.statusmachina.core.api.MachineDefinition;
+import io.statusmachina.core.spi.StateMachineService;
+import io.statusmachina.core.stdimpl.TransitionRecord;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.test.context.junit.jupiter.SpringExtension;
+import some.unrelated.app.TestSpringBootApp;
+import some.unrelated.app.config.TestOneStateMachineConfiguration.Events;
+import some.unrelated.app.config.TestOneStateMachineConfiguration.States;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.stream.Collectors;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+@ExtendWith(SpringExtension.class)
+@SpringBootTest(
+        classes = TestSpringBootApp.class,
+        webEnvironment = SpringBootTest.WebEnvironment.NONE,
+        properties = "statusmachina.spring.bulk-chunk-size=4"
+)
+public class SpringTransitionHistoryTest {
+    @Autowired
+    StateMachineService<States, Events> service;
+
+    @Autowired
+    @Qualifier("Test1StateMachineDef")
+    MachineDefinition<States, Events> def;
+
+    @Test
+    void testTransitionsAreRecorded() throws Exception {
+        final Machine<States, Events> machine = service.newMachine(def, Map.of()).start().sendEvent(Events.E23);
+
+        final List<TransitionRecord<States, Events>> history = service.read(def, machine.getId()).getHistory();
+        assertThat(history).hasSize(2).as("the history is read back from the sm_transitions table");
+        assertThat(history.get(0).getState()).isEqualTo(States.S2);
+        assertThat(history.get(0).getEvent().isPresent()).isFalse().as("the first transition is an STP transition");
+        assertThat(history.get(1).getState()).isEqualTo(States.S3);
+        assertThat(history.get(1).getEvent()).isEqualTo(Optional.of(Events.E23));
+        assertThat(history.get(1).getWhen().isBefore(history.get(0).getWhen())).isFalse().as("transitions are read oldest first");
+        assertThat(machine.getHistory()).hasSize(2).as("the machine a transition returns reads its history on demand too");
+
+        final Machine<States, Events> read = service.read(def, machine.getId());
+        final List<TransitionRecord<States, Events>> page = read.getHistory(1, 10);
+        assertThat(page).hasSize(1).as("a page is read with a paged query");
+        assertThat(page.get(0).getEvent()).isEqualTo(Optional.of(Events.E23));
+        assertThat(read.streamHistory().map(TransitionRecord::getState).collect(Collectors.toList())).isEqualTo(List.of(States.S2, States.S3));
+    }
+
+    @Test
+    void testBulkTransitionsAreRecorded() throws Exception {
+        final List<String> ids = new ArrayList<>();
+        for (int i = 0; i < 6; i++)
+            ids.add(service.newMachine(def, Map.of()).start().getId());
+
+        service.sendEvents(def, ids, Events.E23);
+        for (String id : ids) {
+            final List<TransitionRecord<States, Events>> history = service.read(def, id).getHistory();
+            assertThat(history).hasSize(2);
+            assertThat(history.get(1).getEvent()).isEqualTo(Optional.of(Events.E23)).as("the transitions of a chunk are inserted with the chunk");
+        }
+    }
+}
@@ -0,0 +1,84 @@
+/*
+ *
+ *  * Copyright 2019 <---> Present Status Machina Contributors (https://github.com/entzik/status-machina/graphs/contributors)
+ *  *
+ *  * Licensed under the Apache License, Version 2.0 (the "License");
+ *  * you may not use this file except in compliance with the License.
+ *  * You may obtain a copy of the License at
+ *  *
+ *  *     http://www.apache.org/licenses/LICENSE-2.0
+ *  *
+ *  * This software is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR
+ *  * CONDITIONS OF ANY KIND, either express or implied. See the License for the
+ *  * specific language governing permissions and limitations under the License.
+ *
+ */
+
+package some.unrelated.app.tests;
+
+import io.statusmachina.core.api.Machine;
+import io.statusmachina.core.api.MachineDefinition;
+import io.statusmachina.core.spi.StateMachineService;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.test.context.junit.jupiter.SpringExtension;
+import some.unrelated.app.TestSpringBootApp;
+import some.unrelated.app.config.TestCardinalityStateMachineConfiguration;
+import some.unrelated.app.config.TestCardinalityStateMachineConfiguration.Events;
+import some.unrelated.app.config.TestCardinalityStateMachineConfiguration.States;
+
+import javax.sql.DataSource;
+import java.util.Map;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+@ExtendWith(SpringExtension.class)
+@SpringBootTest(
+        classes = TestSpringBootApp.class,
+        webEnvironment = SpringBootTest.WebEnvironment.NONE,
+        properties = {
+                "statusmachina.spring.write-behind.enabled=true",
+                "statusmachina.spring.write-behind.durability=BUFFERED",
+                // only queries flush the buffer in this test
+                "statusmachina.spring.write-behind.flush-interval-millis=3600000"
+        }
+)
+public class SpringWriteBehindBufferedTest {
+    @Autowired
+    StateMachineService<States, Events> service;
+
+    @Autowired
+    @Qualifier("TestCardinalityStateMachineDef")
+    MachineDefinition<States, Events> def;
+
+    @Autowired
+    DataSource dataSource;
+
+    @Test
+    void testReadsAreServedFromTheBuffer() throws Exception {
+        final String id = service.newMachine(def, Map.of()).start().getId();
+        final JdbcTemplate jdbcTemplate = new JdbcTemplate(dataSource);
+        final long createdVersion = persistedVersion(jdbcTemplate, id);
+
+        Machine<States, Events> machine = null;
+        for (long i = 0; i < TestCardinalityStateMachineConfiguration.CARDINALITY; i++)
+            machine = service.read(def, id).sendEvent(Events.E23);
+
+        assertThat(machine.getCurrentState()).isEqualTo(States.S3);
+        assertThat(service.read(def, id).getVersion()).as("reads return the buffered machine").isEqualTo(machine.getVersion());
+        assertThat(persistedVersion(jdbcTemplate, id)).as("the read and sendEvent cycles did not write the machine").isEqualTo(createdVersion);
+
+        // queries flush the buffer, the updates of all cycles are written at once
+        service.findStale(0);
+        assertThat(persistedVersion(jdbcTemplate, id)).as("the machine is written with the version of its last update").isEqualTo(machine.getVersion());
+        assertThat(jdbcTemplate.queryForObject("SELECT crt_state FROM sm_states WHERE id = ?", String.class, id)).isEqualTo(States.S3.name());
+    }
+
+    private static long persistedVersion(JdbcTemplate jdbcTemplate, String id) {
+        return jdbcTemplate.queryForObject("SELECT version FROM sm_states WHERE id = ?", Long.class, id);
+    }
+}
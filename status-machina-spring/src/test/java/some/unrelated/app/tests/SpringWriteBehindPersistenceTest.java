@@ -0,0 +1,128 @@
+/*
+ *
+ *  * Copyright 2019 <---> Present Status Machina Contributors (https://github.com/entzik/status-machina/graphs/contributors)
+ *  *
+ *  * Licensed under the Apache License, Version 2.0 (the "License");
+ *  * you may not use this file except in compliance with the License.
+ *  * You may obtain a copy of the License at
+ *  *
+ *  *     http://www.apache.org/licenses/LICENSE-2.0
+ *  *
+ *  * This software is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR
+ *  * CONDITIONS OF ANY KIND, either express or implied. See the License for the
+ *  * specific language governing permissions and limitations under the License.
+ *
+ */
+
+package some.unrelated.app.tests;
+
+import io.statusmachina.core.api.Machine;
+import io.statusmachina.core.api.MachineDefinition;
+import io.statusmachina.core.api.TransitionException;
+import io.statusmachina.core.spi.StateMachineService;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.test.context.junit.jupiter.SpringExtension;
+import some.unrelated.app.TestSpringBootApp;
+import some.unrelated.app.config.TestOneStateMachineConfiguration.Events;
+import some.unrelated.app.config.TestOneStateMachineConfiguration.States;
+
+import javax.sql.DataSource;
+import java.util.HashMap;
+import java.util.Map;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+import static org.assertj.core.api.Assertions.fail;
+
+@ExtendWith(SpringExtension.class)
+@SpringBootTest(
+        classes = TestSpringBootApp.class,
+        webEnvironment = SpringBootTest.WebEnvironment.NONE,
+        properties = {
+                "statusmachina.spring.write-behind.enabled=true",
+                "statusmachina.spring.write-behind.flush-interval-millis=10"
+        }
+)
+public class SpringWriteBehindPersistenceTest {
+    @Autowired
+    StateMachineService<States, Events> service;
+
+    @Autowired
+    @Qualifier("Test1StateMachineDef")
+    MachineDefinition<States, Events> def;
+
+    @Autowired
+    DataSource dataSource;
+
+    @Test
+    void testUpdatesAreVisibleToReads() {
+        try {
+            final Machine<States, Events> instance = buildStateMachine().start();
+            instance.sendEvent(Events.E23);
+
+            final Machine<States, Events> updated = service.read(def, instance.getId());
+
+            assertThat(updated.getCurrentState()).isEqualTo(States.S3).as("states match");
+            // containsOnly (order-insensitive) — a persisted map has no guaranteed iteration order
+            assertThat(updated.getContext()).containsOnly(instance.getContext().entrySet().toArray(new Map.Entry[instance.getContext().size()])).as("context matches");
+        } catch (Exception e) {
+            fail("machine was not updated", e);
+        }
+    }
+
+    @Test
+    void testConsecutiveUpdatesAreCoalesced() {
+        try {
+            final Machine<States, Events> instance = buildStateMachine().start();
+            instance.sendEvent(Events.E23).sendEvent(Events.E34);
+
+            final Machine<States, Events> updated = service.read(def, instance.getId());
+
+            assertThat(updated.getCurrentState()).isEqualTo(States.S4).as("the last update wins");
+            assertThat(updated.isTerminalState()).isTrue().as("machine is done");
+            assertThat(service.findTerminated().stream().anyMatch(snapshot -> snapshot.getId().equals(instance.getId()))).isTrue().as("machine is found among terminated machines");
+        } catch (Exception e) {
+            fail("machine was not updated", e);
+        }
+    }
+
+    @Test
+    void testUpdatesOfMachinesModifiedByAnotherNodeFail() throws Exception {
+        final Machine<States, Events> instance = buildStateMachine().start();
+        // another node updates the machine
+        new JdbcTemplate(dataSource).update("UPDATE sm_states SET version = version + 1 WHERE id = ?", instance.getId());
+
+        assertThatThrownBy(() -> instance.sendEvent(Events.E23))
+                .as("the buffered update is not written over the other node's")
+                .isInstanceOf(TransitionException.class);
+        assertThat(service.read(def, instance.getId()).getCurrentState()).isEqualTo(States.S2);
+        assertThat(service.read(def, instance.getId()).getHistory().stream().filter(record -> record.getEvent().isPresent()))
+                .as("no history is kept for the rejected transition")
+                .isEmpty();
+    }
+
+    @Test
+    void testUpdatesOfStaleMachinesFail() throws Exception {
+        final Machine<States, Events> started = buildStateMachine().start();
+        final Machine<States, Events> updated = started.sendEvent(Events.E23);
+        assertThat(updated.getVersion()).as("the machine carries the version it was written with").isEqualTo(started.getVersion() + 1);
+        assertThat(service.read(def, started.getId()).getVersion()).isEqualTo(updated.getVersion());
+
+        assertThatThrownBy(() -> started.sendEvent(Events.E23))
+                .as("the machine was derived from a version that is no longer current")
+                .isInstanceOf(TransitionException.class);
+        assertThat(service.read(def, started.getId()).getCurrentState()).isEqualTo(States.S3);
+    }
+
+    private Machine<States, Events> buildStateMachine() throws Exception {
+        final HashMap<String, String> context = new HashMap<>();
+        context.put("k1", "v1");
+        context.put("k2", "v2");
+        return service.newMachine(def, context);
+    }
+}